@@ -15,6 +15,7 @@ import simpledb.storage.StringField;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
@@ -431,7 +432,11 @@ public class Parser {
                 if (curtrans == null)
                     throw new ParsingException(
                             "No transaction is currently running");
-                curtrans.commit();
+                try {
+                    curtrans.commit();
+                } catch (TransactionAbortedException e) {
+                    throw new ParsingException(e);
+                }
                 curtrans = null;
                 inUserTrans = false;
                 System.out.println("Transaction " + curtrans.getId().getId()
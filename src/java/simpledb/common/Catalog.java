@@ -2,6 +2,7 @@ package simpledb.common;
 
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
+import simpledb.storage.MemoryMappable;
 import simpledb.storage.TupleDesc;
 
 import java.io.BufferedReader;
@@ -140,6 +141,63 @@ public class Catalog {
         return tables.get(h.get(tableid)).file;
     }
 
+    /**
+     * Choose whether page reads of the specified table are served from a
+     * read-only memory mapping of its file. Intended for read-mostly tables;
+     * writes always go through regular file I/O.
+     *
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *                function passed to addTable
+     * @param mapped  true to memory-map the table, false for regular reads
+     * @throws NoSuchElementException        if the table doesn't exist
+     * @throws UnsupportedOperationException if the table's file cannot be mapped
+     */
+    public void setMemoryMapped(int tableid, boolean mapped) throws NoSuchElementException {
+        DbFile file = getDatabaseFile(tableid);
+        if (!(file instanceof MemoryMappable)) {
+            throw new UnsupportedOperationException(file.getClass().getSimpleName() + " cannot be memory-mapped");
+        }
+        ((MemoryMappable) file).setMemoryMapped(mapped);
+    }
+
+    /**
+     * @return true if page reads of the specified table come from a memory
+     *         mapping of its file
+     */
+    public boolean isMemoryMapped(int tableid) throws NoSuchElementException {
+        DbFile file = getDatabaseFile(tableid);
+        return file instanceof MemoryMappable && ((MemoryMappable) file).isMemoryMapped();
+    }
+
+    /**
+     * Choose whether the specified table is locked per record instead of per
+     * page. With record locking, transactions changing different records of
+     * the same page do not block each other, at the cost of one lock per
+     * record read or written.
+     *
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *                function passed to addTable
+     * @param on      true for record locks, false for page locks
+     * @throws NoSuchElementException        if the table doesn't exist
+     * @throws UnsupportedOperationException if the table is not a heap file
+     * @see HeapFile#setRecordLocking
+     */
+    public void setRecordLocking(int tableid, boolean on) throws NoSuchElementException {
+        DbFile file = getDatabaseFile(tableid);
+        if (!(file instanceof HeapFile)) {
+            throw new UnsupportedOperationException(file.getClass().getSimpleName() + " cannot be locked per record");
+        }
+        ((HeapFile) file).setRecordLocking(on);
+    }
+
+    /**
+     * @return true if the specified table is locked per record
+     */
+    public boolean isRecordLocking(int tableid) throws NoSuchElementException {
+        DbFile file = getDatabaseFile(tableid);
+        return file instanceof HeapFile && ((HeapFile) file).isRecordLocking();
+    }
+
     public String getPrimaryKey(int tableid) {
         // TODO: some code goes here; MAY DONE
         if (null == h.get(tableid)) {
@@ -183,7 +241,7 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(catalogFile));
 
             while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
+                //assume line is of the format name (field type, field type, ...) [mmap]
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
@@ -215,6 +273,14 @@ public class Catalog {
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
                 HeapFile tabHf = new HeapFile(new File(baseFolder + "/" + name + ".dat"), t);
+                // an optional "mmap" after the field list selects memory-mapped reads
+                String options = line.substring(line.indexOf(")") + 1).trim();
+                if (options.equalsIgnoreCase("mmap")) {
+                    tabHf.setMemoryMapped(true);
+                } else if (!options.isEmpty()) {
+                    System.out.println("Unknown table option " + options);
+                    System.exit(0);
+                }
                 addTable(tabHf, name, primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
@@ -109,6 +109,8 @@ public class Utility {
     public static HeapFile createEmptyHeapFile(String path, int cols)
             throws IOException {
         File f = new File(path);
+        // the path may name a file deleted since its channel was cached
+        FileHandleCache.getInstance().close(f);
         // touch the file
         FileOutputStream fos = new FileOutputStream(f);
         fos.write(new byte[0]);
@@ -0,0 +1,142 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A block nested-loops join. Instead of scanning the inner relation once per
+ * outer tuple, like {@link Join}, it reads a block of outer tuples into
+ * memory, up to a budget in bytes, and scans the inner relation once per
+ * block, testing each inner tuple against the whole block. For predicates
+ * other than equality, where no hash or index helps, this divides the number
+ * of inner scans by the number of outer tuples per block.
+ * <p>
+ * Results come out block by block, and within a block in inner order, not
+ * in the order of the outer relation.
+ */
+public class BlockNestedLoopJoin extends Join {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Default memory budget for a block of outer tuples: 64 pages.
+     */
+    public static final int DEFAULT_BLOCK_PAGES = 64;
+
+    private final int blockBytes;
+    private final TupleDesc comboTD;
+
+    private transient List<Tuple> block = null;
+    private transient int blocks = 0;
+    private transient Tuple t2 = null;
+    private transient int pos = 0;
+
+    /**
+     * Constructor, with the default budget of {@link #DEFAULT_BLOCK_PAGES}
+     * pages.
+     *
+     * @param p      The predicate to use to join the children
+     * @param child1 Iterator for the left(outer) relation to join
+     * @param child2 Iterator for the right(inner) relation to join
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, DEFAULT_BLOCK_PAGES * BufferPool.getPageSize());
+    }
+
+    /**
+     * @param blockBytes memory budget for a block of outer tuples; a block
+     *                   always holds at least one tuple
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int blockBytes) {
+        super(p, child1, child2);
+        if (blockBytes <= 0) {
+            throw new IllegalArgumentException("block budget must be positive");
+        }
+        this.blockBytes = blockBytes;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return the largest number of outer tuples held in one block
+     */
+    public int getBlockSize() {
+        return Math.max(1, blockBytes / child1.getTupleDesc().getSize());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        block = new ArrayList<>(getBlockSize());
+        blocks = 0;
+        t2 = null;
+    }
+
+    public void close() {
+        block = null;
+        t2 = null;
+        super.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        super.rewind();
+        block.clear();
+        blocks = 0;
+        t2 = null;
+    }
+
+    // read the next block of outer tuples, and rewind the inner relation if
+    // it was scanned for an earlier block
+    private boolean loadBlock() throws DbException, TransactionAbortedException {
+        block.clear();
+        int size = getBlockSize();
+        while (block.size() < size && child1.hasNext()) {
+            block.add(child1.next());
+        }
+        if (block.isEmpty()) {
+            return false;
+        }
+        if (blocks++ > 0) {
+            child2.rewind();
+        }
+        return true;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.
+     *
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        JoinPredicate p = getJoinPredicate();
+        while (true) {
+            if (t2 != null) {
+                while (pos < block.size()) {
+                    Tuple t1 = block.get(pos++);
+                    if (p.filter(t1, t2)) {
+                        return merge(t1, t2);
+                    }
+                }
+                t2 = null;
+            }
+            if (!block.isEmpty() && child2.hasNext()) {
+                t2 = child2.next();
+                pos = 0;
+            } else if (!loadBlock()) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileLoader;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.IOException;
+
+/**
+ * BulkLoad appends all tuples read from the child operator to a heap file,
+ * like {@link Insert}, but without going through the buffer pool one tuple at
+ * a time. Tuples are packed into full pages that are written to the end of
+ * the file in large sequential batches (see {@link HeapFileLoader}), so a load
+ * runs at about the speed the disk can write.
+ * <p>
+ * The loaded pages are logged, and become visible to other readers of the
+ * table only once the whole load has been written. If reading the child fails
+ * half way, the pages written so far are removed again.
+ */
+public class BulkLoad extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private OpIterator child;
+    private final int tableId;
+    private final TupleDesc td;
+    private boolean loaded;
+
+    /**
+     * Constructor.
+     *
+     * @param t       The transaction running the load.
+     * @param child   The child operator from which to read tuples to be loaded.
+     * @param tableId The heap file table in which to load tuples.
+     * @throws DbException if the table is not a heap file, or the TupleDesc
+     *                     of child differs from the one of the table.
+     */
+    public BulkLoad(TransactionId t, OpIterator child, int tableId)
+            throws DbException {
+        if (!(Database.getCatalog().getDatabaseFile(tableId) instanceof HeapFile)) {
+            throw new DbException("bulk loads are only supported into heap files");
+        }
+        TupleDesc tableTd = Database.getCatalog().getTupleDesc(tableId);
+        TupleDesc childTd = child.getTupleDesc();
+        if (tableTd.numFields() != childTd.numFields()) {
+            throw new DbException("tupledesc is mismatch");
+        }
+        for (int i = 0; i < tableTd.numFields(); i++) {
+            if (tableTd.getFieldType(i) != childTd.getFieldType(i)) {
+                throw new DbException("tupledesc is mismatch");
+            }
+        }
+        this.tid = t;
+        this.child = child;
+        this.tableId = tableId;
+        this.td = new TupleDesc(new Type[]{Type.INT_TYPE});
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        super.open();
+        loaded = false;
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        loaded = false;
+    }
+
+    /**
+     * Loads all tuples read from child into the table. It returns a one
+     * field tuple containing the number of loaded records, or null if
+     * called more than once.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (loaded) {
+            return null;
+        }
+        loaded = true;
+
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        HeapFileLoader loader = new HeapFileLoader(tid, (HeapFile) file);
+        long count;
+        try {
+            while (child.hasNext()) {
+                loader.add(child.next());
+            }
+            count = loader.finish();
+        } catch (IOException e) {
+            abortQuietly(loader, e);
+            throw new DbException("bulk load failed: " + e.getMessage());
+        } catch (DbException | TransactionAbortedException | RuntimeException e) {
+            abortQuietly(loader, e);
+            throw e;
+        }
+
+        Tuple result = new Tuple(td);
+        result.setField(0, new IntField((int) Math.min(count, Integer.MAX_VALUE)));
+        return result;
+    }
+
+    private static void abortQuietly(HeapFileLoader loader, Exception cause) {
+        try {
+            loader.abort();
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
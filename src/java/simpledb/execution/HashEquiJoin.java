@@ -1,6 +1,10 @@
 package simpledb.execution;
 
 import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
@@ -9,15 +13,67 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * This is a hybrid hash join. The outer relation (child1) is the build side:
+ * its tuples go into hash tables, one per partition of the join key hash.
+ * When the tables outgrow the memory budget, the largest partition still in
+ * memory is spilled to a temporary file, as are later build tuples that hash
+ * to it, until the rest fits. The inner relation (child2) is then scanned
+ * once: tuples of partitions in memory are joined at once, those of spilled
+ * partitions are written to a file of their own. Finally each pair of spilled
+ * partitions is joined by a hash join of its own, with another hash function,
+ * or, for a partition that would not split up any further (one key that is
+ * too frequent), by a {@link BlockNestedLoopJoin}.
+ * <p>
+ * A build side that fits in memory costs one scan of each input; one that
+ * does not, one more write and read of the part that was spilled.
+ * <p>
+ * When both join fields are ints, the partitions are {@link IntRowTable}s
+ * instead of hash maps keyed by field, so that neither building nor probing
+ * boxes the keys.
  */
 public class HashEquiJoin extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /**
+     * Default memory budget for the build side: 256 pages.
+     */
+    public static final int DEFAULT_MEMORY_PAGES = 256;
+
+    /**
+     * Number of partitions the build side is hashed into.
+     */
+    public static final int PARTITIONS = 8;
+
+    /**
+     * Spilled partitions of this depth are joined by nested loops instead of
+     * being partitioned again.
+     */
+    static final int MAX_DEPTH = 4;
+
     private final JoinPredicate pred;
     private OpIterator child1, child2;
     private final TupleDesc comboTD;
-    transient private Tuple t1 = null;
+    private final int memoryBytes;
+    private final int depth;
+    private final boolean intKeys;
+
+    // the partitions in memory, null where spilled; intTables when intKeys
+    private transient List<Map<Field, List<Tuple>>> tables = null;
+    private transient IntRowTable[] intTables = null;
+    private transient SpillFile[] buildSpills = null;
+    private transient SpillFile[] probeSpills = null;
+    private transient int builtTuples = 0;
+    private transient boolean probing = false;
+    private transient int nextPartition = 0;
+    private transient OpIterator partitionJoin = null;
+    private transient int spilledPartitions = 0;
+
     transient private Tuple t2 = null;
+    transient Iterator<Tuple> listIt = null;
+    transient private IntRowTable rowTable = null;
+    transient private int row = -1;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
@@ -28,10 +84,29 @@ public class HashEquiJoin extends Operator {
      * @param child2 Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, DEFAULT_MEMORY_PAGES * BufferPool.getPageSize());
+    }
+
+    /**
+     * @param memoryBytes memory budget for the build side, counted in the
+     *                    tuple size of its schema
+     */
+    public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int memoryBytes) {
+        this(p, child1, child2, memoryBytes, 0);
+    }
+
+    private HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int memoryBytes, int depth) {
+        if (memoryBytes <= 0) {
+            throw new IllegalArgumentException("memory budget must be positive");
+        }
         this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.memoryBytes = memoryBytes;
+        this.depth = depth;
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        intKeys = child1.getTupleDesc().getFieldType(p.getField1()) == Type.INT_TYPE
+                && child2.getTupleDesc().getFieldType(p.getField2()) == Type.INT_TYPE;
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -50,28 +125,109 @@ public class HashEquiJoin extends Operator {
         return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
 
-    final Map<Object, List<Tuple>> map = new HashMap<>();
-    public final static int MAP_SIZE = 20000;
+    /**
+     * @return the number of build partitions spilled to disk since the join
+     *         was opened, not counting those of nested partition joins
+     */
+    public int getSpilledPartitionCount() {
+        return spilledPartitions;
+    }
+
+    // the partition of a join key; each depth hashes differently, so that a
+    // spilled partition splits up when it is joined on its own
+    private int partition(Field key) {
+        return partition(key.hashCode());
+    }
+
+    // the same for the hash code of a key, which is the value of an int key
+    private int partition(int hash) {
+        int h = hash ^ (depth * 0x9E3779B9);
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return Math.floorMod(h, PARTITIONS);
+    }
 
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
-        map.clear();
+    private void build() throws DbException, TransactionAbortedException {
+        if (intKeys) {
+            intTables = new IntRowTable[PARTITIONS];
+            for (int i = 0; i < PARTITIONS; i++) {
+                intTables[i] = new IntRowTable();
+            }
+        } else {
+            tables = new ArrayList<>(PARTITIONS);
+            for (int i = 0; i < PARTITIONS; i++) {
+                tables.add(new HashMap<>());
+            }
+        }
+        buildSpills = new SpillFile[PARTITIONS];
+        probeSpills = new SpillFile[PARTITIONS];
+        builtTuples = 0;
+        spilledPartitions = 0;
+        int tupleBytes = child1.getTupleDesc().getSize();
+        int[] counts = new int[PARTITIONS];
+        long resident = 0;
         while (child1.hasNext()) {
-            t1 = child1.next();
-            List<Tuple> list = map.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>());
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
+            Tuple t1 = child1.next();
+            builtTuples++;
+            Field key = t1.getField(pred.getField1());
+            int part = partition(key);
+            if (buildSpills[part] != null) {
+                buildSpills[part].add(t1);
+                continue;
+            }
+            if (intKeys) {
+                intTables[part].add(((IntField) key).getValue(), t1);
+            } else {
+                tables.get(part).computeIfAbsent(key, k -> new ArrayList<>()).add(t1);
+            }
+            counts[part]++;
+            resident += tupleBytes;
+            while (resident > memoryBytes) {
+                int victim = -1;
+                for (int i = 0; i < PARTITIONS; i++) {
+                    if (buildSpills[i] == null && (victim < 0 || counts[i] > counts[victim])) {
+                        victim = i;
+                    }
+                }
+                if (victim < 0 || counts[victim] == 0) {
+                    break;
+                }
+                spill(victim);
+                resident -= (long) counts[victim] * tupleBytes;
+                counts[victim] = 0;
+            }
         }
-        return cnt > 0;
+        probing = true;
+        nextPartition = 0;
+    }
 
+    private void spill(int part) throws DbException {
+        SpillFile file = new SpillFile(child1.getTupleDesc());
+        if (intKeys) {
+            IntRowTable table = intTables[part];
+            for (int r = 0; r < table.size(); r++) {
+                file.add(table.row(r));
+            }
+            intTables[part] = null;
+        } else {
+            for (List<Tuple> tuples : tables.get(part).values()) {
+                for (Tuple t : tuples) {
+                    file.add(t);
+                }
+            }
+            tables.set(part, null);
+        }
+        buildSpills[part] = file;
+        spilledPartitions++;
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        build();
         super.open();
     }
 
@@ -79,19 +235,49 @@ public class HashEquiJoin extends Operator {
         super.close();
         child2.close();
         child1.close();
-        this.t1 = null;
+        cleanUp();
+    }
+
+    // drop the hash tables and the spill files
+    private void cleanUp() {
         this.t2 = null;
         this.listIt = null;
-        this.map.clear();
+        this.rowTable = null;
+        this.tables = null;
+        this.intTables = null;
+        if (partitionJoin != null) {
+            partitionJoin.close();
+            partitionJoin = null;
+        }
+        for (SpillFile[] files : Arrays.asList(buildSpills, probeSpills)) {
+            if (files != null) {
+                for (SpillFile f : files) {
+                    if (f != null) {
+                        f.delete();
+                    }
+                }
+            }
+        }
+        buildSpills = null;
+        probeSpills = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
+        if (spilledPartitions == 0 && (tables != null || intTables != null)) {
+            // the whole build side is still in memory
+            child2.rewind();
+            t2 = null;
+            listIt = null;
+            rowTable = null;
+            probing = true;
+            return;
+        }
+        cleanUp();
         child1.rewind();
         child2.rewind();
+        build();
     }
 
-    transient Iterator<Tuple> listIt = null;
-
     /**
      * Returns the next tuple generated by the join, or null if there are no
      * more tuples. Logically, this is the next tuple in r1 cross r2 that
@@ -111,8 +297,17 @@ public class HashEquiJoin extends Operator {
      * @see JoinPredicate#filter
      */
     private Tuple processList() {
-        t1 = listIt.next();
+        return merge(listIt.next());
+    }
+
+    // the next match of t2 in an int table
+    private Tuple processRows() {
+        Tuple t1 = rowTable.row(row);
+        row = rowTable.next(row);
+        return merge(t1);
+    }
 
+    private Tuple merge(Tuple t1) {
         int td1n = t1.getTupleDesc().numFields();
         int td2n = t2.getTupleDesc().numFields();
 
@@ -130,29 +325,83 @@ public class HashEquiJoin extends Operator {
         if (listIt != null && listIt.hasNext()) {
             return processList();
         }
+        if (rowTable != null && row >= 0) {
+            return processRows();
+        }
 
-        // loop around child2
-        while (child2.hasNext()) {
+        // loop around child2, joining what is in memory and setting aside
+        // what belongs to spilled partitions
+        while (probing && child2.hasNext()) {
             t2 = child2.next();
-
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            List<Tuple> l = map.get(t2.getField(pred.getField2()));
+            Field key = t2.getField(pred.getField2());
+            int part = partition(key);
+            boolean spilled = intKeys ? intTables[part] == null : tables.get(part) == null;
+            if (spilled) {
+                if (probeSpills[part] == null) {
+                    probeSpills[part] = new SpillFile(child2.getTupleDesc());
+                }
+                probeSpills[part].add(t2);
+                continue;
+            }
+            if (intKeys) {
+                rowTable = intTables[part];
+                row = rowTable.first(((IntField) key).getValue());
+                if (row < 0)
+                    continue;
+                return processRows();
+            }
+            List<Tuple> l = tables.get(part).get(key);
             if (l == null)
                 continue;
             listIt = l.iterator();
 
             return processList();
-
+        }
+        if (probing) {
+            probing = false;
+            if (spilledPartitions > 0) {
+                // make room for the partition joins; a rewind builds again
+                tables = null;
+                intTables = null;
+                rowTable = null;
+            }
         }
 
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+        // then the spilled partitions, one pair at a time
+        while (true) {
+            if (partitionJoin != null) {
+                if (partitionJoin.hasNext()) {
+                    return partitionJoin.next();
+                }
+                partitionJoin.close();
+                partitionJoin = null;
+            }
+            if (!openNextPartition()) {
+                return null;
+            }
         }
+    }
 
-        return null;
+    private boolean openNextPartition() throws DbException, TransactionAbortedException {
+        while (nextPartition < PARTITIONS) {
+            int part = nextPartition++;
+            SpillFile build = buildSpills[part];
+            SpillFile probe = probeSpills[part];
+            if (build == null || probe == null) {
+                continue;
+            }
+            OpIterator buildIt = build.iterator();
+            OpIterator probeIt = probe.iterator();
+            if (depth + 1 < MAX_DEPTH && build.size() < builtTuples) {
+                partitionJoin = new HashEquiJoin(pred, buildIt, probeIt, memoryBytes, depth + 1);
+            } else {
+                // hashing again would not split it up
+                partitionJoin = new BlockNestedLoopJoin(pred, buildIt, probeIt, memoryBytes);
+            }
+            partitionJoin.open();
+            return true;
+        }
+        return false;
     }
 
     @Override
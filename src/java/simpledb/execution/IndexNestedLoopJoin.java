@@ -0,0 +1,206 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * An index nested-loops join. Instead of scanning the inner relation, it
+ * looks up the inner tuples that match each outer key through an index on
+ * the inner join field, such as a {@link simpledb.index.BTreeScan}, with an
+ * {@link IndexPredicate} built from the join predicate. When few outer
+ * tuples take part, this reads only the inner pages that hold matches.
+ * <p>
+ * Outer tuples are read in batches, up to a budget in bytes, and each batch
+ * is sorted on the join field before probing. The index is then probed once
+ * per distinct key of the batch, and successive probes of a B-tree walk its
+ * leaves from left to right, whose pages are likely still in the buffer
+ * pool.
+ * <p>
+ * Results come out batch by batch, and within a batch in order of the outer
+ * join field.
+ */
+public class IndexNestedLoopJoin extends Join {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Default memory budget for a batch of outer tuples: 64 pages.
+     */
+    public static final int DEFAULT_BATCH_PAGES = 64;
+
+    private final int batchBytes;
+    private final TupleDesc comboTD;
+    private final Predicate.Op indexOp;
+
+    private transient List<Tuple> batch = null;
+    private transient List<Tuple> matches = null;
+    // the outer tuples of batch[pos, end) have the key of the last probe,
+    // and batch[pos] is joined next to matches[match]
+    private transient int pos = 0;
+    private transient int end = 0;
+    private transient int match = 0;
+    private transient int probes = 0;
+
+    /**
+     * Constructor, with the default budget of {@link #DEFAULT_BATCH_PAGES}
+     * pages.
+     *
+     * @param p      The predicate to use to join the children; its second
+     *               field must be the field the index is on
+     * @param child1 Iterator for the left(outer) relation to join
+     * @param child2 Index on the right(inner) relation to join
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, IndexOpIterator child2) {
+        this(p, child1, child2, DEFAULT_BATCH_PAGES * BufferPool.getPageSize());
+    }
+
+    /**
+     * @param batchBytes memory budget for a batch of outer tuples; a batch
+     *                   always holds at least one tuple
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, IndexOpIterator child2, int batchBytes) {
+        super(p, child1, child2);
+        if (batchBytes <= 0) {
+            throw new IllegalArgumentException("batch budget must be positive");
+        }
+        this.indexOp = indexOp(p.getOperator());
+        if (indexOp == null) {
+            throw new IllegalArgumentException("index join does not support " + p.getOperator());
+        }
+        this.batchBytes = batchBytes;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return true if an index can evaluate op, i.e. op is equality or one
+     *         of the four range comparisons
+     */
+    public static boolean supports(Predicate.Op op) {
+        return indexOp(op) != null;
+    }
+
+    // the predicate outer.f1 op inner.f2, as seen from the inner side
+    private static Predicate.Op indexOp(Predicate.Op op) {
+        switch (op) {
+            case EQUALS:
+                return Predicate.Op.EQUALS;
+            case LESS_THAN:
+                return Predicate.Op.GREATER_THAN;
+            case LESS_THAN_OR_EQ:
+                return Predicate.Op.GREATER_THAN_OR_EQ;
+            case GREATER_THAN:
+                return Predicate.Op.LESS_THAN;
+            case GREATER_THAN_OR_EQ:
+                return Predicate.Op.LESS_THAN_OR_EQ;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return the largest number of outer tuples held in one batch
+     */
+    public int getBatchSize() {
+        return Math.max(1, batchBytes / child1.getTupleDesc().getSize());
+    }
+
+    /**
+     * @return the number of index lookups made since the join was opened
+     */
+    public int getProbeCount() {
+        return probes;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        batch = new ArrayList<>(getBatchSize());
+        matches = new ArrayList<>();
+        probes = 0;
+        pos = end = match = 0;
+    }
+
+    public void close() {
+        batch = null;
+        matches = null;
+        super.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        batch.clear();
+        matches.clear();
+        pos = end = match = 0;
+    }
+
+    // read and sort the next batch of outer tuples
+    private boolean loadBatch() throws DbException, TransactionAbortedException {
+        batch.clear();
+        int size = getBatchSize();
+        while (batch.size() < size && child1.hasNext()) {
+            batch.add(child1.next());
+        }
+        int f1 = getJoinPredicate().getField1();
+        batch.sort((a, b) -> {
+            Field k1 = a.getField(f1), k2 = b.getField(f1);
+            return k1.compare(Predicate.Op.EQUALS, k2) ? 0
+                    : k1.compare(Predicate.Op.LESS_THAN, k2) ? -1 : 1;
+        });
+        pos = end = 0;
+        return !batch.isEmpty();
+    }
+
+    // look up the inner tuples that match the key of batch[end], and move
+    // end past the outer tuples with that key
+    private void probe() throws DbException, TransactionAbortedException {
+        int f1 = getJoinPredicate().getField1();
+        Field key = batch.get(end).getField(f1);
+        do {
+            end++;
+        } while (end < batch.size() && batch.get(end).getField(f1).compare(Predicate.Op.EQUALS, key));
+
+        IndexOpIterator index = (IndexOpIterator) child2;
+        index.rewind(new IndexPredicate(indexOp, key));
+        probes++;
+        matches.clear();
+        while (index.hasNext()) {
+            matches.add(index.next());
+        }
+        match = 0;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.
+     *
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            while (pos < end) {
+                if (match < matches.size()) {
+                    return merge(batch.get(pos), matches.get(match++));
+                }
+                pos++;
+                match = 0;
+            }
+            if (end == batch.size() && !loadBatch()) {
+                return null;
+            }
+            probe();
+        }
+    }
+}
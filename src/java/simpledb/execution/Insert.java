@@ -2,12 +2,16 @@ package simpledb.execution;
 
 import simpledb.common.Database;
 import simpledb.common.DbException;
+import simpledb.common.Type;
 import simpledb.storage.BufferPool;
+import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
+import java.io.IOException;
+
 /**
  * Inserts tuples read from the child operator into the tableId specified in the
  * constructor
@@ -16,6 +20,12 @@ public class Insert extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    private final TransactionId tid;
+    private OpIterator child;
+    private final int tableId;
+    private final TupleDesc td;
+    private boolean inserted;
+
     /**
      * Constructor.
      *
@@ -27,24 +37,40 @@ public class Insert extends Operator {
      */
     public Insert(TransactionId t, OpIterator child, int tableId)
             throws DbException {
-        // TODO: some code goes here
+        TupleDesc tableTd = Database.getCatalog().getTupleDesc(tableId);
+        TupleDesc childTd = child.getTupleDesc();
+        if (tableTd.numFields() != childTd.numFields()) {
+            throw new DbException("tupledesc is mismatch");
+        }
+        for (int i = 0; i < tableTd.numFields(); i++) {
+            if (tableTd.getFieldType(i) != childTd.getFieldType(i)) {
+                throw new DbException("tupledesc is mismatch");
+            }
+        }
+        this.tid = t;
+        this.child = child;
+        this.tableId = tableId;
+        this.td = new TupleDesc(new Type[]{Type.INT_TYPE});
     }
 
     public TupleDesc getTupleDesc() {
-        // TODO: some code goes here
-        return null;
+        return td;
     }
 
     public void open() throws DbException, TransactionAbortedException {
-        // TODO: some code goes here
+        child.open();
+        super.open();
+        inserted = false;
     }
 
     public void close() {
-        // TODO: some code goes here
+        super.close();
+        child.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        // TODO: some code goes here
+        child.rewind();
+        inserted = false;
     }
 
     /**
@@ -61,18 +87,33 @@ public class Insert extends Operator {
      * @see BufferPool#insertTuple
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        // TODO: some code goes here
-        return null;
+        if (inserted) {
+            return null;
+        }
+        inserted = true;
+
+        int count = 0;
+        BufferPool bp = Database.getBufferPool();
+        while (child.hasNext()) {
+            try {
+                bp.insertTuple(tid, tableId, child.next());
+            } catch (IOException e) {
+                throw new DbException("insert failed: " + e.getMessage());
+            }
+            count++;
+        }
+        Tuple result = new Tuple(td);
+        result.setField(0, new IntField(count));
+        return result;
     }
 
     @Override
     public OpIterator[] getChildren() {
-        // TODO: some code goes here
-        return null;
+        return new OpIterator[]{child};
     }
 
     @Override
     public void setChildren(OpIterator[] children) {
-        // TODO: some code goes here
+        this.child = children[0];
     }
 }
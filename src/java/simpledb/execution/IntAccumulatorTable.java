@@ -0,0 +1,124 @@
+package simpledb.execution;
+
+/**
+ * A hash table from int keys to a long accumulator and a count, for
+ * aggregates grouped by an int column. It uses open addressing with linear
+ * probing over primitive arrays, so merging a value into its group neither
+ * allocates nor boxes anything.
+ * <p>
+ * Groups live in slots: {@link #indexOf} finds the slot of a key and
+ * {@link #insert} creates it, and slots can be walked from 0 to
+ * {@link #capacity()}, skipping those for which {@link #isUsed} is false.
+ * Slots move when the table grows, so slot numbers are only valid until the
+ * next insert.
+ */
+final class IntAccumulatorTable {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private int[] keys;
+    private long[] values;
+    private long[] counts;     // a slot is used when its count is positive
+    private int mask;
+    private int size = 0;
+
+    IntAccumulatorTable() {
+        allocate(MIN_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new long[capacity];
+        counts = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    private int find(int key) {
+        int i = IntRowTable.mix(key) & mask;
+        while (counts[i] > 0 && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * @return the slot of key, or -1 if key is not in the table
+     */
+    int indexOf(int key) {
+        int i = find(key);
+        return counts[i] > 0 ? i : -1;
+    }
+
+    /**
+     * Add a key that is not in the table yet, with a count of one.
+     *
+     * @return the slot of key
+     */
+    int insert(int key, long value) {
+        // at most half full, to keep probe sequences short
+        if ((size + 1) * 2 > keys.length) {
+            rehash();
+        }
+        int i = find(key);
+        keys[i] = key;
+        values[i] = value;
+        counts[i] = 1;
+        size++;
+        return i;
+    }
+
+    private void rehash() {
+        int[] oldKeys = keys;
+        long[] oldValues = values;
+        long[] oldCounts = counts;
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldCounts[i] > 0) {
+                int j = find(oldKeys[i]);
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+                counts[j] = oldCounts[i];
+            }
+        }
+    }
+
+    int capacity() {
+        return keys.length;
+    }
+
+    boolean isUsed(int slot) {
+        return counts[slot] > 0;
+    }
+
+    int key(int slot) {
+        return keys[slot];
+    }
+
+    long value(int slot) {
+        return values[slot];
+    }
+
+    void setValue(int slot, long value) {
+        values[slot] = value;
+    }
+
+    long count(int slot) {
+        return counts[slot];
+    }
+
+    void increment(int slot) {
+        counts[slot]++;
+    }
+
+    /**
+     * @return the number of keys
+     */
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        allocate(MIN_CAPACITY);
+        size = 0;
+    }
+}
@@ -0,0 +1,121 @@
+package simpledb.execution;
+
+import simpledb.storage.Tuple;
+
+import java.util.Arrays;
+
+/**
+ * A hash table from int keys to lists of rows, for joins on an int column.
+ * It uses open addressing with linear probing over primitive arrays, so
+ * neither adding nor looking up a row allocates or boxes anything.
+ * <p>
+ * Each key slot holds the index of the last row added under the key, and
+ * each row the index of the row added before it under the same key:
+ * <pre>
+ *     for (int r = table.first(key); r >= 0; r = table.next(r)) {
+ *         Tuple t = table.row(r);
+ *     }
+ * </pre>
+ * visits the rows of a key, newest first.
+ */
+final class IntRowTable {
+
+    private static final int MIN_CAPACITY = 16;
+
+    // key slots, used when head[i] >= 0
+    private int[] keys;
+    private int[] head;
+    private int mask;
+    private int keyCount = 0;
+
+    private Tuple[] rows = new Tuple[MIN_CAPACITY];
+    private int[] next = new int[MIN_CAPACITY];
+    private int rowCount = 0;
+
+    IntRowTable() {
+        allocate(MIN_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        head = new int[capacity];
+        Arrays.fill(head, -1);
+        mask = capacity - 1;
+    }
+
+    // spread the bits of the key, since int keys are often small and dense
+    static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int slotOf(int key) {
+        int i = mix(key) & mask;
+        while (head[i] >= 0 && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * Add a row under key.
+     */
+    void add(int key, Tuple row) {
+        if (rowCount == rows.length) {
+            rows = Arrays.copyOf(rows, rowCount * 2);
+            next = Arrays.copyOf(next, rowCount * 2);
+        }
+        int i = slotOf(key);
+        if (head[i] < 0) {
+            keys[i] = key;
+            keyCount++;
+        }
+        rows[rowCount] = row;
+        next[rowCount] = head[i];
+        head[i] = rowCount++;
+        // at most half full, to keep probe sequences short
+        if (keyCount * 2 > keys.length) {
+            rehash();
+        }
+    }
+
+    private void rehash() {
+        int[] oldKeys = keys;
+        int[] oldHead = head;
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldHead[i] >= 0) {
+                int j = slotOf(oldKeys[i]);
+                keys[j] = oldKeys[i];
+                head[j] = oldHead[i];
+            }
+        }
+    }
+
+    /**
+     * @return the index of the newest row under key, or -1 if there is none
+     */
+    int first(int key) {
+        return head[slotOf(key)];
+    }
+
+    /**
+     * @return the index of the row added under the same key before row r,
+     *         or -1 if there is none
+     */
+    int next(int r) {
+        return next[r];
+    }
+
+    Tuple row(int r) {
+        return rows[r];
+    }
+
+    /**
+     * @return the number of rows; rows are numbered from 0 in the order
+     *         they were added
+     */
+    int size() {
+        return rowCount;
+    }
+}
@@ -16,6 +16,11 @@ import simpledb.common.DbException;
 
 /**
  * Knows how to compute some aggregate over a set of IntFields.
+ * <p>
+ * Groups with an int group-by field are kept in an
+ * {@link IntAccumulatorTable}, which merges a tuple into its group without
+ * boxing the key or the running value; other groups in hash maps keyed by
+ * the group-by field.
  */
 public class IntegerAggregator implements Aggregator {
 
@@ -38,6 +43,7 @@ public class IntegerAggregator implements Aggregator {
     private Op what;
     private ConcurrentHashMap<Field, Integer> value_h;
     private ConcurrentHashMap<Field, Integer> count_h;
+    private IntAccumulatorTable int_h;
     private int sum_val;
     private int count_val;
     private TupleDesc tupleDesc;
@@ -50,6 +56,9 @@ public class IntegerAggregator implements Aggregator {
 
         this.value_h = new ConcurrentHashMap<Field, Integer>();
         this.count_h = new ConcurrentHashMap<Field, Integer>();
+        if (gbfield != NO_GROUPING && gbfieldtype == Type.INT_TYPE) {
+            this.int_h = new IntAccumulatorTable();
+        }
         this.sum_val = 0;
         this.count_val = 0;
 
@@ -62,6 +71,49 @@ public class IntegerAggregator implements Aggregator {
 
     }
 
+    // the running value of a group after merging a_val into old_val
+    private long merge(long old_val, int a_val) {
+        switch (what) {
+            case MIN:
+                return Math.min(old_val, a_val);
+            case MAX:
+                return Math.max(old_val, a_val);
+            case SUM:
+            case AVG:
+            case SUM_COUNT:
+            case SC_AVG:
+                return old_val + a_val;
+            default:
+                return old_val;
+        }
+    }
+
+    // the aggregate value of a group
+    private int aggregate(long val, long count) {
+        switch (what) {
+            case AVG:
+            case SC_AVG:
+                return (int) (val / count);
+            case COUNT:
+            case SUM_COUNT:
+                return (int) count;
+            default:
+                return (int) val;
+        }
+    }
+
+    private void mergeTupleByIntGroup(Tuple tup) {
+        int g_val = ((IntField) tup.getField(gbfield)).getValue();
+        int a_val = ((IntField) tup.getField(afield)).getValue();
+        int slot = int_h.indexOf(g_val);
+        if (slot < 0) {
+            int_h.insert(g_val, what == Op.COUNT ? 0 : a_val);
+        } else {
+            int_h.setValue(slot, merge(int_h.value(slot), a_val));
+            int_h.increment(slot);
+        }
+    }
+
     private void mergeTupleByGroup(Tuple tup) {
         Field g_field = (Field) tup.getField(gbfield);
         IntField a_field = (IntField) tup.getField(afield);
@@ -137,6 +189,8 @@ public class IntegerAggregator implements Aggregator {
     public void mergeTupleIntoGroup(Tuple tup) {
         if (gbfield == NO_GROUPING) {
             mergeTupleNoGroup(tup);
+        } else if (int_h != null) {
+            mergeTupleByIntGroup(tup);
         } else {
             mergeTupleByGroup(tup);
         }
@@ -169,23 +223,7 @@ public class IntegerAggregator implements Aggregator {
 
                     Tuple tp = new Tuple(tupleDesc);
 
-                    int agg_val = 0;
-                    switch (what) {
-                        case MIN:
-                        case MAX:
-                        case SUM:
-                            agg_val = sum_val;
-                            break;
-                        case AVG:
-                        case SC_AVG:
-                            agg_val = sum_val / count_val;
-                            break;
-                        case SUM_COUNT:
-                            agg_val = count_val;
-                            break;
-                    }
-
-                    IntField f = new IntField(agg_val);
+                    IntField f = new IntField(aggregate(sum_val, count_val));
                     tp.setField(0, f);
                    return tp;
                 }
@@ -204,6 +242,49 @@ public class IntegerAggregator implements Aggregator {
                 }
             };
 
+        } else if (int_h != null) {
+            it = new OpIterator() {
+                private int slot = -1;
+
+                // move to the next used slot, or to the end of the table
+                private void advance() {
+                    do {
+                        slot++;
+                    } while (slot < int_h.capacity() && !int_h.isUsed(slot));
+                }
+
+                public void open() throws DbException, TransactionAbortedException {
+                    slot = -1;
+                    advance();
+                }
+
+                public boolean hasNext() throws DbException, TransactionAbortedException {
+                    return slot < int_h.capacity();
+                }
+
+                public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    Tuple tp = new Tuple(tupleDesc);
+                    tp.setField(0, new IntField(int_h.key(slot)));
+                    tp.setField(1, new IntField(aggregate(int_h.value(slot), int_h.count(slot))));
+                    advance();
+                    return tp;
+                }
+
+                public void rewind() throws DbException, TransactionAbortedException {
+                    open();
+                }
+
+                public TupleDesc getTupleDesc() {
+                    return tupleDesc;
+                }
+
+                public void close() {
+                    return;
+                }
+            };
         } else {
             it = new OpIterator() {
                 Enumeration enu;
@@ -223,23 +304,7 @@ public class IntegerAggregator implements Aggregator {
                     int count_val = count_h.get(c_key);
                     Tuple tp = new Tuple(tupleDesc);
 
-                    int agg_val = 0;
-                    switch (what) {
-                        case MIN:
-                        case MAX:
-                        case SUM:
-                            agg_val = sum_val;
-                            break;
-                        case AVG:
-                        case SC_AVG:
-                            agg_val = sum_val / count_val;
-                            break;
-                        case SUM_COUNT:
-                            agg_val = count_val;
-                            break;
-                    }
-
-                    IntField f = new IntField(agg_val);
+                    IntField f = new IntField(aggregate(sum_val, count_val));
                     tp.setField(0, c_key);
                     tp.setField(1, f);
                    return tp;
@@ -24,8 +24,8 @@ public class Join extends Operator {
      */
 
     private JoinPredicate p;
-    private OpIterator child1;
-    private OpIterator child2;
+    protected OpIterator child1;
+    protected OpIterator child2;
     private Tuple t1;
 
     public Join(JoinPredicate p, OpIterator child1, OpIterator child2) {
@@ -137,6 +137,24 @@ public class Join extends Operator {
         return null;
     }
 
+    /**
+     * @return the concatenation of t1, from the outer relation, and t2, from
+     *         the inner one, with the record id of t1
+     */
+    protected Tuple merge(Tuple t1, Tuple t2) {
+        TupleDesc td = getTupleDesc();
+        int outerFields = t1.getTupleDesc().numFields();
+        Tuple res = new Tuple(td);
+        for (int i = 0; i < outerFields; i++) {
+            res.setField(i, t1.getField(i));
+        }
+        for (int i = outerFields; i < td.numFields(); i++) {
+            res.setField(i, t2.getField(i - outerFields));
+        }
+        res.setRecordId(t1.getRecordId());
+        return res;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         // TODO: some code goes here
@@ -0,0 +1,239 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A sort-merge join, for children that both come out sorted in ascending
+ * order of their join fields, e.g. scans of B-trees keyed on them or
+ * {@link OrderBy} operators. It makes a single pass over each child, instead
+ * of hashing or rescanning one of them.
+ * <p>
+ * For equality, the inner relation is read one run of equal keys at a time,
+ * and each outer tuple with that key is joined to the whole run, so
+ * duplicates on both sides are handled while holding only one run in memory.
+ * For the range predicates {@code <, <=, >, >=} the inner relation is read
+ * into memory once, and since the outer keys only grow, the inner tuples that
+ * match an outer tuple are a suffix (for {@code <, <=}) or a prefix (for
+ * {@code >, >=}) of it whose boundary only moves forward.
+ * <p>
+ * Results come out in the order of the outer relation, so they are sorted on
+ * its join field.
+ */
+public class SortMergeJoin extends Join {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TupleDesc comboTD;
+
+    private transient Tuple t1 = null;
+    private transient Field lastKey1 = null;
+    private transient int pos = 0;
+
+    // equality: the current run of inner tuples, its key and the first inner
+    // tuple after it
+    private transient List<Tuple> run = null;
+    private transient Field runKey = null;
+    private transient Tuple t2 = null;
+    private transient Field lastKey2 = null;
+
+    // ranges: the whole inner relation, the boundary of the matches of the
+    // current outer tuple, and the end of the part of it to return
+    private transient List<Tuple> inner = null;
+    private transient int bound = 0;
+    private transient int end = 0;
+
+    /**
+     * Constructor. Both children must be sorted in ascending order of the
+     * field the predicate joins them on.
+     *
+     * @param p      The predicate to use to join the children; see
+     *               {@link #supports}
+     * @param child1 Iterator for the left(outer) relation to join
+     * @param child2 Iterator for the right(inner) relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        super(p, child1, child2);
+        if (!supports(p.getOperator())) {
+            throw new IllegalArgumentException("sort-merge join does not support " + p.getOperator());
+        }
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return true if a sort-merge join can evaluate op: equality and the
+     *         four range comparisons
+     */
+    public static boolean supports(Predicate.Op op) {
+        switch (op) {
+            case EQUALS:
+            case LESS_THAN:
+            case LESS_THAN_OR_EQ:
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        if (getJoinPredicate().getOperator() == Predicate.Op.EQUALS) {
+            run = new ArrayList<>();
+        } else {
+            inner = new ArrayList<>();
+            while (child2.hasNext()) {
+                inner.add(nextInner());
+            }
+        }
+        reset();
+    }
+
+    public void close() {
+        t1 = null;
+        run = null;
+        inner = null;
+        t2 = null;
+        super.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        // the inner relation of a range join is already in memory
+        if (inner != null) {
+            child1.rewind();
+        } else {
+            super.rewind();
+        }
+        reset();
+    }
+
+    private void reset() throws DbException, TransactionAbortedException {
+        t1 = null;
+        lastKey1 = null;
+        pos = 0;
+        bound = 0;
+        end = 0;
+        if (run != null) {
+            run.clear();
+            runKey = null;
+            lastKey2 = null;
+            t2 = child2.hasNext() ? nextInner() : null;
+        }
+    }
+
+    private Tuple nextOuter() throws DbException, TransactionAbortedException {
+        Tuple t = child1.next();
+        lastKey1 = checkOrder(lastKey1, t.getField(getJoinPredicate().getField1()));
+        return t;
+    }
+
+    private Tuple nextInner() throws DbException, TransactionAbortedException {
+        Tuple t = child2.next();
+        lastKey2 = checkOrder(lastKey2, t.getField(getJoinPredicate().getField2()));
+        return t;
+    }
+
+    // a merge over unsorted input silently loses matches, so refuse it
+    private static Field checkOrder(Field last, Field key) throws DbException {
+        if (last != null && key.compare(Predicate.Op.LESS_THAN, last)) {
+            throw new DbException("sort-merge join input is not sorted on its join field");
+        }
+        return key;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.
+     *
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (run != null) {
+            return fetchNextEqual();
+        } else {
+            return fetchNextInRange();
+        }
+    }
+
+    private Tuple fetchNextEqual() throws TransactionAbortedException, DbException {
+        int f2 = getJoinPredicate().getField2();
+        while (true) {
+            if (t1 != null && pos < run.size()) {
+                return merge(t1, run.get(pos++));
+            }
+            if (!child1.hasNext()) {
+                return null;
+            }
+            t1 = nextOuter();
+            pos = 0;
+            Field key = t1.getField(getJoinPredicate().getField1());
+            if (runKey != null && runKey.compare(Predicate.Op.EQUALS, key)) {
+                continue;
+            }
+            run.clear();
+            runKey = null;
+            while (t2 != null && t2.getField(f2).compare(Predicate.Op.LESS_THAN, key)) {
+                t2 = child2.hasNext() ? nextInner() : null;
+            }
+            if (t2 == null) {
+                // every remaining outer key is larger than the last inner one
+                return null;
+            }
+            if (t2.getField(f2).compare(Predicate.Op.EQUALS, key)) {
+                runKey = key;
+                while (t2 != null && t2.getField(f2).compare(Predicate.Op.EQUALS, key)) {
+                    run.add(t2);
+                    t2 = child2.hasNext() ? nextInner() : null;
+                }
+            }
+        }
+    }
+
+    private Tuple fetchNextInRange() throws TransactionAbortedException, DbException {
+        Predicate.Op op = getJoinPredicate().getOperator();
+        int f2 = getJoinPredicate().getField2();
+        // inner tuples before the boundary have keys below the current outer
+        // key, or equal to it for < and >=
+        Predicate.Op below = op == Predicate.Op.LESS_THAN || op == Predicate.Op.GREATER_THAN_OR_EQ
+                ? Predicate.Op.LESS_THAN_OR_EQ : Predicate.Op.LESS_THAN;
+        boolean suffix = op == Predicate.Op.LESS_THAN || op == Predicate.Op.LESS_THAN_OR_EQ;
+        while (true) {
+            if (t1 != null && pos < end) {
+                return merge(t1, inner.get(pos++));
+            }
+            if (!child1.hasNext()) {
+                return null;
+            }
+            t1 = nextOuter();
+            Field key = t1.getField(getJoinPredicate().getField1());
+            while (bound < inner.size() && inner.get(bound).getField(f2).compare(below, key)) {
+                bound++;
+            }
+            if (suffix) {
+                if (bound == inner.size()) {
+                    // no inner key is large enough for this or any later outer key
+                    return null;
+                }
+                pos = bound;
+                end = inner.size();
+            } else {
+                pos = 0;
+                end = bound;
+            }
+        }
+    }
+}
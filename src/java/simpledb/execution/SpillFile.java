@@ -0,0 +1,151 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.NoSuchElementException;
+
+/**
+ * A temporary file of tuples, for operators whose input does not fit in
+ * memory. Tuples are appended with {@link #add}, in their serialized field
+ * format, and read back in the same order through {@link #iterator}, after
+ * which no more tuples may be added. The file is removed by {@link #delete}.
+ */
+final class SpillFile {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private int size = 0;
+
+    SpillFile(TupleDesc td) throws DbException {
+        this.td = td;
+        try {
+            file = File.createTempFile("simpledb", ".spill");
+            file.deleteOnExit();
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+        } catch (IOException e) {
+            throw spillError(e);
+        }
+    }
+
+    private static DbException spillError(IOException e) {
+        return new DbException("could not spill tuples to disk: " + e.getMessage());
+    }
+
+    void add(Tuple t) throws DbException {
+        try {
+            for (int i = 0; i < td.numFields(); i++) {
+                t.getField(i).serialize(out);
+            }
+        } catch (IOException e) {
+            throw spillError(e);
+        }
+        size++;
+    }
+
+    /**
+     * @return the number of tuples in the file
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return an iterator over the tuples of the file; there can be several
+     */
+    OpIterator iterator() throws DbException {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                throw spillError(e);
+            }
+            out = null;
+        }
+        return new Reader();
+    }
+
+    void delete() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // the file goes anyway
+            }
+            out = null;
+        }
+        file.delete();
+    }
+
+    private final class Reader implements OpIterator {
+        private static final long serialVersionUID = 1L;
+
+        private transient DataInputStream in = null;
+        private int read = 0;
+
+        public void open() throws DbException {
+            close();
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+            } catch (IOException e) {
+                throw spillError(e);
+            }
+            read = 0;
+        }
+
+        public boolean hasNext() {
+            if (in == null) {
+                throw new IllegalStateException("spill file not open");
+            }
+            return read < size;
+        }
+
+        public Tuple next() throws DbException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++) {
+                    t.setField(i, td.getFieldType(i).parse(in));
+                }
+            } catch (ParseException e) {
+                throw new DbException("could not read back spilled tuple: " + e.getMessage());
+            }
+            read++;
+            return t;
+        }
+
+        public void rewind() throws DbException {
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // nothing left to read from it
+                }
+                in = null;
+            }
+        }
+    }
+}
@@ -11,6 +11,7 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -26,12 +27,13 @@ import java.util.*;
  * @see BTreeHeaderPage#BTreeHeaderPage
  * @see BTreeRootPtrPage#BTreeRootPtrPage
  */
-public class BTreeFile implements DbFile {
+public class BTreeFile implements DbFile, MemoryMappable {
 
     private final File f;
     private final TupleDesc td;
     private final int tableid;
     private final int keyField;
+    private volatile MappedDataFile mapped = null;
 
     /**
      * Constructs a B+ tree file backed by the specified file.
@@ -86,54 +88,109 @@ public class BTreeFile implements DbFile {
      */
     public Page readPage(PageId pid) {
         BTreePageId id = (BTreePageId) pid;
-
-        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
-            if (id.pgcateg() == BTreePageId.ROOT_PTR) {
-                byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
-                int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-                if (retval == -1) {
-                    throw new IllegalArgumentException("Read past end of table");
-                }
-                if (retval < BTreeRootPtrPage.getPageSize()) {
-                    throw new IllegalArgumentException("Unable to read "
-                            + BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
+        int pageSize = pageSize(id);
+        long offset = pageOffset(id);
+
+        try {
+            byte[] pageBuf = new byte[pageSize];
+            MappedDataFile m = mapped;
+            ByteBuffer slice = (m == null) ? null : m.slice(offset, pageSize);
+            if (slice != null) {
+                // the page constructors parse a byte array; copying it out of
+                // the mapping is a plain memory copy, with no system call
+                slice.get(pageBuf);
+            } else {
+                try (FileHandleCache.Handle h = FileHandleCache.getInstance().acquire(f)) {
+                    int retval = h.readFully(ByteBuffer.wrap(pageBuf), offset);
+                    if (retval == 0) {
+                        throw new IllegalArgumentException("Read past end of table");
+                    }
+                    if (retval < pageSize) {
+                        throw new IllegalArgumentException("Unable to read "
+                                + pageSize + " bytes from BTreeFile");
+                    }
                 }
-                Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-                return new BTreeRootPtrPage(id, pageBuf);
+            }
+            Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
+            return newPage(id, pageBuf);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public boolean readsPagesInBatches() {
+        return true;
+    }
+
+    /**
+     * Read count consecutive pages with one read. All of them are taken to be
+     * of the category of first, so callers must know that, e.g. from the
+     * child pointers of an internal page. The root pointer page can only be
+     * read on its own.
+     *
+     * @param first - the id of the first page to read
+     * @param count - the number of pages to read
+     * @return the pages, fewer than count if the file ends earlier
+     */
+    public List<Page> readPages(PageId first, int count) {
+        BTreePageId id = (BTreePageId) first;
+        if (id.pgcateg() == BTreePageId.ROOT_PTR || count == 1) {
+            return Collections.singletonList(readPage(id));
+        }
+        int pageSize = BufferPool.getPageSize();
+        int n = Math.min(count, numPages() - (id.getPageNumber() - 1));
+        if (n <= 0) {
+            throw new IllegalArgumentException("Read past end of table");
+        }
+
+        try {
+            ByteBuffer buf;
+            MappedDataFile m = mapped;
+            ByteBuffer slice = (m == null) ? null : m.slice(pageOffset(id), n * pageSize);
+            if (slice != null) {
+                buf = slice;
             } else {
-                byte[] pageBuf = new byte[BufferPool.getPageSize()];
-                if (bis.skip(BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) !=
-                        BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException(
-                            "Unable to seek to correct place in BTreeFile");
+                buf = ByteBuffer.allocate(n * pageSize);
+                try (FileHandleCache.Handle h = FileHandleCache.getInstance().acquire(f)) {
+                    n = h.readFully(buf, pageOffset(id)) / pageSize;
                 }
-                int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-                if (retval == -1) {
+                if (n == 0) {
                     throw new IllegalArgumentException("Read past end of table");
                 }
-                if (retval < BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException("Unable to read "
-                            + BufferPool.getPageSize() + " bytes from BTreeFile");
-                }
-                Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-                if (id.pgcateg() == BTreePageId.INTERNAL) {
-                    return new BTreeInternalPage(id, pageBuf, keyField);
-                } else if (id.pgcateg() == BTreePageId.LEAF) {
-                    return new BTreeLeafPage(id, pageBuf, keyField);
-                } else { // id.pgcateg() == BTreePageId.HEADER
-                    return new BTreeHeaderPage(id, pageBuf);
-                }
             }
+            Debug.log(1, "BTreeFile.readPages: read pages %d to %d", id.getPageNumber(), id.getPageNumber() + n - 1);
+
+            List<Page> pages = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                byte[] pageBuf = new byte[pageSize];
+                buf.position(i * pageSize);
+                buf.get(pageBuf);
+                BTreePageId pid = new BTreePageId(tableid, id.getPageNumber() + i, id.pgcateg());
+                pages.add(newPage(pid, pageBuf));
+            }
+            return pages;
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        // Close the file on success or error
-        // Ignore failures closing the file
+    }
+
+    private Page newPage(BTreePageId id, byte[] pageBuf) throws IOException {
+        if (id.pgcateg() == BTreePageId.ROOT_PTR) {
+            return new BTreeRootPtrPage(id, pageBuf);
+        } else if (id.pgcateg() == BTreePageId.INTERNAL) {
+            return new BTreeInternalPage(id, pageBuf, keyField);
+        } else if (id.pgcateg() == BTreePageId.LEAF) {
+            return new BTreeLeafPage(id, pageBuf, keyField);
+        } else { // id.pgcateg() == BTreePageId.HEADER
+            return new BTreeHeaderPage(id, pageBuf);
+        }
     }
 
     /**
      * Write a page to disk.  This should not be called directly but should
-     * be called from the BufferPool when pages are flushed to disk
+     * be called from the BufferPool when pages are flushed to disk.
+     * Writes always use the file channel, even when reads are memory-mapped.
      *
      * @param page - the page to write to disk
      */
@@ -141,15 +198,39 @@ public class BTreeFile implements DbFile {
         BTreePageId id = (BTreePageId) page.getId();
 
         byte[] data = page.getPageData();
-        RandomAccessFile rf = new RandomAccessFile(f, "rw");
+        try (FileHandleCache.Handle h = FileHandleCache.getInstance().acquire(f)) {
+            h.writeFully(ByteBuffer.wrap(data), pageOffset(id));
+        }
+    }
+
+    // the root pointer page is smaller than the other pages
+    private static int pageSize(BTreePageId id) {
+        return id.pgcateg() == BTreePageId.ROOT_PTR ? BTreeRootPtrPage.getPageSize() : BufferPool.getPageSize();
+    }
+
+    // byte offset of a page in the file: the root pointer page comes first,
+    // followed by the numbered pages starting at 1
+    private static long pageOffset(BTreePageId id) {
         if (id.pgcateg() == BTreePageId.ROOT_PTR) {
-            rf.write(data);
-            rf.close();
-        } else {
-            rf.seek(BTreeRootPtrPage.getPageSize() + (long) (page.getId().getPageNumber() - 1) * BufferPool.getPageSize());
-            rf.write(data);
-            rf.close();
+            return 0;
         }
+        return BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize();
+    }
+
+    /**
+     * Turn memory-mapped page reads on or off for this file.
+     *
+     * @param on - true to serve reads from a read-only mapping of the file
+     */
+    public void setMemoryMapped(boolean on) {
+        mapped = on ? new MappedDataFile(f) : null;
+    }
+
+    /**
+     * @return true if page reads are served from a memory mapping
+     */
+    public boolean isMemoryMapped() {
+        return mapped != null;
     }
 
     /**
@@ -1030,6 +1111,8 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
     Iterator<Tuple> it = null;
     BTreeLeafPage curp = null;
+    // the parent whose leaves have already been handed to the prefetcher
+    BTreePageId readAheadParent = null;
 
     final TransactionId tid;
     final BTreeFile f;
@@ -1053,9 +1136,54 @@ class BTreeFileIterator extends AbstractDbFileIterator {
                 tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
         BTreePageId root = rootPtr.getRootId();
         curp = f.findLeafPage(tid, root, null);
+        readAheadLeaves();
         it = curp.iterator();
     }
 
+    /**
+     * Prefetch the leaves that follow curp under the same parent. The leaf
+     * chain only reveals the next leaf once the current one has been read,
+     * but the parent lists all of its leaves. Leaves are mostly allocated in
+     * key order, so each run of consecutive page numbers among them is read
+     * with a single batch read (see BufferPool.prefetchPages).
+     */
+    private void readAheadLeaves() throws DbException, TransactionAbortedException {
+        BTreePageId parentId = curp.getParentId();
+        if (parentId.pgcateg() != BTreePageId.INTERNAL || parentId.equals(readAheadParent)) {
+            return;
+        }
+        readAheadParent = parentId;
+        BTreeInternalPage parent = (BTreeInternalPage) Database.getBufferPool().getPage(tid,
+                parentId, Permissions.READ_ONLY);
+
+        List<BTreePageId> children = new ArrayList<>();
+        Iterator<BTreeEntry> entries = parent.iterator();
+        while (entries.hasNext()) {
+            BTreeEntry e = entries.next();
+            if (children.isEmpty()) {
+                children.add(e.getLeftChild());
+            }
+            children.add(e.getRightChild());
+        }
+
+        BufferPool bp = Database.getBufferPool();
+        List<PageId> run = new ArrayList<>();
+        int start = children.indexOf(curp.getId()) + 1;
+        int end = Math.min(children.size(), start + ReadAhead.MAX_WINDOW);
+        for (int i = start; i < end; i++) {
+            BTreePageId child = children.get(i);
+            if (child.pgcateg() != BTreePageId.LEAF) {
+                break;
+            }
+            if (!run.isEmpty() && child.getPageNumber() != run.get(run.size() - 1).getPageNumber() + 1) {
+                bp.prefetchPages(run);
+                run = new ArrayList<>();
+            }
+            run.add(child);
+        }
+        bp.prefetchPages(run);
+    }
+
     /**
      * Read the next tuple either from the current page if it has more tuples or
      * from the next page by following the right sibling pointer.
@@ -1074,6 +1202,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
             } else {
                 curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
                         nextp, Permissions.READ_ONLY);
+                readAheadLeaves();
                 it = curp.iterator();
                 if (!it.hasNext())
                     it = null;
@@ -1100,6 +1229,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
         super.close();
         it = null;
         curp = null;
+        readAheadParent = null;
     }
 }
 
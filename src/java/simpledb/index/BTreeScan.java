@@ -3,8 +3,8 @@ package simpledb.index;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
+import simpledb.execution.IndexOpIterator;
 import simpledb.execution.IndexPredicate;
-import simpledb.execution.OpIterator;
 import simpledb.storage.DbFileIterator;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
@@ -15,9 +15,11 @@ import java.util.NoSuchElementException;
 
 /**
  * BTreeScan is an operator which reads tuples in sorted order
- * according to a predicate
+ * according to a predicate. The predicate can be changed for each new scan
+ * through {@link #rewind(IndexPredicate)}, e.g. to probe the tree once per
+ * key of an index join.
  */
-public class BTreeScan implements OpIterator {
+public class BTreeScan implements IndexOpIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -26,6 +28,7 @@ public class BTreeScan implements OpIterator {
     private TupleDesc myTd;
     private IndexPredicate ipred = null;
     private transient DbFileIterator it;
+    private int tableid;
     private String tablename;
     private String alias;
 
@@ -79,12 +82,9 @@ public class BTreeScan implements OpIterator {
     public void reset(int tableid, String tableAlias) {
         this.isOpen = false;
         this.alias = tableAlias;
+        this.tableid = tableid;
         this.tablename = Database.getCatalog().getTableName(tableid);
-        if (ipred == null) {
-            this.it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
-        } else {
-            this.it = ((BTreeFile) Database.getCatalog().getDatabaseFile(tableid)).indexIterator(tid, ipred);
-        }
+        this.it = iterator();
         myTd = Database.getCatalog().getTupleDesc(tableid);
         String[] newNames = new String[myTd.numFields()];
         Type[] newTypes = new Type[myTd.numFields()];
@@ -102,6 +102,14 @@ public class BTreeScan implements OpIterator {
         this(tid, tableid, Database.getCatalog().getTableName(tableid), ipred);
     }
 
+    private DbFileIterator iterator() {
+        if (ipred == null) {
+            return Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+        } else {
+            return ((BTreeFile) Database.getCatalog().getDatabaseFile(tableid)).indexIterator(tid, ipred);
+        }
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         if (isOpen)
             throw new DbException("double open on one OpIterator.");
@@ -147,4 +155,25 @@ public class BTreeScan implements OpIterator {
         close();
         open();
     }
+
+    /**
+     * Open the scan to return the tuples that satisfy ipred, in place of the
+     * predicate given to the constructor.
+     *
+     * @param ipred The index predicate to match. If null, the scan will return all
+     *              tuples in sorted order
+     */
+    public void open(IndexPredicate ipred) throws DbException, TransactionAbortedException {
+        if (isOpen)
+            throw new DbException("double open on one OpIterator.");
+
+        this.ipred = ipred;
+        this.it = iterator();
+        open();
+    }
+
+    public void rewind(IndexPredicate ipred) throws DbException, TransactionAbortedException {
+        close();
+        open(ipred);
+    }
 }
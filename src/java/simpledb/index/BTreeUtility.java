@@ -463,6 +463,8 @@ public class BTreeUtility {
     public static BTreeFile createEmptyBTreeFile(String path, int cols, int keyField)
             throws IOException {
         File f = new File(path);
+        // the path may name a file deleted since its channel was cached
+        FileHandleCache.getInstance().close(f);
         // touch the file
         FileOutputStream fos = new FileOutputStream(f);
         fos.write(new byte[0]);
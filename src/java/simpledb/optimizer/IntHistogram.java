@@ -7,6 +7,13 @@ import simpledb.execution.Predicate;
  */
 public class IntHistogram {
 
+    private final int min;
+    private final int max;
+    private final int[] counts;
+    // number of integer values covered by each bucket; at least 1
+    private final double width;
+    private int ntups;
+
     /**
      * Create a new IntHistogram.
      * <p>
@@ -24,7 +31,45 @@ public class IntHistogram {
      * @param max     The maximum integer value that will ever be passed to this class for histogramming
      */
     public IntHistogram(int buckets, int min, int max) {
-        // TODO: some code goes here
+        // TODO: some code goes here; MAY DONE
+        this.min = min;
+        this.max = max;
+        long range = (long) max - min + 1;
+        this.counts = new int[(int) Math.max(1, Math.min(buckets, range))];
+        this.width = (double) range / counts.length;
+        this.ntups = 0;
+    }
+
+    private int bucketOf(int v) {
+        return (int) Math.min(counts.length - 1, (v - (long) min) / width);
+    }
+
+    /**
+     * Fraction of all values that are strictly greater than v. Values inside
+     * a bucket are assumed to be spread uniformly over its width.
+     */
+    private double fractionGreaterThan(int v) {
+        if (v < min) {
+            return 1.0;
+        }
+        if (v >= max) {
+            return 0.0;
+        }
+        int b = bucketOf(v);
+        double bucketEnd = min + (b + 1) * width;
+        double inBucket = Math.max(0.0, Math.min(1.0, (bucketEnd - (v + 1)) / width));
+        double count = counts[b] * inBucket;
+        for (int i = b + 1; i < counts.length; i++) {
+            count += counts[i];
+        }
+        return count / ntups;
+    }
+
+    private double fractionEqual(int v) {
+        if (v < min || v > max) {
+            return 0.0;
+        }
+        return counts[bucketOf(v)] / Math.max(1.0, width) / ntups;
     }
 
     /**
@@ -33,7 +78,12 @@ public class IntHistogram {
      * @param v Value to add to the histogram
      */
     public void addValue(int v) {
-        // TODO: some code goes here
+        // TODO: some code goes here; MAY DONE
+        if (v < min || v > max) {
+            return;
+        }
+        counts[bucketOf(v)]++;
+        ntups++;
     }
 
     /**
@@ -48,8 +98,27 @@ public class IntHistogram {
      */
     public double estimateSelectivity(Predicate.Op op, int v) {
 
-        // TODO: some code goes here
-        return -1.0;
+        // TODO: some code goes here; MAY DONE
+        if (ntups == 0) {
+            return 0.0;
+        }
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return fractionEqual(v);
+            case NOT_EQUALS:
+                return 1.0 - fractionEqual(v);
+            case GREATER_THAN:
+                return fractionGreaterThan(v);
+            case GREATER_THAN_OR_EQ:
+                return fractionGreaterThan(v) + fractionEqual(v);
+            case LESS_THAN:
+                return 1.0 - fractionGreaterThan(v) - fractionEqual(v);
+            case LESS_THAN_OR_EQ:
+                return 1.0 - fractionGreaterThan(v);
+            default:
+                throw new UnsupportedOperationException("unknown operator " + op);
+        }
     }
 
     /**
@@ -60,15 +129,30 @@ public class IntHistogram {
      *         implement a more efficient optimization
      */
     public double avgSelectivity() {
-        // TODO: some code goes here
-        return 1.0;
+        // TODO: some code goes here; MAY DONE
+        // chance that two random values are equal, if values within a
+        // bucket are uniform
+        if (ntups == 0) {
+            return 1.0;
+        }
+        double sum = 0.0;
+        for (int c : counts) {
+            double f = (double) c / ntups;
+            sum += f * f / Math.max(1.0, width);
+        }
+        return sum;
     }
 
     /**
      * @return A string describing this histogram, for debugging purposes
      */
     public String toString() {
-        // TODO: some code goes here
-        return null;
+        // TODO: some code goes here; MAY DONE
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("IntHistogram[%d..%d, %d buckets, %d values]", min, max, counts.length, ntups));
+        for (int i = 0; i < counts.length; i++) {
+            sb.append(String.format("%n  [%.1f, %.1f): %d", min + i * width, min + (i + 1) * width, counts[i]));
+        }
+        return sb.toString();
     }
 }
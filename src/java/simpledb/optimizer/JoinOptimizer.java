@@ -2,7 +2,12 @@ package simpledb.optimizer;
 
 import simpledb.ParsingException;
 import simpledb.common.Database;
+import simpledb.common.Type;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFile;
 import simpledb.storage.TupleDesc;
 
 import javax.swing.*;
@@ -68,12 +73,59 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        if (SortMergeJoin.supports(lj.p) && sortedField(plan1) == t1id
+                && sortedField(plan2) == t2id) {
+            // both sides already come out in join field order
+            j = new SortMergeJoin(p, plan1, plan2);
+        } else if (lj.p == Predicate.Op.EQUALS) {
+            j = new HashEquiJoin(p, plan1, plan2);
+        } else {
+            // no hashing or index helps with other predicates, so at least
+            // scan the inner side once per block of outer tuples
+            j = new BlockNestedLoopJoin(p, plan1, plan2);
+        }
 
         return j;
 
     }
 
+    /**
+     * Return the field that the tuples of a plan are known to come out sorted
+     * on, in ascending order: the key of a B-tree that is scanned, the field
+     * of an ascending {@link OrderBy}, or the outer join field of a
+     * {@link SortMergeJoin}, through any filters above them.
+     *
+     * @param plan The plan to inspect
+     * @return the index of the field in the tuples of plan, or -1 if their
+     *         order is not known
+     */
+    public static int sortedField(OpIterator plan) {
+        if (plan instanceof Filter) {
+            return sortedField(((Filter) plan).getChildren()[0]);
+        } else if (plan instanceof OrderBy) {
+            OrderBy o = (OrderBy) plan;
+            return o.isASC() ? o.getOrderByField() : -1;
+        } else if (plan instanceof SortMergeJoin) {
+            return ((SortMergeJoin) plan).getJoinPredicate().getField1();
+        } else if (plan instanceof SeqScan) {
+            return keyField(((SeqScan) plan).getTableName());
+        } else if (plan instanceof BTreeScan) {
+            return keyField(((BTreeScan) plan).getTableName());
+        }
+        return -1;
+    }
+
+    // the key field of a table stored in a B-tree, whose scans return tuples
+    // in key order, or -1 for other tables
+    private static int keyField(String tableName) {
+        try {
+            DbFile f = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(tableName));
+            return f instanceof BTreeFile ? ((BTreeFile) f).keyField() : -1;
+        } catch (NoSuchElementException e) {
+            return -1;
+        }
+    }
+
     /**
      * Estimate the cost of a join.
      * <p>
@@ -100,12 +152,54 @@ public class JoinOptimizer {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 3.
             return card1 + cost1 + cost2;
+        } else if (SortMergeJoin.supports(j.p) && isSortedOn(j.t1Alias, j.f1PureName)
+                && isSortedOn(j.t2Alias, j.f2PureName)) {
+            // sort-merge join, on sides that come out in join field order: a
+            // single scan of each side, and a comparison per tuple
+            return cost1 + cost2 + card1 + card2;
+        } else if (j.p == Predicate.Op.EQUALS) {
+            // hybrid hash join, building on the left-hand side: one scan of
+            // each side, plus writing out and reading back the share of both
+            // that does not fit in memory, and a hash and a probe per tuple
+            double buildBytes = (double) card1 * tupleSize(j.t1Alias);
+            double memory = (double) HashEquiJoin.DEFAULT_MEMORY_PAGES * BufferPool.getPageSize();
+            double spilled = buildBytes > memory ? 1.0 - memory / buildBytes : 0.0;
+            return (1 + 2 * spilled) * (cost1 + cost2) + card1 + card2;
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return -1.0;
+            // block nested loops: one scan of the right-hand side per block
+            // of left-hand tuples, and a predicate per pair
+            double blockTuples = Math.max(1.0, (double) BlockNestedLoopJoin.DEFAULT_BLOCK_PAGES
+                    * BufferPool.getPageSize() / tupleSize(j.t1Alias));
+            return cost1 + Math.max(1.0, card1 / blockTuples) * cost2 + (double) card1 * card2;
+        }
+    }
+
+    // bytes per tuple of a table named by alias or by name; the tuples of a
+    // join subplan are wider, but its base table is all that is known here
+    private int tupleSize(String table) {
+        Integer id = p.getTableId(table);
+        try {
+            if (id == null) {
+                id = Database.getCatalog().getTableId(table);
+            }
+            return Database.getCatalog().getTupleDesc(id).getSize();
+        } catch (NoSuchElementException e) {
+            return Type.INT_TYPE.getLen();
+        }
+    }
+
+    // whether the scan of a table named by alias comes out sorted on a field;
+    // as for tupleSize, only the base table of a subplan is known here
+    private boolean isSortedOn(String table, String field) {
+        Integer id = p.getTableId(table);
+        try {
+            if (id == null) {
+                id = Database.getCatalog().getTableId(table);
+            }
+            int key = keyField(Database.getCatalog().getTableName(id));
+            return key >= 0 && key == Database.getCatalog().getTupleDesc(id).indexForFieldName(field);
+        } catch (NoSuchElementException e) {
+            return false;
         }
     }
 
@@ -1,12 +1,17 @@
 package simpledb.optimizer;
 
 import simpledb.common.Database;
+import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.execution.Predicate;
 import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
 import simpledb.storage.*;
 import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
 
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -66,6 +71,13 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
 
+    private final int ioCostPerPage;
+    private final int numPages;
+    private int ntups;
+    // one histogram per field; the one matching the field type is non-null
+    private final IntHistogram[] intHists;
+    private final StringHistogram[] stringHists;
+
     /**
      * Create a new TableStats object, that keeps track of statistics on each
      * column of a table
@@ -82,7 +94,74 @@ public class TableStats {
         // You should try to do this reasonably efficiently, but you don't
         // necessarily have to (for example) do everything
         // in a single scan of the table.
-        // TODO: some code goes here
+        // TODO: some code goes here; MAY DONE
+        this.ioCostPerPage = ioCostPerPage;
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        this.numPages = numPagesOf(file);
+        TupleDesc td = file.getTupleDesc();
+        int n = td.numFields();
+        this.intHists = new IntHistogram[n];
+        this.stringHists = new StringHistogram[n];
+
+        // the first scan finds the range of each integer field, the second
+        // fills the histograms; both read the file in large sequential
+        // batches through the scan's readahead
+        int[] mins = new int[n];
+        int[] maxs = new int[n];
+        Arrays.fill(mins, Integer.MAX_VALUE);
+        Arrays.fill(maxs, Integer.MIN_VALUE);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = file.iterator(tid);
+        try {
+            it.open();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                ntups++;
+                for (int i = 0; i < n; i++) {
+                    if (td.getFieldType(i) == Type.INT_TYPE) {
+                        int v = ((IntField) t.getField(i)).getValue();
+                        mins[i] = Math.min(mins[i], v);
+                        maxs[i] = Math.max(maxs[i], v);
+                    }
+                }
+            }
+
+            for (int i = 0; i < n; i++) {
+                if (td.getFieldType(i) == Type.INT_TYPE) {
+                    intHists[i] = ntups == 0 ? new IntHistogram(NUM_HIST_BINS, 0, 0)
+                            : new IntHistogram(NUM_HIST_BINS, mins[i], maxs[i]);
+                } else {
+                    stringHists[i] = new StringHistogram(NUM_HIST_BINS);
+                }
+            }
+
+            it.rewind();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                for (int i = 0; i < n; i++) {
+                    if (intHists[i] != null) {
+                        intHists[i].addValue(((IntField) t.getField(i)).getValue());
+                    } else {
+                        stringHists[i].addValue(((StringField) t.getField(i)).getValue());
+                    }
+                }
+            }
+        } catch (DbException | TransactionAbortedException e) {
+            throw new RuntimeException("failed to compute statistics of table " + tableid, e);
+        } finally {
+            it.close();
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    private static int numPagesOf(DbFile file) {
+        if (file instanceof HeapFile) {
+            return ((HeapFile) file).numPages();
+        }
+        if (file instanceof BTreeFile) {
+            return ((BTreeFile) file).numPages();
+        }
+        return 0;
     }
 
     /**
@@ -98,8 +177,8 @@ public class TableStats {
      * @return The estimated cost of scanning the table.
      */
     public double estimateScanCost() {
-        // TODO: some code goes here
-        return 0;
+        // TODO: some code goes here; MAY DONE
+        return (double) numPages * ioCostPerPage;
     }
 
     /**
@@ -111,8 +190,8 @@ public class TableStats {
      *         selectivityFactor
      */
     public int estimateTableCardinality(double selectivityFactor) {
-        // TODO: some code goes here
-        return 0;
+        // TODO: some code goes here; MAY DONE
+        return (int) Math.round(ntups * selectivityFactor);
     }
 
     /**
@@ -125,8 +204,19 @@ public class TableStats {
      *              expected selectivity. You may estimate this value from the histograms.
      */
     public double avgSelectivity(int field, Predicate.Op op) {
-        // TODO: some code goes here
-        return 1.0;
+        // TODO: some code goes here; MAY DONE
+        double eq = intHists[field] != null ? intHists[field].avgSelectivity()
+                : stringHists[field].avgSelectivity();
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return eq;
+            case NOT_EQUALS:
+                return 1.0 - eq;
+            default:
+                // a range predicate against an unknown constant
+                return 0.5;
+        }
     }
 
     /**
@@ -140,16 +230,19 @@ public class TableStats {
      *         predicate
      */
     public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
-        // TODO: some code goes here
-        return 1.0;
+        // TODO: some code goes here; MAY DONE
+        if (intHists[field] != null) {
+            return intHists[field].estimateSelectivity(op, ((IntField) constant).getValue());
+        }
+        return stringHists[field].estimateSelectivity(op, ((StringField) constant).getValue());
     }
 
     /**
      * return the total number of tuples in this table
      */
     public int totalTuples() {
-        // TODO: some code goes here
-        return 0;
+        // TODO: some code goes here; MAY DONE
+        return ntups;
     }
 
 }
@@ -0,0 +1,153 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The background writer of a {@link BufferPool} in STEAL mode. It trickles
+ * the pages that have been dirty longest out to disk, a batch per round, so
+ * that evictions find clean victims instead of failing on a pool full of the
+ * pages of running transactions; see {@link BufferPool#flushOldestPages}
+ * for how a page is written. The buffer pool wakes it early when more than
+ * half of its pages are dirty, and it then keeps writing until they are
+ * back under half.
+ * <p>
+ * Every checkpoint interval it also takes a checkpoint (see
+ * {@link LogFile#logCheckpoint}), which truncates the log up to the oldest
+ * record recovery still needs.
+ * <p>
+ * Errors are printed and the writer carries on with the next round.
+ *
+ * @Threadsafe
+ */
+public class BackgroundWriter {
+
+    public static final long DEFAULT_INTERVAL_MS = 100;
+    public static final int DEFAULT_BATCH = 32;
+    public static final long DEFAULT_CHECKPOINT_INTERVAL_MS = 30_000;
+
+    private final BufferPool pool;
+    private final long intervalMs;
+    private final int batch;
+    private final long checkpointIntervalMs;
+    private final Thread thread;
+
+    private volatile boolean stopped = false;
+    private boolean wakeUp = false; // protected by this
+
+    private final AtomicLong rounds = new AtomicLong();
+    private final AtomicLong pagesWritten = new AtomicLong();
+    private final AtomicLong checkpoints = new AtomicLong();
+
+    /**
+     * @param intervalMs           time between rounds
+     * @param batch                largest number of pages written per round
+     * @param checkpointIntervalMs time between checkpoints
+     */
+    BackgroundWriter(BufferPool pool, long intervalMs, int batch, long checkpointIntervalMs) {
+        if (intervalMs <= 0 || batch <= 0 || checkpointIntervalMs <= 0) {
+            throw new IllegalArgumentException("background writer intervals and batch must be positive");
+        }
+        this.pool = pool;
+        this.intervalMs = intervalMs;
+        this.batch = batch;
+        this.checkpointIntervalMs = checkpointIntervalMs;
+        this.thread = new Thread(this::run, "simpledb-page-writer");
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Stop the writer and wait for its current round to finish.
+     */
+    void stop() {
+        stopped = true;
+        wakeUp();
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Start the next round now.
+     */
+    synchronized void wakeUp() {
+        wakeUp = true;
+        notifyAll();
+    }
+
+    private void run() {
+        long nextCheckpoint = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(checkpointIntervalMs);
+        int written = 0;
+        while (!stopped) {
+            try {
+                // write on without a break while there is catching up to do
+                if (written == 0 || !pool.tooManyDirtyPages()) {
+                    sleep();
+                }
+                if (stopped) {
+                    return;
+                }
+                rounds.incrementAndGet();
+                written = pool.flushOldestPages(batch);
+                pagesWritten.addAndGet(written);
+                if (System.nanoTime() - nextCheckpoint >= 0) {
+                    Database.getLogFile().logCheckpoint();
+                    checkpoints.incrementAndGet();
+                    nextCheckpoint = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(checkpointIntervalMs);
+                }
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+                written = 0;
+            }
+        }
+    }
+
+    private synchronized void sleep() {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(intervalMs);
+        long left;
+        while (!wakeUp && !stopped && (left = deadline - System.nanoTime()) > 0) {
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, left);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+        wakeUp = false;
+    }
+
+    /**
+     * @return the number of rounds run so far
+     */
+    public long getRoundCount() {
+        return rounds.get();
+    }
+
+    /**
+     * @return the number of pages written so far
+     */
+    public long getPagesWritten() {
+        return pagesWritten.get();
+    }
+
+    /**
+     * @return the number of checkpoints taken so far
+     */
+    public long getCheckpointCount() {
+        return checkpoints.get();
+    }
+}
@@ -4,14 +4,24 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.DeadlockException;
 import simpledb.common.Permissions;
+import simpledb.storage.LockManager.LockMode;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntFunction;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -20,7 +30,42 @@ import java.util.concurrent.locks.ReentrantLock;
  * <p>
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
- * locks to read/write the page.
+ * locks to read/write the page. Locks are page granularity, shared or
+ * exclusive, and held until the transaction completes; see
+ * {@link LockManager}, which also breaks deadlocks. Heap files can instead
+ * be locked per record (see {@link HeapFile#setRecordLocking}); their pages
+ * only get intention locks here, and several transactions may change the
+ * same page, so aborts on such tables undo the changed records one by one
+ * rather than dropping whole pages.
+ * <p>
+ * Read-only transactions can instead read heap files from a snapshot (see
+ * {@link #beginSnapshot}) without taking any locks; the versions they need
+ * are kept in a {@link VersionStore}.
+ * <p>
+ * Short transactions can also run optimistically (see
+ * {@link #beginOptimistic}): they read pages without locks, noting the
+ * version of each page they see, and change private copies of pages. Only
+ * at commit do they lock the pages involved, check the versions against an
+ * {@link OptimisticStore} and install their copies (see {@link #validate}).
+ *
+ * Resident pages live in one ConcurrentHashMap, so a cache hit never takes a
+ * lock. Replacement state is split into {@link Partition}s by hash of the
+ * PageId; each partition has its own lock and its own replacement policy, so
+ * a miss only blocks other misses (and evictions) in the same partition.
+ * Concurrent misses on the same page share a single disk read.
+ * <p>
+ * Pages can also be read ahead of need with {@link #prefetchPage}, on a
+ * shared pool of background I/O threads. Prefetched pages enter the
+ * replacement policy at low priority (see
+ * {@link ReplacementPolicy#pagePrefetched}).
+ * <p>
+ * By default SimpleDB runs in NO STEAL mode: the pages a transaction dirties
+ * stay in the pool until it commits, and eviction only ever chooses clean
+ * pages. {@link #startBackgroundWriter} switches to STEAL mode, where a
+ * {@link BackgroundWriter} logs and writes the pages that have been dirty
+ * longest while their transactions are still running, so that evictions
+ * keep finding clean pages. Aborts then rely on the log to undo what was
+ * written (see {@link LogFile#logAbort}).
  *
  * @Threadsafe, all fields are final
  */
@@ -32,11 +77,120 @@ public class BufferPool {
 
     private static int pageSize = DEFAULT_PAGE_SIZE;
 
-    private int maxPages;
-    private int pageUsed;
-    private ConcurrentHashMap<PageId, Page> hPage;
-    private ArrayList<PageId> seqs;
-    private final ReentrantLock lock;
+    /**
+     * Smallest number of pages worth giving a partition of its own; pools
+     * smaller than this are not split.
+     */
+    private static final int MIN_PAGES_PER_PARTITION = 16;
+
+    /**
+     * Number of hits a partition buffers before a reader tries to replay
+     * them into the replacement policy.
+     */
+    private static final int ACCESS_BUFFER_DRAIN_THRESHOLD = 64;
+    private static final int MAX_BUFFERED_ACCESSES = 16 * ACCESS_BUFFER_DRAIN_THRESHOLD;
+
+    /**
+     * Background threads that perform prefetch reads, shared by all buffer
+     * pools of the process.
+     */
+    private static final int PREFETCH_THREADS =
+            Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+
+    private static final ExecutorService prefetcher = Executors.newFixedThreadPool(PREFETCH_THREADS, r -> {
+        Thread t = new Thread(r, "simpledb-prefetch");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * An entry of the dirty page table: the log position of the earliest
+     * update of the page that may not be on disk yet, and the number of
+     * flushes of the page in flight.
+     */
+    private static final class DirtyPage {
+        final long recLsn;
+        int writers;
+
+        DirtyPage(long recLsn) {
+            this.recLsn = recLsn;
+        }
+    }
+
+    /**
+     * One hash partition of the buffer pool: a lock and the replacement state
+     * of the pages that hash to it.
+     * <p>
+     * Hits do not take the lock. They queue the page id on accessBuffer, and
+     * the queue is replayed into the policy by whoever next holds the lock.
+     */
+    private static final class Partition {
+        final ReentrantLock lock = new ReentrantLock();
+        final ReplacementPolicy policy;
+        final Queue<PageId> accessBuffer = new ConcurrentLinkedQueue<>();
+        final AtomicInteger bufferedAccesses = new AtomicInteger();
+
+        Partition(ReplacementPolicy policy) {
+            this.policy = policy;
+        }
+
+        void recordAccess(PageId pid) {
+            if (bufferedAccesses.get() >= MAX_BUFFERED_ACCESSES) {
+                // the partition is too busy to replay hits; recency is only a
+                // hint, so dropping some of them is harmless
+                return;
+            }
+            accessBuffer.offer(pid);
+            if (bufferedAccesses.incrementAndGet() >= ACCESS_BUFFER_DRAIN_THRESHOLD
+                    && lock.tryLock()) {
+                try {
+                    drainAccesses();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        // must be called with lock held
+        void drainAccesses() {
+            PageId pid;
+            while ((pid = accessBuffer.poll()) != null) {
+                bufferedAccesses.decrementAndGet();
+                policy.pageAccessed(pid);
+            }
+        }
+    }
+
+    private final int maxPages;
+    private final ConcurrentHashMap<PageId, Page> hPage;
+    private final Partition[] partitions;
+    private final AtomicInteger resident = new AtomicInteger();
+    private final ConcurrentHashMap<PageId, CompletableFuture<Page>> loading = new ConcurrentHashMap<>();
+    // at most this many prefetches are queued or running at once, so readahead
+    // can only ever displace a fraction of the pool
+    private final int maxPrefetches;
+    private final AtomicInteger prefetchesInFlight = new AtomicInteger();
+    private final LockManager lockManager = new LockManager();
+    // before images of the records each transaction changed in tables with
+    // record locking, in the order they were first changed (null: the slot
+    // was empty)
+    private final ConcurrentHashMap<TransactionId, Map<RecordId, Tuple>> recordUndo = new ConcurrentHashMap<>();
+    private final VersionStore versions = new VersionStore();
+    private final OptimisticStore optimistic = new OptimisticStore();
+    // pages whose UPDATE record is logged but whose write is in flight
+    private final ConcurrentHashMap<PageId, DirtyPage> dirtyPages = new ConcurrentHashMap<>();
+    // resident dirty pages, by the order in which they became dirty
+    private final ConcurrentHashMap<PageId, Long> dirtiedAt = new ConcurrentHashMap<>();
+    private final AtomicLong dirtySequence = new AtomicLong();
+    private volatile BackgroundWriter writer = null;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong diskReads = new AtomicLong();
+    private final AtomicLong coalescedLoads = new AtomicLong();
+    private final AtomicLong prefetchReads = new AtomicLong();
+    private final AtomicLong backgroundWrites = new AtomicLong();
 
     /**
      * Default number of pages passed to the constructor. This is used by
@@ -46,17 +200,60 @@ public class BufferPool {
     public static final int DEFAULT_PAGES = 50;
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, using CLOCK
+     * replacement.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
-        // TODO: some code goes here; MAY DONE;
+        this(numPages, ClockReplacementPolicy::new);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, with one
+     * partition per available processor (fewer for small pools).
+     *
+     * @param numPages      maximum number of pages in this buffer pool.
+     * @param policyFactory creates the replacement policy of a partition, given
+     *                      the number of pages it has to manage
+     *                      (e.g. LruKReplacementPolicy::new)
+     */
+    public BufferPool(int numPages, IntFunction<ReplacementPolicy> policyFactory) {
+        this(numPages, defaultPartitions(numPages), policyFactory);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages.
+     *
+     * @param numPages      maximum number of pages in this buffer pool.
+     * @param numPartitions number of independently locked partitions
+     * @param policyFactory creates the replacement policy of a partition, given
+     *                      the number of pages it has to manage
+     */
+    public BufferPool(int numPages, int numPartitions, IntFunction<ReplacementPolicy> policyFactory) {
+        if (numPartitions < 1) {
+            throw new IllegalArgumentException("a buffer pool needs at least one partition");
+        }
         maxPages = numPages;
-        pageUsed = 0;
-        hPage = new ConcurrentHashMap<PageId, Page>();
-        lock = new ReentrantLock();
-        seqs = new ArrayList<PageId>();
+        maxPrefetches = Math.max(1, numPages / 4);
+        hPage = new ConcurrentHashMap<>(numPages * 2);
+        partitions = new Partition[numPartitions];
+        int pagesPerPartition = (numPages + numPartitions - 1) / numPartitions;
+        for (int i = 0; i < numPartitions; i++) {
+            partitions[i] = new Partition(policyFactory.apply(pagesPerPartition));
+        }
+    }
+
+    private static int defaultPartitions(int numPages) {
+        int byCpu = Runtime.getRuntime().availableProcessors();
+        int bySize = Math.max(1, numPages / MIN_PAGES_PER_PARTITION);
+        return Math.max(1, Math.min(byCpu, bySize));
+    }
+
+    private Partition partitionOf(PageId pid) {
+        int h = pid.hashCode();
+        h ^= (h >>> 16);
+        return partitions[Math.floorMod(h, partitions.length)];
     }
 
     public static int getPageSize() {
@@ -90,23 +287,468 @@ public class BufferPool {
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException {
-        // TODO: some code goes here; MAY DONE
-        Page page;
+        if (optimistic.isOptimistic(tid)) {
+            return getPageOptimistic(tid, pid, perm);
+        }
+        if (isRecordLocked(pid.getTableId())) {
+            LockMode intent = perm == Permissions.READ_WRITE
+                    ? LockMode.INTENTION_EXCLUSIVE : LockMode.INTENTION_SHARED;
+            lock(tid, LockManager.table(pid.getTableId()), intent);
+            lock(tid, pid, intent);
+        } else {
+            lock(tid, pid, perm == Permissions.READ_WRITE ? LockMode.EXCLUSIVE : LockMode.SHARED);
+        }
 
-        lock.lock();
-        if (hPage.contains(pid)) {
-            page = hPage.get(pid);
+        Page page = hPage.get(pid);
+        if (page != null) {
+            hits.incrementAndGet();
+            partitionOf(pid).recordAccess(pid);
             return page;
-        } else {
-            page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-            if (pageUsed == maxPages) {
-                evictPage();
+        }
+
+        misses.incrementAndGet();
+        return loadPage(pid);
+    }
+
+    private void lock(TransactionId tid, Object target, LockMode mode)
+            throws TransactionAbortedException {
+        try {
+            lockManager.acquire(tid, target, mode);
+        } catch (DeadlockException e) {
+            TransactionAbortedException abort = new TransactionAbortedException();
+            abort.initCause(e);
+            throw abort;
+        }
+    }
+
+    private static boolean isRecordLocked(int tableId) {
+        return Database.getCatalog().isRecordLocking(tableId);
+    }
+
+    /**
+     * Lock a single record for reading or writing. In a table with record
+     * locking this takes a shared or exclusive lock on the record, after
+     * the matching intention locks on its table and page; in any other table
+     * it locks the whole page, like {@link #getPage}.
+     *
+     * @param tid  the transaction requesting the lock
+     * @param rid  the record to lock
+     * @param perm READ_ONLY for a shared lock, READ_WRITE for an exclusive one
+     */
+    public void lockRecord(TransactionId tid, RecordId rid, Permissions perm)
+            throws TransactionAbortedException {
+        if (optimistic.isOptimistic(tid)) {
+            // validated page by page at commit
+            return;
+        }
+        PageId pid = rid.getPageId();
+        boolean write = perm == Permissions.READ_WRITE;
+        if (!isRecordLocked(pid.getTableId())) {
+            lock(tid, pid, write ? LockMode.EXCLUSIVE : LockMode.SHARED);
+            return;
+        }
+        LockMode intent = write ? LockMode.INTENTION_EXCLUSIVE : LockMode.INTENTION_SHARED;
+        lock(tid, LockManager.table(pid.getTableId()), intent);
+        lock(tid, pid, intent);
+        lock(tid, rid, write ? LockMode.EXCLUSIVE : LockMode.SHARED);
+    }
+
+    /**
+     * Lock for writing a page that tid wrote to its file directly, without
+     * going through the pool (see {@link HeapFileLoader}), so that other
+     * transactions neither read nor change it before tid completes.
+     */
+    void lockWrittenPage(TransactionId tid, PageId pid) throws TransactionAbortedException {
+        if (isRecordLocked(pid.getTableId())) {
+            lock(tid, LockManager.table(pid.getTableId()), LockMode.INTENTION_EXCLUSIVE);
+        }
+        lock(tid, pid, LockMode.EXCLUSIVE);
+    }
+
+    /**
+     * Take an exclusive lock on a record if that is possible without
+     * waiting. The caller must already hold the intention locks.
+     */
+    boolean tryLockRecord(TransactionId tid, RecordId rid) {
+        if (optimistic.isOptimistic(tid)) {
+            return true;
+        }
+        return lockManager.tryAcquire(tid, rid, LockMode.EXCLUSIVE);
+    }
+
+    /**
+     * Remember what a record of a table with record locking looked like
+     * before tid first changed it, so that an abort can put it back.
+     *
+     * @param before the record, or null if its slot was empty
+     */
+    void recordBeforeImage(TransactionId tid, RecordId rid, Tuple before) {
+        if (optimistic.isOptimistic(tid)) {
+            // an optimistic transaction changes only its own copies
+            return;
+        }
+        Map<RecordId, Tuple> undo = recordUndo.computeIfAbsent(tid, k -> new LinkedHashMap<>());
+        synchronized (undo) {
+            if (!undo.containsKey(rid)) {
+                undo.put(rid, before);
+            }
+        }
+    }
+
+    /**
+     * Let tid read heap files from a snapshot of the database as of now,
+     * instead of locking what it reads: scans by tid see the changes of the
+     * transactions that committed before this call and nothing else, and
+     * neither wait for writers nor make writers wait. A transaction with a
+     * snapshot must not change the database.
+     */
+    public void beginSnapshot(TransactionId tid) {
+        versions.beginSnapshot(tid);
+    }
+
+    /**
+     * @return the old record versions kept for snapshot reads
+     */
+    public VersionStore getVersionStore() {
+        return versions;
+    }
+
+    /**
+     * Let tid run optimistically: it takes no locks until it commits. Pages
+     * it reads are not locked, only the version it saw of each is noted, and
+     * pages it changes are private copies that no one else sees. Commit must
+     * go through {@link #validate}, which fails if any page read has changed
+     * since. Meant for short transactions that mostly read, for which the
+     * locking costs more than the work.
+     */
+    public void beginOptimistic(TransactionId tid) {
+        optimistic.begin(tid);
+    }
+
+    /**
+     * @return the page versions and workspaces of optimistic transactions
+     */
+    public OptimisticStore getOptimisticStore() {
+        return optimistic;
+    }
+
+    // an optimistic transaction sees its own copy of a page it changed, and
+    // the shared page otherwise; a page that holds changes of a running
+    // transaction can never pass validation, so it aborts tid at once
+    private Page getPageOptimistic(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        OptimisticStore.Workspace ws = optimistic.workspace(tid);
+        Page copy = ws.writes.get(pid);
+        if (copy != null) {
+            return copy;
+        }
+        // the version first, so that a change racing with the read shows
+        long version = optimistic.version(pid);
+        Page page = getPageUnlocked(pid);
+        Long seen = ws.reads.putIfAbsent(pid, version);
+        if (page.isDirty() != null || (seen != null && seen != version)) {
+            optimistic.conflict();
+            throw new TransactionAbortedException();
+        }
+        if (perm != Permissions.READ_WRITE) {
+            return page;
+        }
+        copy = copyOf(page);
+        if (copy == null) {
+            // caught in the middle of a change
+            optimistic.conflict();
+            throw new TransactionAbortedException();
+        }
+        ws.writes.put(pid, copy);
+        return copy;
+    }
+
+    /**
+     * Validate an optimistic transaction and install its changes, as the
+     * first step of its commit. The pages tid changed are locked exclusively,
+     * waiting if need be, and those it only read are locked shared, without
+     * waiting; then each page read must still be at the version tid saw. If
+     * so, the private copies replace the shared pages, and tid commits like
+     * any other transaction through {@link #transactionComplete}, which
+     * writes the pages and releases the locks. Does nothing if tid does not
+     * run optimistically.
+     *
+     * @throws TransactionAbortedException if a page tid read has changed or
+     *                                     is being changed; tid must then abort
+     */
+    public void validate(TransactionId tid) throws TransactionAbortedException {
+        OptimisticStore.Workspace ws = optimistic.end(tid);
+        if (ws == null) {
+            return;
+        }
+        // lock in a fixed order, so that validations cannot deadlock
+        List<PageId> written = new ArrayList<>(ws.writes.keySet());
+        written.sort(Comparator.comparingInt(PageId::getTableId).thenComparingInt(PageId::getPageNumber));
+        for (PageId pid : written) {
+            if (isRecordLocked(pid.getTableId())) {
+                lock(tid, LockManager.table(pid.getTableId()), LockMode.INTENTION_EXCLUSIVE);
+            }
+            lock(tid, pid, LockMode.EXCLUSIVE);
+        }
+        for (Map.Entry<PageId, Long> read : ws.reads.entrySet()) {
+            PageId pid = read.getKey();
+            boolean locked = ws.writes.containsKey(pid)
+                    || ((!isRecordLocked(pid.getTableId())
+                         || lockManager.tryAcquire(tid, LockManager.table(pid.getTableId()), LockMode.INTENTION_SHARED))
+                        && lockManager.tryAcquire(tid, pid, LockMode.SHARED));
+            if (!locked || optimistic.version(pid) != read.getValue()) {
+                optimistic.conflict();
+                throw new TransactionAbortedException();
+            }
+        }
+        try {
+            cacheDirtyPages(tid, new ArrayList<>(ws.writes.values()));
+        } catch (DbException e) {
+            // no room for a new page; what was installed goes with the abort
+            TransactionAbortedException abort = new TransactionAbortedException();
+            abort.initCause(e);
+            throw abort;
+        }
+    }
+
+    /**
+     * Get a page for a snapshot read, without locking it.
+     */
+    Page getPageUnlocked(PageId pid) throws DbException {
+        Page page = hPage.get(pid);
+        if (page != null) {
+            hits.incrementAndGet();
+            partitionOf(pid).recordAccess(pid);
+            return page;
+        }
+        misses.incrementAndGet();
+        return loadPage(pid);
+    }
+
+    /**
+     * Bring a page that was not resident into the buffer pool. Concurrent
+     * misses on the same page are collapsed: the first caller registers a
+     * future in the in-flight table and reads the page, later callers wait
+     * for that future instead of reading the page again. The disk read itself
+     * runs without holding any partition lock.
+     */
+    private Page loadPage(PageId pid) throws DbException {
+        CompletableFuture<Page> load = new CompletableFuture<>();
+        CompletableFuture<Page> inFlight = loading.putIfAbsent(pid, load);
+        if (inFlight != null) {
+            coalescedLoads.incrementAndGet();
+            return awaitLoad(inFlight);
+        }
+
+        try {
+            // the previous load may have finished between our lookup and
+            // registering this one
+            Page page = hPage.get(pid);
+            if (page == null) {
+                diskReads.incrementAndGet();
+                page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+                page = install(pid, page, false);
+            }
+            load.complete(page);
+            return page;
+        } catch (DbException | RuntimeException e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(pid, load);
+        }
+    }
+
+    private static Page awaitLoad(CompletableFuture<Page> load) throws DbException {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DbException) {
+                throw (DbException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new DbException("failed to load page: " + cause);
+        }
+    }
+
+    /**
+     * Start reading a page into the buffer pool in the background, unless it
+     * is already resident or being read. This is only a hint: it acquires no
+     * lock, returns immediately, and is dropped when too many prefetches are
+     * already pending. A getPage for the page while it is being read waits
+     * for this read instead of issuing another one.
+     *
+     * @param pid the ID of the page that will probably be requested soon
+     */
+    public void prefetchPage(PageId pid) {
+        prefetchPages(Collections.singletonList(pid));
+    }
+
+    /**
+     * Start reading a run of consecutive pages of one file in the background,
+     * like {@link #prefetchPage}. Pages that are resident or already being
+     * read are skipped; the rest are read with as few calls to
+     * {@link DbFile#readPages} as the gaps allow.
+     *
+     * @param pids the IDs of pages of one file with consecutive page numbers,
+     *             in order
+     */
+    public void prefetchPages(List<PageId> pids) {
+        List<PageId> run = new ArrayList<>();
+        List<CompletableFuture<Page>> loads = new ArrayList<>();
+        for (PageId pid : pids) {
+            CompletableFuture<Page> load = registerPrefetch(pid);
+            if (load == null) {
+                submitPrefetch(run, loads);
+                run = new ArrayList<>();
+                loads = new ArrayList<>();
+            } else {
+                run.add(pid);
+                loads.add(load);
+            }
+        }
+        submitPrefetch(run, loads);
+    }
+
+    // claim the in-flight entry for a page we are about to prefetch, or
+    // return null if the page does not need (or cannot get) a prefetch
+    private CompletableFuture<Page> registerPrefetch(PageId pid) {
+        if (hPage.containsKey(pid) || loading.containsKey(pid)) {
+            return null;
+        }
+        if (prefetchesInFlight.incrementAndGet() > maxPrefetches) {
+            prefetchesInFlight.decrementAndGet();
+            return null;
+        }
+        CompletableFuture<Page> load = new CompletableFuture<>();
+        if (loading.putIfAbsent(pid, load) != null) {
+            prefetchesInFlight.decrementAndGet();
+            return null;
+        }
+        return load;
+    }
+
+    private void submitPrefetch(List<PageId> run, List<CompletableFuture<Page>> loads) {
+        if (run.isEmpty()) {
+            return;
+        }
+        try {
+            prefetcher.execute(() -> readAhead(run, loads));
+        } catch (RejectedExecutionException e) {
+            finishPrefetch(run, loads, e);
+        }
+    }
+
+    // runs on a prefetch thread: one batch read for the whole run, or one
+    // read per page if the file cannot read batches
+    private void readAhead(List<PageId> run, List<CompletableFuture<Page>> loads) {
+        Throwable failure = null;
+        try {
+            DbFile file = Database.getCatalog().getDatabaseFile(run.get(0).getTableId());
+            List<Page> pages = file.readsPagesInBatches()
+                    ? file.readPages(run.get(0), run.size()) : readEach(file, run);
+            prefetchReads.addAndGet(pages.size());
+            for (int i = 0; i < pages.size(); i++) {
+                loads.get(i).complete(install(run.get(i), pages.get(i), true));
+            }
+        } catch (Throwable e) {
+            failure = e;
+        } finally {
+            finishPrefetch(run, loads, failure);
+        }
+    }
+
+    // read the pages of run that exist one by one, stopping at the end of file
+    private static List<Page> readEach(DbFile file, List<PageId> run) {
+        List<Page> pages = new ArrayList<>();
+        for (PageId pid : run) {
+            try {
+                pages.add(file.readPage(pid));
+            } catch (IllegalArgumentException e) {
+                if (pages.isEmpty()) {
+                    throw e;
+                }
+                break;
+            }
+        }
+        return pages;
+    }
+
+    private void finishPrefetch(List<PageId> run, List<CompletableFuture<Page>> loads, Throwable failure) {
+        for (int i = 0; i < run.size(); i++) {
+            CompletableFuture<Page> load = loads.get(i);
+            if (!load.isDone()) {
+                load.completeExceptionally(failure != null ? failure
+                        : new IllegalArgumentException("page " + run.get(i) + " does not exist"));
+            }
+            loading.remove(run.get(i), load);
+            prefetchesInFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return true if the page is currently in the buffer pool
+     */
+    public boolean isResident(PageId pid) {
+        return hPage.containsKey(pid);
+    }
+
+    /**
+     * @return true if the page is currently being read into the buffer pool
+     */
+    public boolean isLoading(PageId pid) {
+        return loading.containsKey(pid);
+    }
+
+    /**
+     * Make a freshly read page resident, evicting as needed.
+     *
+     * @param prefetched true if nobody has asked for the page yet, in which
+     *                   case it enters the replacement policy at low priority
+     * @return the resident page, which is an existing copy if there is one
+     */
+    private Page install(PageId pid, Page page, boolean prefetched) throws DbException {
+        Partition part = partitionOf(pid);
+        reserveFrame(part);
+        part.lock.lock();
+        try {
+            Page existing = hPage.get(pid);
+            if (existing != null) {
+                resident.decrementAndGet();
+                return existing;
             }
-            seqs.add(pid);
             hPage.put(pid, page);
+            if (prefetched) {
+                part.policy.pagePrefetched(pid);
+            } else {
+                part.policy.pageAdded(pid);
+            }
+            return page;
+        } finally {
+            part.lock.unlock();
+        }
+    }
+
+    /**
+     * Claim room for one more resident page, evicting pages until the pool
+     * is below capacity. Victims are looked for in part first. Must be
+     * called without holding any partition lock; a caller that ends up not
+     * using the frame gives it back by decrementing resident.
+     */
+    private void reserveFrame(Partition part) throws DbException {
+        while (true) {
+            int n = resident.get();
+            if (n < maxPages) {
+                if (resident.compareAndSet(n, n + 1)) {
+                    return;
+                }
+            } else {
+                evictPage(part);
+            }
         }
-        lock.unlock();
-        return page;
     }
 
     /**
@@ -119,8 +761,7 @@ public class BufferPool {
      * @param pid the ID of the page to unlock
      */
     public void unsafeReleasePage(TransactionId tid, PageId pid) {
-        // TODO: some code goes here
-        // not necessary for lab1|lab2
+        lockManager.release(tid, pid);
     }
 
     /**
@@ -129,29 +770,130 @@ public class BufferPool {
      * @param tid the ID of the transaction requesting the unlock
      */
     public void transactionComplete(TransactionId tid) {
-        // TODO: some code goes here
-        // not necessary for lab1|lab2
+        transactionComplete(tid, true);
     }
 
     /**
      * Return true if the specified transaction has a lock on the specified page
      */
     public boolean holdsLock(TransactionId tid, PageId p) {
-        // TODO: some code goes here
-        // not necessary for lab1|lab2
-        return false;
+        return lockManager.holdsLock(tid, p);
     }
 
     /**
      * Commit or abort a given transaction; release all locks associated to
      * the transaction.
+     * <p>
+     * On commit, the pages the transaction dirtied are written to disk
+     * (FORCE); on abort, they are dropped from the buffer pool so the next
+     * reader gets them back from disk. Either way this only has to look at
+     * the pages the transaction holds locks on, since a page can only be
+     * dirtied under an exclusive lock.
+     * <p>
+     * Pages of tables with record locking may hold changes of several
+     * transactions. They are written on commit like the others, but on abort
+     * the records the transaction changed are restored to their before
+     * images, and the pages written again.
      *
      * @param tid    the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
      */
     public void transactionComplete(TransactionId tid, boolean commit) {
-        // TODO: some code goes here
-        // not necessary for lab1|lab2
+        try {
+            complete(tid, commit, false);
+        } catch (IOException e) {
+            throw new RuntimeException("could not write the pages of " + tid.getId(), e);
+        }
+    }
+
+    /**
+     * Commit a transaction, writing its COMMIT record to the log, and
+     * release all its locks. Like {@link #transactionComplete(TransactionId,
+     * boolean)}, but the updates of the dirty pages are logged before the
+     * COMMIT record, so the group force that makes the commit durable (see
+     * {@link LogFile#logCommit}) covers them too, and the pages are written
+     * after it without forcing the log again.
+     *
+     * @param tid the ID of the committing transaction
+     */
+    public void commitTransaction(TransactionId tid) throws IOException {
+        complete(tid, true, true);
+    }
+
+    private void complete(TransactionId tid, boolean commit, boolean logCommit) throws IOException {
+        Set<PageId> locked = lockManager.lockedPages(tid);
+        Map<RecordId, Tuple> undo = recordUndo.remove(tid);
+        try {
+            Set<PageId> written = new LinkedHashSet<>();
+            if (undo != null) {
+                written.addAll(completeRecordChanges(tid, undo, commit));
+            }
+            if (commit) {
+                written.addAll(dirtiedBy(locked, tid));
+                flushPageBatch(written, logCommit ? tid : null);
+                for (PageId pid : locked) {
+                    Page page = hPage.get(pid);
+                    if (page != null) {
+                        // the committed contents are what a later abort
+                        // must roll back to; heap pages just drop their old
+                        // image and copy the page again when next modified
+                        page.setBeforeImage();
+                    }
+                }
+            } else {
+                flushPageBatch(written, null);
+                for (PageId pid : locked) {
+                    Page page = hPage.get(pid);
+                    if (page != null && tid.equals(page.isDirty()) && !isRecordLocked(pid.getTableId())) {
+                        removePage(pid);
+                    }
+                }
+            }
+        } finally {
+            versions.transactionComplete(tid, commit);
+            optimistic.end(tid);
+            for (PageId pid : locked) {
+                LockMode mode = lockManager.lockMode(tid, pid);
+                if (mode == LockMode.EXCLUSIVE || mode == LockMode.INTENTION_EXCLUSIVE) {
+                    // optimistic readers of the page may have seen changes
+                    // that are only now committed or rolled back
+                    optimistic.bump(pid);
+                }
+            }
+            lockManager.releaseAll(tid);
+        }
+    }
+
+    // undo the records tid changed on abort, and return the pages holding
+    // them, which are to be written on its behalf
+    private Set<PageId> completeRecordChanges(TransactionId tid, Map<RecordId, Tuple> undo, boolean commit)
+            throws IOException {
+        List<Map.Entry<RecordId, Tuple>> changes = new ArrayList<>(undo.entrySet());
+        Set<PageId> pages = new LinkedHashSet<>();
+        for (int i = changes.size() - 1; i >= 0; i--) {
+            RecordId rid = changes.get(i).getKey();
+            PageId pid = rid.getPageId();
+            pages.add(pid);
+            if (commit) {
+                continue;
+            }
+            HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(pid.getTableId());
+            try {
+                Page page = file.restoreRecord(tid, rid, changes.get(i).getValue());
+                cacheDirtyPages(tid, Collections.singletonList(page));
+            } catch (DbException | TransactionAbortedException e) {
+                throw new IOException("could not undo the change to " + rid + ": " + e.getMessage(), e);
+            }
+        }
+        for (PageId pid : pages) {
+            Page page = hPage.get(pid);
+            if (page != null && page.isDirty() != null) {
+                // other transactions may have dirtied it last; the write is
+                // logged on behalf of this one
+                page.markDirty(true, tid);
+            }
+        }
+        return pages;
     }
 
     /**
@@ -171,8 +913,9 @@ public class BufferPool {
      */
     public void insertTuple(TransactionId tid, int tableId, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
-        // TODO: some code goes here
-        // not necessary for lab1
+        checkWritable(tid);
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        cacheDirtyPages(tid, file.insertTuple(tid, t));
     }
 
     /**
@@ -190,8 +933,75 @@ public class BufferPool {
      */
     public void deleteTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
-        // TODO: some code goes here
-        // not necessary for lab1
+        checkWritable(tid);
+        if (t.getRecordId() == null) {
+            throw new DbException("tuple is not stored in any table");
+        }
+        DbFile file = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
+        cacheDirtyPages(tid, file.deleteTuple(tid, t));
+    }
+
+    private void checkWritable(TransactionId tid) throws DbException {
+        if (versions.hasSnapshot(tid)) {
+            throw new DbException("transaction " + tid.getId() + " reads from a snapshot and cannot write");
+        }
+    }
+
+    /**
+     * Mark pages modified by tid dirty and make them the resident version,
+     * replacing any other copy of the same page.
+     */
+    private void cacheDirtyPages(TransactionId tid, List<Page> pages) throws DbException {
+        OptimisticStore.Workspace ws = optimistic.workspace(tid);
+        if (ws != null) {
+            // the private copies stay with tid until it validates
+            for (Page page : pages) {
+                page.markDirty(true, tid);
+                ws.writes.put(page.getId(), page);
+            }
+            return;
+        }
+        for (Page page : pages) {
+            PageId pid = page.getId();
+            Partition part = partitionOf(pid);
+            // a frame is reserved before taking the lock when the page is
+            // not resident, since evicting may need other partitions' locks
+            boolean reserved = false;
+            while (true) {
+                if (!reserved && !hPage.containsKey(pid)) {
+                    reserveFrame(part);
+                    reserved = true;
+                }
+                part.lock.lock();
+                try {
+                    boolean isResident = hPage.containsKey(pid);
+                    if (!isResident && !reserved) {
+                        // evicted since we looked
+                        continue;
+                    }
+                    // under the lock, so flushOldestPages cannot mark the page
+                    // clean again based on its contents before this change
+                    page.markDirty(true, tid);
+                    optimistic.bump(pid);
+                    dirtiedAt.putIfAbsent(pid, dirtySequence.incrementAndGet());
+                    hPage.put(pid, page);
+                    if (isResident) {
+                        if (reserved) {
+                            resident.decrementAndGet();
+                        }
+                    } else {
+                        part.policy.pageAdded(pid);
+                    }
+                    break;
+                } finally {
+                    part.lock.unlock();
+                }
+            }
+        }
+        BackgroundWriter w = writer;
+        if (w != null && tooManyDirtyPages()) {
+            w.wakeUp();
+        }
     }
 
     /**
@@ -199,10 +1009,8 @@ public class BufferPool {
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      * break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
-        // TODO: some code goes here
-        // not necessary for lab1
-
+    public void flushAllPages() throws IOException {
+        flushPageBatch(new ArrayList<>(hPage.keySet()), null);
     }
 
     /**
@@ -214,38 +1022,437 @@ public class BufferPool {
      * Also used by B+ tree files to ensure that deleted pages
      * are removed from the cache so they can be reused safely
      */
-    public synchronized void removePage(PageId pid) {
-        // TODO: some code goes here
-        // not necessary for lab1
+    public void removePage(PageId pid) {
+        Partition part = partitionOf(pid);
+        part.lock.lock();
+        try {
+            if (hPage.remove(pid) != null) {
+                part.policy.pageRemoved(pid);
+                resident.decrementAndGet();
+            }
+            dirtiedAt.remove(pid);
+        } finally {
+            part.lock.unlock();
+        }
     }
 
     /**
-     * Flushes a certain page to disk
+     * Flushes a certain page to disk. The update is logged and the log
+     * forced first (write-ahead logging).
      *
      * @param pid an ID indicating the page to flush
      */
-    private synchronized void flushPage(PageId pid) throws IOException {
-        // TODO: some code goes here
-        // not necessary for lab1
+    private void flushPage(PageId pid) throws IOException {
+        flushPageBatch(Collections.singletonList(pid), null);
+    }
+
+    /**
+     * Flushes the dirty ones of the given pages to disk. The updates of all
+     * of them are logged first, and the log is forced once, up to the last
+     * of them, before any page is written (write-ahead logging); the force is
+     * skipped if a commit has forced the log that far already. The log
+     * records are written before taking the partition locks, since a
+     * rollback removes pages from the buffer pool while it holds the log
+     * (see {@link LogFile#rollback}).
+     *
+     * @param committing a transaction whose COMMIT record to log after the
+     *                   updates, whose group force then covers them; or null
+     */
+    private void flushPageBatch(Collection<PageId> pids, TransactionId committing) throws IOException {
+        LogFile log = Database.getLogFile();
+        List<Page> pages = new ArrayList<>();
+        try {
+            long lastLsn = 0;
+            for (PageId pid : pids) {
+                Page page = hPage.get(pid);
+                TransactionId dirtier = page == null ? null : page.isDirty();
+                if (dirtier == null) {
+                    continue;
+                }
+                enterDirtyPageTable(pid, log);
+                pages.add(page);
+                log.logWrite(dirtier, page.getBeforeImage(), page);
+                lastLsn = log.getEndLsn();
+            }
+            if (committing != null) {
+                log.logCommit(committing);
+            }
+            log.force(lastLsn);
+
+            for (Page page : pages) {
+                PageId pid = page.getId();
+                Partition part = partitionOf(pid);
+                part.lock.lock();
+                try {
+                    if (hPage.get(pid) != page) {
+                        continue;
+                    }
+                    Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
+                    page.markDirty(false, null);
+                    dirtiedAt.remove(pid);
+                } finally {
+                    part.lock.unlock();
+                }
+            }
+        } finally {
+            for (Page page : pages) {
+                leaveDirtyPageTable(page.getId());
+            }
+        }
+    }
+
+    // enter pid before logging its update, so a checkpoint taken in between
+    // sees it with a recLSN no later than the UPDATE record
+    private void enterDirtyPageTable(PageId pid, LogFile log) {
+        dirtyPages.compute(pid, (k, e) -> {
+            if (e == null) {
+                e = new DirtyPage(log.getEndLsn());
+            }
+            e.writers++;
+            return e;
+        });
+    }
+
+    // once the write of pid is done or abandoned
+    private void leaveDirtyPageTable(PageId pid) {
+        dirtyPages.computeIfPresent(pid, (k, e) -> --e.writers == 0 ? null : e);
+    }
+
+    /**
+     * Write up to n of the dirty pages, those that became dirty first first,
+     * while the transactions that dirtied them may still be running. This is
+     * the work of the {@link BackgroundWriter}.
+     * <p>
+     * The pages are not locked, and their owners may be changing them
+     * meanwhile. So each is copied, and the copy is what is logged and
+     * written: the log then describes exactly what is on disk, whatever
+     * state the page was caught in. A page caught more than once is logged
+     * each time against the copy logged before it (see
+     * {@link LogFile#logWrite}). The UPDATE records of the whole batch
+     * are forced with one force (which is skipped if a commit has forced
+     * them already), before any page is written. A page is marked clean
+     * only if it still matches the copy; that check and
+     * {@link #cacheDirtyPages} both run under the partition lock. Pages
+     * that were removed from the pool meanwhile, for instance by a rollback
+     * (which holds the log while it undoes), are not written.
+     *
+     * @return the number of pages written
+     */
+    public int flushOldestPages(int n) throws IOException {
+        List<Map.Entry<PageId, Long>> oldest = new ArrayList<>(dirtiedAt.entrySet());
+        oldest.sort(Map.Entry.comparingByValue());
+
+        LogFile log = Database.getLogFile();
+        List<Page> pages = new ArrayList<>();
+        List<Page> copies = new ArrayList<>();
+        long lastLsn = 0;
+        try {
+            for (Map.Entry<PageId, Long> entry : oldest) {
+                if (pages.size() == n) {
+                    break;
+                }
+                PageId pid = entry.getKey();
+                Page page = hPage.get(pid);
+                TransactionId dirtier = page == null ? null : page.isDirty();
+                if (dirtier == null) {
+                    dirtiedAt.remove(pid, entry.getValue());
+                    continue;
+                }
+                Page copy = copyOf(page);
+                if (copy == null) {
+                    continue;
+                }
+                enterDirtyPageTable(pid, log);
+                pages.add(page);
+                copies.add(copy);
+                synchronized (log) {
+                    if (hPage.get(pid) == page) {
+                        log.logWrite(dirtier, page.getBeforeImage(), copy);
+                        lastLsn = log.getEndLsn();
+                    } else {
+                        copies.set(copies.size() - 1, null);
+                    }
+                }
+            }
+            log.force(lastLsn);
+
+            int written = 0;
+            for (int i = 0; i < pages.size(); i++) {
+                Page page = pages.get(i);
+                Page copy = copies.get(i);
+                if (copy == null) {
+                    continue;
+                }
+                PageId pid = page.getId();
+                Partition part = partitionOf(pid);
+                part.lock.lock();
+                try {
+                    if (hPage.get(pid) != page) {
+                        continue;
+                    }
+                    Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(copy);
+                    written++;
+                    if (Arrays.equals(page.getPageData(), copy.getPageData())) {
+                        page.markDirty(false, null);
+                        dirtiedAt.remove(pid);
+                    }
+                } finally {
+                    part.lock.unlock();
+                }
+            }
+            backgroundWrites.addAndGet(written);
+            return written;
+        } finally {
+            for (Page page : pages) {
+                leaveDirtyPageTable(page.getId());
+            }
+        }
+    }
+
+    // a copy of page as it is now, or null if it cannot be copied right now
+    private static Page copyOf(Page page) {
+        byte[] data;
+        // heap pages change under their monitor
+        synchronized (page) {
+            data = page.getPageData();
+        }
+        try {
+            return PageTypeRegistry.newPage(PageTypeRegistry.codeOf(page), page.getId(), data);
+        } catch (IOException | RuntimeException e) {
+            // an unregistered page type, or a page caught in the middle of
+            // a change that does not parse; it stays dirty
+            return null;
+        }
+    }
+
+    /**
+     * @return the number of resident dirty pages
+     */
+    public int getDirtyPageCount() {
+        return dirtiedAt.size();
+    }
+
+    // more than half of the pool is dirty
+    boolean tooManyDirtyPages() {
+        return dirtiedAt.size() > maxPages / 2;
+    }
+
+    /**
+     * Switch to STEAL mode with a {@link BackgroundWriter} using the default
+     * settings.
+     */
+    public void startBackgroundWriter() {
+        startBackgroundWriter(BackgroundWriter.DEFAULT_INTERVAL_MS, BackgroundWriter.DEFAULT_BATCH,
+                BackgroundWriter.DEFAULT_CHECKPOINT_INTERVAL_MS);
+    }
+
+    /**
+     * Switch to STEAL mode: start a {@link BackgroundWriter} that writes up
+     * to batch of the oldest dirty pages every intervalMs milliseconds, and
+     * takes a checkpoint every checkpointIntervalMs milliseconds.
+     *
+     * @return the writer
+     * @throws IllegalStateException if a writer is running already
+     */
+    public synchronized BackgroundWriter startBackgroundWriter(long intervalMs, int batch, long checkpointIntervalMs) {
+        if (writer != null) {
+            throw new IllegalStateException("the background writer is running already");
+        }
+        BackgroundWriter w = new BackgroundWriter(this, intervalMs, batch, checkpointIntervalMs);
+        w.start();
+        writer = w;
+        return w;
+    }
+
+    /**
+     * Stop the background writer, if there is one, and return to NO STEAL
+     * mode. Pages it has written for transactions that are still running
+     * stay written; their aborts go through the log.
+     */
+    public synchronized void stopBackgroundWriter() {
+        BackgroundWriter w = writer;
+        if (w != null) {
+            writer = null;
+            w.stop();
+        }
+    }
+
+    /**
+     * @return the background writer, or null in NO STEAL mode
+     */
+    public BackgroundWriter getBackgroundWriter() {
+        return writer;
+    }
+
+    /**
+     * Return a copy of the dirty page table: the pages with a logged update
+     * that may not have reached disk, mapped to the log position (see
+     * {@link LogFile#getEndLsn}) from which recovery must redo them.
+     */
+    public Map<PageId, Long> getDirtyPageTable() {
+        Map<PageId, Long> table = new HashMap<>();
+        dirtyPages.forEach((pid, e) -> table.put(pid, e.recLsn));
+        return table;
     }
 
     /**
      * Write all pages of the specified transaction to disk.
      */
-    public synchronized void flushPages(TransactionId tid) throws IOException {
-        // TODO: some code goes here
-        // not necessary for lab1|lab2
+    public void flushPages(TransactionId tid) throws IOException {
+        flushPageBatch(dirtiedBy(lockManager.lockedPages(tid), tid), null);
+    }
+
+    // the pages of locked that tid dirtied
+    private List<PageId> dirtiedBy(Set<PageId> locked, TransactionId tid) {
+        List<PageId> dirty = new ArrayList<>();
+        for (PageId pid : locked) {
+            Page page = hPage.get(pid);
+            if (page != null && tid.equals(page.isDirty())) {
+                dirty.add(pid);
+            }
+        }
+        return dirty;
     }
 
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * <p>
+     * The victim is chosen by the replacement policy of the given partition.
+     * If every page there is dirty, the other partitions are tried in turn.
+     * Each partition lock is taken on its own, blocking, and released before
+     * the next, so evictions in different partitions cannot deadlock. Dirty
+     * pages are never chosen, even in STEAL mode: writing them is left to the
+     * background writer, which is woken up when no clean page is found. The
+     * partitions are searched again as long as a clean page may have appeared
+     * meanwhile. Must be called without holding any partition lock.
+     *
+     * @throws DbException if every resident page is dirty
+     */
+    private void evictPage(Partition part) throws DbException {
+        while (true) {
+            if (lockAndEvictFrom(part)) {
+                return;
+            }
+            for (Partition other : partitions) {
+                if (other != part && lockAndEvictFrom(other)) {
+                    return;
+                }
+            }
+            BackgroundWriter w = writer;
+            if (w != null) {
+                w.wakeUp();
+            }
+            if (!mayFindCleanPage()) {
+                throw new DbException("all pages in the buffer pool are dirty");
+            }
+            Thread.yield();
+        }
+    }
+
+    // whether another pass of evictPage could succeed: a page became clean
+    // after its partition was looked at, or a frame reserved by another
+    // caller is about to be filled
+    private boolean mayFindCleanPage() {
+        if (resident.get() > hPage.size()) {
+            return true;
+        }
+        for (Page p : hPage.values()) {
+            if (p.isDirty() == null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean lockAndEvictFrom(Partition part) {
+        part.lock.lock();
+        try {
+            return evictFrom(part);
+        } finally {
+            part.lock.unlock();
+        }
+    }
+
+    // must be called with part.lock held
+    private boolean evictFrom(Partition part) {
+        part.drainAccesses();
+        PageId victim = part.policy.chooseVictim(pid -> {
+            Page p = hPage.get(pid);
+            return p != null && p.isDirty() == null;
+        });
+        if (victim == null) {
+            return false;
+        }
+        hPage.remove(victim);
+        dirtiedAt.remove(victim);
+        part.policy.pageRemoved(victim);
+        resident.decrementAndGet();
+        evictions.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * @return the number of getPage calls served from the buffer pool
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of getPage calls that did not find the page resident
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of pages read from disk by getPage
+     */
+    public long getDiskReadCount() {
+        return diskReads.get();
+    }
+
+    /**
+     * @return the number of misses that waited for another caller's read of
+     *         the same page instead of reading it themselves
+     */
+    public long getCoalescedLoadCount() {
+        return coalescedLoads.get();
+    }
+
+    /**
+     * @return the number of pages read from disk by prefetchPage
+     */
+    public long getPrefetchCount() {
+        return prefetchReads.get();
+    }
+
+    /**
+     * @return the number of pages evicted to make room for other pages
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the number of pages written by {@link #flushOldestPages}
+     */
+    public long getBackgroundWriteCount() {
+        return backgroundWrites.get();
+    }
+
+    /**
+     * Reset all buffer pool counters to zero.
      */
-    private synchronized void evictPage() throws DbException {
-        // TODO: some code goes here
-        // not necessary for lab1
-        hPage.remove(seqs.remove(0));
-        pageUsed -= 1;
+    public void resetStats() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+        diskReads.set(0);
+        coalescedLoads.set(0);
+        prefetchReads.set(0);
+        backgroundWrites.set(0);
     }
 
 }
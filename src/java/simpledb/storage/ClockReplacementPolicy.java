@@ -0,0 +1,122 @@
+package simpledb.storage;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * CLOCK (second chance) replacement. Every resident page owns a frame on a
+ * circular array together with a reference bit that is set on each access.
+ * The clock hand sweeps the frames, clearing set bits, and stops at the first
+ * evictable page whose bit is already clear.
+ * <p>
+ * Adding, touching and removing a page are O(1); a victim is found after at
+ * most two sweeps over the frames.
+ * <p>
+ * Prefetched pages that have not been accessed yet are kept on a separate
+ * FIFO and are offered as victims before the clock is swept at all.
+ */
+public class ClockReplacementPolicy implements ReplacementPolicy {
+
+    private PageId[] frames;
+    private boolean[] referenced;
+    private final Map<PageId, Integer> frameOf;
+    private final Deque<Integer> freeFrames;
+    private final LinkedHashSet<PageId> prefetched;
+    private int hand;
+
+    /**
+     * Creates a CLOCK policy sized for capacity resident pages. The clock
+     * grows if more pages than that are ever added.
+     *
+     * @param capacity expected number of pages the owning buffer pool holds
+     */
+    public ClockReplacementPolicy(int capacity) {
+        frames = new PageId[Math.max(capacity, 1)];
+        referenced = new boolean[frames.length];
+        frameOf = new HashMap<>();
+        freeFrames = new ArrayDeque<>();
+        prefetched = new LinkedHashSet<>();
+        for (int i = 0; i < frames.length; i++) {
+            freeFrames.add(i);
+        }
+        hand = 0;
+    }
+
+    public void pageAdded(PageId pid) {
+        Integer frame = frameOf.get(pid);
+        if (frame == null) {
+            if (freeFrames.isEmpty()) {
+                grow();
+            }
+            frame = freeFrames.poll();
+            frames[frame] = pid;
+            frameOf.put(pid, frame);
+        }
+        // a newly loaded page starts unreferenced, so a page touched only once
+        // (e.g. by a sequential scan) is the first candidate on the next sweep
+        referenced[frame] = false;
+    }
+
+    public void pagePrefetched(PageId pid) {
+        pageAdded(pid);
+        prefetched.add(pid);
+    }
+
+    public void pageAccessed(PageId pid) {
+        if (prefetched.remove(pid)) {
+            // the first use of a prefetched page is its load, not a reuse
+            return;
+        }
+        Integer frame = frameOf.get(pid);
+        if (frame != null) {
+            referenced[frame] = true;
+        }
+    }
+
+    public void pageRemoved(PageId pid) {
+        prefetched.remove(pid);
+        Integer frame = frameOf.remove(pid);
+        if (frame != null) {
+            frames[frame] = null;
+            referenced[frame] = false;
+            freeFrames.add(frame);
+        }
+    }
+
+    private void grow() {
+        int oldLength = frames.length;
+        frames = Arrays.copyOf(frames, oldLength * 2);
+        referenced = Arrays.copyOf(referenced, oldLength * 2);
+        for (int i = oldLength; i < frames.length; i++) {
+            freeFrames.add(i);
+        }
+    }
+
+    public PageId chooseVictim(Predicate<PageId> evictable) {
+        for (PageId pid : prefetched) {
+            if (evictable.test(pid)) {
+                return pid;
+            }
+        }
+        for (int step = 0; step < 2 * frames.length; step++) {
+            int frame = hand;
+            hand = (hand + 1) % frames.length;
+
+            PageId pid = frames[frame];
+            if (pid == null || !evictable.test(pid)) {
+                continue;
+            }
+            if (referenced[frame]) {
+                referenced[frame] = false;
+                continue;
+            }
+            return pid;
+        }
+        return null;
+    }
+}
@@ -6,6 +6,7 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -23,6 +24,35 @@ public interface DbFile {
      */
     Page readPage(PageId id);
 
+    /**
+     * Read count consecutive pages from disk, starting with first, in as few
+     * I/O calls as the file allows. The pages are numbered
+     * first.getPageNumber() onwards and are of the same kind as first. Pages
+     * past the end of the file are left out, so fewer than count pages may be
+     * returned.
+     * <p>
+     * The default reads first on its own and only supports count == 1;
+     * files that override it to read any count say so with
+     * {@link #readsPagesInBatches}.
+     *
+     * @return the pages, in page number order
+     * @throws IllegalArgumentException if first does not exist in this file.
+     */
+    default List<Page> readPages(PageId first, int count) {
+        if (count != 1) {
+            throw new UnsupportedOperationException(getClass().getSimpleName() + " cannot read pages in batches");
+        }
+        return Collections.singletonList(readPage(first));
+    }
+
+    /**
+     * @return true if {@link #readPages} reads any number of pages, false if
+     *         the pages of this file must be read one at a time
+     */
+    default boolean readsPagesInBatches() {
+        return false;
+    }
+
     /**
      * Push the specified page to disk.
      *
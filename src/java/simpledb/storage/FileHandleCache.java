@@ -0,0 +1,271 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * FileHandleCache shares open FileChannels between all readers and writers of
+ * the same data file, so that page I/O does not open and close the file on
+ * every call. Channels are used with positional reads and writes only, which
+ * lets any number of threads use one channel without coordinating seeks.
+ * <p>
+ * File descriptors are a process-wide resource, so there is one cache per
+ * process (see {@link #getInstance()}). It keeps at most maxOpen channels
+ * open: when a new file is opened beyond that, the least recently used
+ * channels that nobody is using are closed. Channels that have not been used
+ * for idleMillis are closed as well, so thousands of rarely used tables do not
+ * pin thousands of descriptors.
+ * <p>
+ * Channels are keyed by path. A file that is deleted, or replaced by a new
+ * file of the same name, must be closed with {@link #close(File)} first, so
+ * that the next acquire opens the new file; the old channel is closed once
+ * its last user releases it. Overwriting a file in place needs no close.
+ * <p>
+ * Callers must release every handle they acquire, typically with
+ * try-with-resources:
+ * <pre>
+ *     try (FileHandleCache.Handle h = FileHandleCache.getInstance().acquire(f)) {
+ *         h.readFully(buf, offset);
+ *     }
+ * </pre>
+ *
+ * @Threadsafe
+ */
+public class FileHandleCache {
+
+    /**
+     * Default maximum number of channels kept open at once.
+     */
+    public static final int DEFAULT_MAX_OPEN = 256;
+
+    /**
+     * Default time after which an unused channel is closed.
+     */
+    public static final long DEFAULT_IDLE_MILLIS = 30_000;
+
+    private static final FileHandleCache instance =
+            new FileHandleCache(DEFAULT_MAX_OPEN, DEFAULT_IDLE_MILLIS);
+
+    /**
+     * An open channel on one file, reference counted by its users.
+     */
+    public final class Handle implements AutoCloseable {
+        private final File file;
+        private final FileChannel channel;
+        // number of users, or CLOSED once the cache has closed the channel
+        private final AtomicInteger users = new AtomicInteger();
+        private volatile long lastUsed;
+        private volatile boolean detached = false;
+
+        private Handle(File file, FileChannel channel) {
+            this.file = file;
+            this.channel = channel;
+        }
+
+        public FileChannel channel() {
+            return channel;
+        }
+
+        /**
+         * Read from position until buf is full or the end of the file is
+         * reached.
+         *
+         * @return the number of bytes read, which is less than requested only
+         *         at the end of the file
+         */
+        public int readFully(ByteBuffer buf, long position) throws IOException {
+            int total = 0;
+            while (buf.hasRemaining()) {
+                int n = channel.read(buf, position + total);
+                if (n < 0) {
+                    break;
+                }
+                total += n;
+            }
+            return total;
+        }
+
+        /**
+         * Write all remaining bytes of buf starting at position.
+         */
+        public void writeFully(ByteBuffer buf, long position) throws IOException {
+            long pos = position;
+            while (buf.hasRemaining()) {
+                pos += channel.write(buf, pos);
+            }
+        }
+
+        /**
+         * Release this handle; the channel stays open for other users until
+         * the cache decides to close it.
+         */
+        public void close() {
+            release(this);
+        }
+
+        // count one more user, unless the channel has been closed
+        private boolean retain() {
+            while (true) {
+                int n = users.get();
+                if (n == CLOSED) {
+                    return false;
+                }
+                if (users.compareAndSet(n, n + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        // close the channel if nobody is using it
+        private boolean closeIfUnused() {
+            if (!users.compareAndSet(0, CLOSED)) {
+                return false;
+            }
+            closeQuietly(this);
+            return true;
+        }
+    }
+
+    private static final int CLOSED = -1;
+
+    private final int maxOpen;
+    private final long idleMillis;
+    private final ConcurrentHashMap<File, Handle> handles = new ConcurrentHashMap<>();
+    private volatile long lastSweep;
+
+    /**
+     * @param maxOpen    maximum number of channels to keep open
+     * @param idleMillis time after which an unused channel is closed
+     */
+    public FileHandleCache(int maxOpen, long idleMillis) {
+        this.maxOpen = maxOpen;
+        this.idleMillis = idleMillis;
+        this.lastSweep = System.currentTimeMillis();
+    }
+
+    /**
+     * @return the cache shared by all files of this process
+     */
+    public static FileHandleCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Get a handle on f, opening (and creating) the file if needed. A handle
+     * that is already open is shared without locking the cache.
+     */
+    public Handle acquire(File f) throws IOException {
+        File key = f.getAbsoluteFile();
+        Handle h = handles.get(key);
+        if (h == null || !h.channel.isOpen() || !h.retain()) {
+            h = open(key);
+        }
+        closeIdle();
+        return h;
+    }
+
+    // the slow path of acquire: open key unless another thread just did
+    private synchronized Handle open(File key) throws IOException {
+        Handle h = handles.get(key);
+        if (h != null && h.channel.isOpen() && h.retain()) {
+            return h;
+        }
+        if (h != null) {
+            handles.remove(key, h);
+            detach(h);
+        }
+        FileChannel channel = FileChannel.open(key.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        h = new Handle(key, channel);
+        h.users.set(1);
+        handles.put(key, h);
+        closeExcess();
+        return h;
+    }
+
+    private void release(Handle h) {
+        h.lastUsed = System.currentTimeMillis();
+        if (h.users.decrementAndGet() == 0 && h.detached) {
+            h.closeIfUnused();
+        }
+    }
+
+    // stop handing out h; its channel closes when its last user is done
+    private void detach(Handle h) {
+        h.detached = true;
+        h.closeIfUnused();
+    }
+
+    /**
+     * Close the channel of f. This must be called before the file is deleted
+     * or replaced by another one, since the cache does not check whether a
+     * path still names the file its channel was opened on. A channel in use
+     * is closed when its last user releases it.
+     */
+    public synchronized void close(File f) {
+        Handle h = handles.remove(f.getAbsoluteFile());
+        if (h != null) {
+            detach(h);
+        }
+    }
+
+    /**
+     * @return the number of channels currently open
+     */
+    public int openCount() {
+        return handles.size();
+    }
+
+    // close least recently used channels that are not in use until we are
+    // back to maxOpen
+    private void closeExcess() {
+        while (handles.size() > maxOpen) {
+            Handle lru = null;
+            for (Handle h : handles.values()) {
+                if (h.users.get() == 0 && (lru == null || h.lastUsed < lru.lastUsed)) {
+                    lru = h;
+                }
+            }
+            if (lru == null || !lru.closeIfUnused()) {
+                return;
+            }
+            handles.remove(lru.file, lru);
+        }
+    }
+
+    // close channels nobody has used for idleMillis; runs at most every
+    // idleMillis / 2 to keep acquire cheap
+    private void closeIdle() {
+        long now = System.currentTimeMillis();
+        if (now - lastSweep < idleMillis / 2) {
+            return;
+        }
+        synchronized (this) {
+            if (now - lastSweep < idleMillis / 2) {
+                return;
+            }
+            lastSweep = now;
+            Iterator<Handle> it = handles.values().iterator();
+            while (it.hasNext()) {
+                Handle h = it.next();
+                if (h.users.get() == 0 && now - h.lastUsed >= idleMillis && h.closeIfUnused()) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    private static void closeQuietly(Handle h) {
+        try {
+            h.channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package simpledb.storage;
+
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap tracks which pages of a HeapFile may still have an empty slot,
+ * so an insert can go straight to such a page instead of probing every page
+ * from the start of the file.
+ * <p>
+ * The map is a hint: one bit per page, set when the page is known to be full.
+ * Pages start out as "may have room" and are marked full the first time an
+ * insert finds them full, so the map is built lazily by the inserts
+ * themselves and never needs a scan of the file, nor its own on-disk copy
+ * to keep consistent with the data after a crash. Callers must still check
+ * the page they are sent to.
+ * <p>
+ * Finding a page is amortized O(1): a cursor remembers the lowest page that
+ * may have room, and only moves back when a delete frees a slot below it.
+ *
+ * @Threadsafe
+ */
+public class FreeSpaceMap {
+
+    private final BitSet full = new BitSet();
+    private int cursor = 0;
+
+    /**
+     * Find a page that may have an empty slot.
+     *
+     * @param numPages the number of pages in the file
+     * @return the page number, or -1 if all pages are known to be full
+     */
+    public synchronized int findPage(int numPages) {
+        int p = full.nextClearBit(cursor);
+        cursor = p;
+        return p < numPages ? p : -1;
+    }
+
+    /**
+     * Record the number of empty slots a page was seen to have.
+     */
+    public synchronized void update(int pageNo, int freeSlots) {
+        if (freeSlots > 0) {
+            full.clear(pageNo);
+            cursor = Math.min(cursor, pageNo);
+        } else {
+            full.set(pageNo);
+        }
+    }
+
+    /**
+     * @return true if the page is known to have no empty slot
+     */
+    public synchronized boolean isFull(int pageNo) {
+        return full.get(pageNo);
+    }
+}
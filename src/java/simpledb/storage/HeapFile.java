@@ -8,10 +8,15 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.function.IntPredicate;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
@@ -23,7 +28,7 @@ import java.util.NoSuchElementException;
  * @author Sam Madden
  * @see HeapPage#HeapPage
  */
-public class HeapFile implements DbFile {
+public class HeapFile implements DbFile, MemoryMappable {
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -33,6 +38,35 @@ public class HeapFile implements DbFile {
      */
     private File f;
     private TupleDesc td;
+    private volatile MappedDataFile mapped = null;
+    // the run being read by readPages in this thread, which readPage serves
+    // its pages from
+    private final ThreadLocal<PageRun> currentRun = new ThreadLocal<>();
+    private final FreeSpaceMap freeSpace = new FreeSpaceMap();
+    // first page of a bulk load in progress, or -1. Pages from there on are
+    // being written by the loader and are not part of the table yet.
+    private volatile int bulkLoadFrom = -1;
+    // partly filled last pages of bulk loads, with the transactions that
+    // loaded them. Such a page is kept out of the free-space map while its
+    // transaction holds the page, since an abort would empty it again; only
+    // that transaction itself may insert into it meanwhile.
+    private final Map<HeapPageId, TransactionId> loadedPages = new HashMap<>(); // protected by this
+    private volatile boolean recordLocking = false;
+
+    /**
+     * Pages [first, first + count) of the file, read into buf at once.
+     */
+    private static final class PageRun {
+        final int first;
+        final int count;
+        final ByteBuffer buf;
+
+        PageRun(int first, int count, ByteBuffer buf) {
+            this.first = first;
+            this.count = count;
+            this.buf = buf;
+        }
+    }
 
     public HeapFile(File f, TupleDesc td) {
         this.f = f;
@@ -75,29 +109,135 @@ public class HeapFile implements DbFile {
 
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
-        // TODO: some code goes here; MAY DONE
         int pageSize = BufferPool.getPageSize();
-        int pageOffset = pid.getPageNumber() * pageSize;
+        long pageOffset = (long) pid.getPageNumber() * pageSize;
 
+        HeapPageId hPid = new HeapPageId(pid.getTableId(), pid.getPageNumber());
         try {
-            FileInputStream fis = new FileInputStream(f);
-            byte[] bytes = new byte[pageSize];
-            fis.read(bytes, pageOffset, pageSize);
+            PageRun run = currentRun.get();
+            if (run != null && pid.getPageNumber() >= run.first && pid.getPageNumber() < run.first + run.count) {
+                ByteBuffer page = run.buf.duplicate();
+                int at = (pid.getPageNumber() - run.first) * pageSize;
+                page.clear().position(at).limit(at + pageSize);
+                return new HeapPage(hPid, page.slice());
+            }
+
+            MappedDataFile m = mapped;
+            if (m != null) {
+                ByteBuffer slice = m.slice(pageOffset, pageSize);
+                if (slice != null) {
+                    return new HeapPage(hPid, copyOf(slice));
+                }
+            }
 
-            HeapPageId hPid = new HeapPageId(pid.getTableId(), pid.getPageNumber());
+            byte[] bytes = new byte[pageSize];
+            try (FileHandleCache.Handle h = FileHandleCache.getInstance().acquire(f)) {
+                int read = h.readFully(ByteBuffer.wrap(bytes), pageOffset);
+                if (read < pageSize) {
+                    throw new IllegalArgumentException("page " + pid.getPageNumber()
+                            + " does not exist in " + f.getName());
+                }
+            }
             return new HeapPage(hPid, bytes);
         } catch (IOException e) {
-            // this really shouldn't happen
-            e.printStackTrace();
+            throw new RuntimeException(e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public boolean readsPagesInBatches() {
+        return true;
+    }
+
+    // see DbFile.java for javadocs
+    // one read for the whole run, whose pages are then built by readPage from
+    // views of the shared buffer; subclasses that override readPage still get
+    // one call per page.
+    public List<Page> readPages(PageId first, int count) {
+        int pageSize = BufferPool.getPageSize();
+        int firstNo = first.getPageNumber();
+        int n = Math.min(count, numPages() - firstNo);
+        if (n <= 0) {
+            throw new IllegalArgumentException("page " + firstNo + " does not exist in " + f.getName());
+        }
+        long offset = (long) firstNo * pageSize;
+
+        try {
+            MappedDataFile m = mapped;
+            ByteBuffer buf = (m == null) ? null : m.slice(offset, n * pageSize);
+            if (buf != null) {
+                buf = copyOf(buf);
+            } else {
+                buf = ByteBuffer.allocate(n * pageSize);
+                try (FileHandleCache.Handle h = FileHandleCache.getInstance().acquire(f)) {
+                    n = h.readFully(buf, offset) / pageSize;
+                }
+                if (n == 0) {
+                    throw new IllegalArgumentException("page " + firstNo + " does not exist in " + f.getName());
+                }
+            }
+
+            currentRun.set(new PageRun(firstNo, n, buf));
+            try {
+                List<Page> pages = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) {
+                    pages.add(readPage(new HeapPageId(first.getTableId(), firstNo + i)));
+                }
+                return pages;
+            } finally {
+                currentRun.remove();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
+    }
 
-        return null;
+    // pages decode their tuples lazily out of their buffer, which must not
+    // change under them, but writes to the file show through the mapping
+    private static ByteBuffer copyOf(ByteBuffer mappedSlice) {
+        ByteBuffer copy = ByteBuffer.allocate(mappedSlice.remaining());
+        copy.put(mappedSlice.duplicate()).flip();
+        return copy;
     }
 
     // see DbFile.java for javadocs
+    // writes always use the file channel, even when reads are memory-mapped
     public void writePage(Page page) throws IOException {
-        // TODO: some code goes here
-        // not necessary for lab1
+        long pageOffset = (long) page.getId().getPageNumber() * BufferPool.getPageSize();
+        try (FileHandleCache.Handle h = FileHandleCache.getInstance().acquire(f)) {
+            h.writeFully(ByteBuffer.wrap(page.getPageData()), pageOffset);
+        }
+    }
+
+    // see MemoryMappable.java for javadocs
+    public void setMemoryMapped(boolean on) {
+        mapped = on ? new MappedDataFile(f) : null;
+    }
+
+    // see MemoryMappable.java for javadocs
+    public boolean isMemoryMapped() {
+        return mapped != null;
+    }
+
+    /**
+     * Choose between page and record locking for this file. With record
+     * locking, readers lock each record they return and writers each record
+     * they insert or delete, while the pages only get intention locks (see
+     * {@link LockManager}), so writers of different records on the same page
+     * run concurrently. Should only be changed while no transaction uses the
+     * file.
+     *
+     * @see simpledb.common.Catalog#setRecordLocking
+     */
+    public void setRecordLocking(boolean on) {
+        recordLocking = on;
+    }
+
+    /**
+     * @return true if this file is locked per record
+     */
+    public boolean isRecordLocking() {
+        return recordLocking;
     }
 
     /**
@@ -105,23 +245,214 @@ public class HeapFile implements DbFile {
      */
     public int numPages() {
         // TODO: some code goes here; MAY DONE
-        return (int) f.length() / BufferPool.getPageSize();
+        int pages = (int) (f.length() / BufferPool.getPageSize());
+        int from = bulkLoadFrom;
+        return from >= 0 ? Math.min(pages, from) : pages;
+    }
+
+    /**
+     * Reserve the end of the file for a bulk load (see {@link HeapFileLoader}).
+     * Until {@link #endBulkLoad} or {@link #abortBulkLoad}, the pages the
+     * loader writes are hidden from numPages, and inserts that need a new
+     * page wait.
+     *
+     * @return the page number the loader should start writing at
+     * @throws DbException if another bulk load of this file is in progress
+     */
+    synchronized int beginBulkLoad() throws DbException {
+        if (bulkLoadFrom >= 0) {
+            throw new DbException("a bulk load of " + f.getName() + " is already in progress");
+        }
+        bulkLoadFrom = numPages();
+        return bulkLoadFrom;
+    }
+
+    /**
+     * Publish the pages written by a bulk load as part of the table. The
+     * loader must hold them locked for tid already. The empty slots of the
+     * last page are offered to inserts only once tid has released it.
+     *
+     * @param lastPageFreeSlots number of empty slots on the last page loaded,
+     *                          all other loaded pages being full
+     */
+    synchronized void endBulkLoad(TransactionId tid, int lastPageFreeSlots) {
+        int from = bulkLoadFrom;
+        bulkLoadFrom = -1;
+        int pages = numPages();
+        for (int p = from; p < pages; p++) {
+            freeSpace.update(p, 0);
+        }
+        if (lastPageFreeSlots > 0) {
+            loadedPages.put(new HeapPageId(getId(), pages - 1), tid);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Throw away the pages written by a failed bulk load.
+     */
+    synchronized void abortBulkLoad() throws IOException {
+        int from = bulkLoadFrom;
+        try (FileHandleCache.Handle h = FileHandleCache.getInstance().acquire(f)) {
+            h.channel().truncate((long) from * BufferPool.getPageSize());
+        } finally {
+            if (mapped != null) {
+                // never touch the truncated region through the old mapping
+                mapped = new MappedDataFile(f);
+            }
+            bulkLoadFrom = -1;
+            notifyAll();
+        }
     }
 
     // see DbFile.java for javadocs
+    // the free-space map sends the insert to a page that probably has room;
+    // a new page is appended only when every page is known to be full. With
+    // record locking, the insert also needs an empty slot it can lock without
+    // waiting: a slot emptied by a transaction that has not committed yet
+    // stays locked, since an abort would put the deleted record back.
+    // The slot is taken only once its old (empty) version has been kept for
+    // snapshot readers.
     public List<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
-        // TODO: some code goes here
-        return null;
-        // not necessary for lab1
+        // TODO: some code goes here; MAY DONE
+        BufferPool bp = Database.getBufferPool();
+        while (true) {
+            int pages = numPages();
+            int pgNo = freeSpace.findPage(pages);
+            while (pgNo >= 0 && pgNo < pages) {
+                HeapPageId pid = new HeapPageId(getId(), pgNo);
+                boolean lockedBefore = bp.holdsLock(tid, pid);
+                HeapPage page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+                if (page.getNumUnusedSlots() == 0) {
+                    freeSpace.update(pgNo, 0);
+                    // nothing was read from or written to the page, so the
+                    // lock taken just to look at it need not be held to the end
+                    if (!lockedBefore && !recordLocking) {
+                        bp.unsafeReleasePage(tid, pid);
+                    }
+                    pgNo = nextPageWithRoom(pgNo, pages);
+                    continue;
+                }
+                IntPredicate take = slot -> {
+                    RecordId rid = new RecordId(pid, slot);
+                    if (recordLocking && !bp.tryLockRecord(tid, rid)) {
+                        return false;
+                    }
+                    bp.getVersionStore().recordWrite(tid, rid, null);
+                    return true;
+                };
+                if (page.insertTuple(t, take)) {
+                    if (recordLocking) {
+                        bp.recordBeforeImage(tid, t.getRecordId(), null);
+                    }
+                } else {
+                    // every empty slot is reserved by another transaction
+                    pgNo = nextPageWithRoom(pgNo, pages);
+                    continue;
+                }
+                freeSpace.update(pgNo, page.getNumUnusedSlots());
+                List<Page> modified = new ArrayList<>();
+                modified.add(page);
+                return modified;
+            }
+            appendEmptyPage(tid, pages);
+        }
+    }
+
+    private int nextPageWithRoom(int pgNo, int pages) {
+        do {
+            pgNo++;
+        } while (pgNo < pages && freeSpace.isFull(pgNo));
+        return pgNo;
+    }
+
+    // grow the file by one empty page, unless another inserter already did
+    // since the caller found the file to have seenPages pages
+    private synchronized void appendEmptyPage(TransactionId tid, int seenPages) throws IOException {
+        while (bulkLoadFrom >= 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for a bulk load");
+            }
+        }
+        if (releaseLoadedPages(tid) || numPages() > seenPages) {
+            return;
+        }
+        HeapPageId pid = new HeapPageId(getId(), numPages());
+        writePage(new HeapPage(pid, HeapPage.createEmptyPageData()));
+    }
+
+    // offer the last pages of bulk loads to the inserts of tid, once their
+    // transactions have completed or if tid loaded them; true if there was any
+    private synchronized boolean releaseLoadedPages(TransactionId tid) {
+        BufferPool bp = Database.getBufferPool();
+        boolean released = false;
+        for (Iterator<Map.Entry<HeapPageId, TransactionId>> it = loadedPages.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<HeapPageId, TransactionId> e = it.next();
+            if (e.getValue().equals(tid) || !bp.holdsLock(e.getValue(), e.getKey())) {
+                freeSpace.update(e.getKey().getPageNumber(), 1);
+                it.remove();
+                released = true;
+            }
+        }
+        return released;
     }
 
     // see DbFile.java for javadocs
     public List<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
-        // TODO: some code goes here
-        return null;
-        // not necessary for lab1
+        // TODO: some code goes here; MAY DONE
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != getId()) {
+            throw new DbException("tuple is not a member of this file");
+        }
+        int pgNo = rid.getPageId().getPageNumber();
+        if (pgNo < 0 || pgNo >= numPages()) {
+            throw new DbException("tuple is on page " + pgNo + ", which does not exist");
+        }
+        BufferPool bp = Database.getBufferPool();
+        if (recordLocking) {
+            bp.lockRecord(tid, rid, Permissions.READ_WRITE);
+        }
+        HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(getId(), pgNo), Permissions.READ_WRITE);
+        Tuple stored = page.getTuple(rid.getTupleNumber());
+        if (stored == null) {
+            throw new DbException("tuple slot is already empty");
+        }
+        Tuple before = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++) {
+            before.setField(i, stored.getField(i));
+        }
+        before.setRecordId(rid);
+        bp.getVersionStore().recordWrite(tid, rid, before);
+        page.deleteTuple(t);
+        if (recordLocking) {
+            bp.recordBeforeImage(tid, rid, before);
+        }
+        freeSpace.update(pgNo, page.getNumUnusedSlots());
+        List<Page> modified = new ArrayList<>();
+        modified.add(page);
+        return modified;
+    }
+
+    /**
+     * Undo a change tid made to a record, by putting back the contents the
+     * record had before (see {@link BufferPool#recordBeforeImage}).
+     *
+     * @param before the record to put back, or null to empty its slot again
+     * @return the page holding the record
+     */
+    Page restoreRecord(TransactionId tid, RecordId rid, Tuple before)
+            throws DbException, TransactionAbortedException {
+        int pgNo = rid.getPageId().getPageNumber();
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(getId(), pgNo), Permissions.READ_WRITE);
+        page.restoreSlot(rid.getTupleNumber(), before);
+        freeSpace.update(pgNo, page.getNumUnusedSlots());
+        return page;
     }
 
     // see DbFile.java for javadocs
@@ -130,67 +461,96 @@ public class HeapFile implements DbFile {
         return new HeapFileIterator(this, tid);
     }
 
+    /**
+     * Iterates over the tuples of a HeapFile page by page. Pages are fetched
+     * through the buffer pool, and the pages ahead of a sequential scan are
+     * prefetched in the background (see {@link ReadAhead}). With record
+     * locking, each tuple is locked before it is returned. A transaction with
+     * a snapshot locks nothing, and sees each page as of its snapshot.
+     */
     private static final class HeapFileIterator implements DbFileIterator {
-        private HeapFile heapF;
-        private TupleDesc td;
-        private FileInputStream fis;
-        private int page_no = 0;
-        private Iterator<Tuple> it;
-        private TransactionId tid;
-        private boolean opened;
+        private final HeapFile heapF;
+        private final TransactionId tid;
+        private final ReadAhead readAhead;
+        private int pageNo = 0;
+        private Iterator<Tuple> it = null;
+        private Tuple next = null;
+        private boolean snapshot = false;
 
         public HeapFileIterator(HeapFile heapF, TransactionId tid) {
             this.heapF = heapF;
             this.tid = tid;
-
+            this.readAhead = new ReadAhead(n -> new HeapPageId(heapF.getId(), n), heapF::numPages);
         }
 
-        private void readPage() {
-            HeapPageId pid = new HeapPageId(heapF.getId(), page_no++); 
-            HeapPage f = (HeapPage) heapF.readPage(pid);
-            it = f.iterator();
+        private Iterator<Tuple> readPage(int n) throws DbException, TransactionAbortedException {
+            readAhead.access(n);
+            HeapPageId pid = new HeapPageId(heapF.getId(), n);
+            BufferPool bp = Database.getBufferPool();
+            if (snapshot) {
+                HeapPage page = (HeapPage) bp.getPageUnlocked(pid);
+                return bp.getVersionStore().visibleTuples(tid, pid, page.slotTuples()).iterator();
+            }
+            HeapPage page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_ONLY);
+            return page.iterator();
         }
 
-        public void open() {
-            opened = true;
-            page_no = 0;
-            readPage();
+        public void open() throws DbException, TransactionAbortedException {
+            pageNo = 0;
+            readAhead.reset();
+            it = Collections.emptyIterator();
+            next = null;
+            snapshot = Database.getBufferPool().getVersionStore().hasSnapshot(tid);
         }
 
-        public boolean hasNext() {
-            if (! opened) {
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (it == null) {
                 return false;
             }
-            if (heapF.numPages() > page_no + 1) {
-                return true;
+            while (next == null) {
+                // skip over empty pages
+                while (!it.hasNext()) {
+                    if (pageNo >= heapF.numPages()) {
+                        return false;
+                    }
+                    it = readPage(pageNo++);
+                }
+                next = it.next();
+                if (heapF.recordLocking && !snapshot) {
+                    next = lock(next);
+                }
             }
-            return it.hasNext();
+            return true;
         }
 
-        public Tuple next() {
-            if (! opened) {
-                throw new NoSuchElementException();
-            }
+        // lock the record t came from, and return what it holds now that
+        // no one else can change it, or null if it was deleted meanwhile
+        private Tuple lock(Tuple t) throws DbException, TransactionAbortedException {
+            RecordId rid = t.getRecordId();
+            BufferPool bp = Database.getBufferPool();
+            bp.lockRecord(tid, rid, Permissions.READ_ONLY);
+            HeapPage page = (HeapPage) bp.getPage(tid, rid.getPageId(), Permissions.READ_ONLY);
+            return page.getTuple(rid.getTupleNumber());
+        }
 
-            if (it.hasNext()) {
-                return it.next();
+        public Tuple next() throws DbException, TransactionAbortedException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
             }
-            readPage();
-
-            return it.next();
-
+            Tuple t = next;
+            next = null;
+            return t;
         }
 
-        public void rewind() {
-            page_no = 0;
-            readPage();
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
         }
-        
+
         public void close() {
-            page_no = 0;
-            opened = false;
+            it = null;
+            next = null;
         }
     }
 
 }
-
@@ -109,6 +109,8 @@ public class HeapFileEncoder {
         int nheaderbits = nheaderbytes * 8;
 
         BufferedReader br = new BufferedReader(new FileReader(inFile));
+        // the path may name a file deleted since its channel was cached
+        FileHandleCache.getInstance().close(outFile);
         FileOutputStream os = new FileOutputStream(outFile);
 
         // our numbers probably won't be much larger than 1024 digits
@@ -0,0 +1,175 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * HeapFileLoader appends tuples to a HeapFile in bulk. Instead of inserting
+ * them one at a time through the buffer pool, it packs them into full pages
+ * in memory and writes the pages to the end of the file sequentially, many
+ * pages per write.
+ * <p>
+ * Every batch of pages is logged before it is written: the log records of a
+ * batch are written and forced together (see {@link LogFile#logNewPages}),
+ * then the batch goes to the data file with one positional write. The loaded
+ * pages stay hidden from readers and inserters of the file until
+ * {@link #finish()} publishes them; {@link #abort()} truncates them away.
+ * Once published, the pages are locked by the loading transaction like
+ * pages it changed in the buffer pool: if it aborts, they are rolled back
+ * to the empty pages they were before.
+ * <p>
+ * Usage:
+ * <pre>
+ *     HeapFileLoader loader = new HeapFileLoader(tid, heapFile);
+ *     try {
+ *         while (...) loader.add(t);
+ *         loader.finish();
+ *     } catch (...) {
+ *         loader.abort();
+ *     }
+ * </pre>
+ * A loader is used by one thread.
+ */
+public class HeapFileLoader {
+
+    /**
+     * Number of pages written (and logged) at once.
+     */
+    public static final int PAGES_PER_BATCH = 64;
+
+    private final TransactionId tid;
+    private final HeapFile file;
+    private final TupleDesc td;
+    private final int pageSize;
+    private final int numSlots;
+    private final int headerSize;
+    private final int tupleSize;
+
+    private final byte[] batch;
+    private final ByteArrayOutputStream tupleBytes;
+    private final DataOutputStream tupleOut;
+    private final int firstPage;
+    private int pagesWritten = 0;   // pages of this load already on disk
+    private int pagesInBatch = 0;   // full pages waiting in batch
+    private int slot = 0;           // next slot on the page being filled
+    private long count = 0;
+    private boolean done = false;
+
+    /**
+     * Start a bulk load into file on behalf of tid.
+     *
+     * @throws DbException if another bulk load of the file is in progress
+     */
+    public HeapFileLoader(TransactionId tid, HeapFile file) throws DbException {
+        this.tid = tid;
+        this.file = file;
+        this.td = file.getTupleDesc();
+        this.pageSize = BufferPool.getPageSize();
+        this.numSlots = HeapPage.numSlots(td);
+        this.headerSize = HeapPage.headerSize(numSlots);
+        this.tupleSize = td.getSize();
+        this.batch = new byte[PAGES_PER_BATCH * pageSize];
+        this.tupleBytes = new ByteArrayOutputStream(tupleSize);
+        this.tupleOut = new DataOutputStream(tupleBytes);
+        this.firstPage = file.beginBulkLoad();
+    }
+
+    /**
+     * Append a tuple. Its record id is set to where it will be stored.
+     *
+     * @throws DbException if the tuple does not match the schema of the file
+     */
+    public void add(Tuple t) throws DbException, IOException {
+        if (done) {
+            throw new IllegalStateException("bulk load already finished");
+        }
+        if (t.getTupleDesc().numFields() != td.numFields()) {
+            throw new DbException("tupledesc is mismatch");
+        }
+
+        tupleBytes.reset();
+        for (int i = 0; i < td.numFields(); i++) {
+            Field f = t.getField(i);
+            if (f.getType() != td.getFieldType(i)) {
+                throw new DbException("tupledesc is mismatch");
+            }
+            f.serialize(tupleOut);
+        }
+        tupleOut.flush();
+
+        int page = pagesInBatch * pageSize;
+        System.arraycopy(tupleBytes.toByteArray(), 0, batch, page + headerSize + slot * tupleSize, tupleSize);
+        batch[page + slot / 8] |= (byte) (1 << (slot % 8));
+        t.setRecordId(new RecordId(new HeapPageId(file.getId(), firstPage + pagesWritten + pagesInBatch), slot));
+        count++;
+
+        if (++slot == numSlots) {
+            slot = 0;
+            if (++pagesInBatch == PAGES_PER_BATCH) {
+                writeBatch(pagesInBatch);
+            }
+        }
+    }
+
+    /**
+     * Write out the last, possibly partly filled, page and make all loaded
+     * pages part of the file, locked for writing by the loading transaction.
+     *
+     * @return the number of tuples loaded
+     * @throws TransactionAbortedException if the pages could not be locked
+     */
+    public long finish() throws IOException, TransactionAbortedException {
+        if (done) {
+            return count;
+        }
+        int partial = slot > 0 ? 1 : 0;
+        writeBatch(pagesInBatch + partial);
+        for (int p = firstPage; p < firstPage + pagesWritten; p++) {
+            Database.getBufferPool().lockWrittenPage(tid, new HeapPageId(file.getId(), p));
+        }
+        done = true;
+        file.endBulkLoad(tid, partial == 1 ? numSlots - slot : 0);
+        return count;
+    }
+
+    /**
+     * Give up the load and remove the pages it has written so far.
+     */
+    public void abort() throws IOException {
+        if (!done) {
+            done = true;
+            file.abortBulkLoad();
+        }
+    }
+
+    // log the first n pages of the batch, then write them with one call
+    private void writeBatch(int n) throws IOException {
+        if (n == 0) {
+            return;
+        }
+        int start = firstPage + pagesWritten;
+        List<Page> pages = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            ByteBuffer data = ByteBuffer.wrap(batch, i * pageSize, pageSize).slice();
+            pages.add(new HeapPage(new HeapPageId(file.getId(), start + i), data));
+        }
+        Database.getLogFile().logNewPages(tid, pages);
+
+        try (FileHandleCache.Handle h = FileHandleCache.getInstance().acquire(file.getFile())) {
+            h.writeFully(ByteBuffer.wrap(batch, 0, n * pageSize), (long) start * pageSize);
+        }
+        pagesWritten += n;
+        pagesInBatch = 0;
+        Arrays.fill(batch, 0, n * pageSize, (byte) 0);
+    }
+}
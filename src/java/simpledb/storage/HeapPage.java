@@ -4,14 +4,14 @@ import simpledb.common.Catalog;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
- 
-
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
-import java.util.ArrayList;
+import java.util.function.IntPredicate;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and
@@ -24,13 +24,29 @@ public class HeapPage implements Page {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte[] header;
-    final Tuple[] tuples;
     final int numSlots;
+    final int headerSize;
+    final int tupleSize;
+
+    // The bytes of this page, in on-disk format. Until the page is first
+    // modified this is the buffer it was created from, which may be shared
+    // (a caller's array, a slice of a mapped file) and is never written.
+    // The first modification switches it to the private array own.
+    private volatile ByteBuffer data;
+    private byte[] own = null;
+
+    // tuple objects handed out so far, created on first access and decoding
+    // their fields lazily from data; null for slots not accessed yet
+    final Tuple[] tuples;
 
+    // the page as of the last commit, captured on the first modification
+    // after it; null while the page is unchanged since, so reading a page
+    // costs no copy
     byte[] oldData;
     private final Byte oldDataLock = (byte) 0;
 
+    private volatile TransactionId dirtier = null;
+
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
      * The format of a HeapPage is a set of header bytes indicating
@@ -43,36 +59,38 @@ public class HeapPage implements Page {
      * <p>
      * ceiling(no. tuple slots / 8)
      * <p>
-     * 
+     * The array is not copied, but it is never modified either: the page
+     * makes a private copy the first time it is changed.
      *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage from a buffer holding the bytes of the page, such as
+     * a slice of a run of pages read at once. Nothing is decoded up front:
+     * tuples are read straight out of the buffer as they are accessed, so
+     * the buffer must stay unchanged while the page refers to it; in
+     * particular it must not be a memory mapping of a file that is written
+     * to. The page never writes to it.
+     *
+     * @param id   the id of this page
+     * @param data a buffer whose first BufferPool.getPageSize() bytes are the
+     *             page, in the format described above
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i = 0; i < header.length; i++)
-            header[i] = dis.readByte();
-
-        System.out.printf("# %d ==> %d#\n", numSlots, header.length);
-
-        tuples = new Tuple[numSlots];
-        try {
-            // allocate and read the actual records of this page
-            for (int i = 0; i < tuples.length; i++)
-                tuples[i] = readNextTuple(dis, i);
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
-        }
-        dis.close();
-
-        setBeforeImage();
+        this.headerSize = getHeaderSize();
+        this.tupleSize = td.getSize();
+        this.data = data;
+        this.tuples = new Tuple[numSlots];
     }
 
     /**
@@ -82,8 +100,21 @@ public class HeapPage implements Page {
      */
     private int getNumTuples() {
         // TODO: some code goes here; 
+        return numSlots(td);
+    }
+
+    /**
+     * @return the number of tuple slots on a page of a table with schema td
+     */
+    static int numSlots(TupleDesc td) {
         return  (int)Math.floor((BufferPool.getPageSize() * 8 * 1.0) / ( td.getSize()*8 + 1));
+    }
 
+    /**
+     * @return the number of header bytes on a page with numSlots slots
+     */
+    static int headerSize(int numSlots) {
+        return  (int)Math.ceil(numSlots * 1.0 / 8);
     }
 
     /**
@@ -93,8 +124,7 @@ public class HeapPage implements Page {
      */
     private int getHeaderSize() {
         // TODO: some code goes here; MAY DONE
-        return  (int)Math.ceil(getNumTuples() * 1.0 / 8);
-
+        return headerSize(getNumTuples());
     }
 
     /**
@@ -107,6 +137,10 @@ public class HeapPage implements Page {
             synchronized (oldDataLock) {
                 oldDataRef = oldData;
             }
+            if (oldDataRef == null) {
+                // not modified since the last commit
+                oldDataRef = getPageData();
+            }
             return new HeapPage(pid, oldDataRef);
         } catch (IOException e) {
             e.printStackTrace();
@@ -116,9 +150,13 @@ public class HeapPage implements Page {
         return null;
     }
 
+    /**
+     * Make the current contents the before image. They are only copied when
+     * the page is next modified.
+     */
     public void setBeforeImage() {
         synchronized (oldDataLock) {
-            oldData = getPageData().clone();
+            oldData = null;
         }
     }
 
@@ -132,37 +170,52 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Get the tuple stored in slot slotId. The tuple is created on first
+     * access and its fields are decoded from the page only when asked for.
+     *
+     * @return the tuple, or null if the slot is empty
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
+    private synchronized Tuple tuple(int slotId) {
         if (!isSlotUsed(slotId)) {
-            for (int i = 0; i < td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
             return null;
         }
+        Tuple t = tuples[slotId];
+        if (t == null) {
+            t = new Tuple(td, data, slotOffset(slotId));
+            t.setRecordId(new RecordId(pid, slotId));
+            tuples[slotId] = t;
+        }
+        return t;
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
+    private int slotOffset(int slotId) {
+        return headerSize + slotId * tupleSize;
+    }
+
+    /**
+     * Capture the before image if this is the first modification since the
+     * last commit, and switch to a private, writable copy of the page bytes
+     * before the first modification ever. Tuples handed out so far still
+     * point into the original buffer, which the page no longer controls, so
+     * they are decoded first.
+     */
+    private void ensureWritable() {
+        synchronized (oldDataLock) {
+            if (oldData == null) {
+                oldData = getPageData();
             }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
         }
-
-        return t;
+        if (own != null) {
+            return;
+        }
+        for (Tuple t : tuples) {
+            if (t != null) {
+                t.materialize();
+            }
+        }
+        byte[] copy = getPageData();
+        own = copy;
+        data = ByteBuffer.wrap(copy);
     }
 
     /**
@@ -177,64 +230,13 @@ public class HeapPage implements Page {
      * @see #HeapPage
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i = 0; i < tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j = 0; j < td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        byte[] out = new byte[BufferPool.getPageSize()];
+        ByteBuffer src = data.duplicate();
+        src.clear();
+        // a shorter buffer only holds the used part of the page; the rest is
+        // zero padding
+        src.get(out, 0, Math.min(src.remaining(), out.length));
+        return out;
     }
 
     /**
@@ -259,9 +261,26 @@ public class HeapPage implements Page {
      * @throws DbException if this tuple is not on this page, or tuple slot is
      *                     already empty.
      */
-    public void deleteTuple(Tuple t) throws DbException {
-        // TODO: some code goes here
-        // not necessary for lab1
+    public synchronized void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId())) {
+            throw new DbException("tuple is not on page " + pid);
+        }
+        int slot = rid.getTupleNumber();
+        if (slot < 0 || slot >= numSlots || !isSlotUsed(slot)) {
+            throw new DbException("slot " + slot + " of page " + pid + " is already empty");
+        }
+
+        ensureWritable();
+        // the slot is about to be zeroed, so the tuple object for it must
+        // not depend on its bytes any more
+        Tuple old = tuples[slot];
+        if (old != null) {
+            old.materialize();
+            tuples[slot] = null;
+        }
+        Arrays.fill(own, slotOffset(slot), slotOffset(slot) + tupleSize, (byte) 0);
+        markSlotUsed(slot, false);
     }
 
     /**
@@ -272,9 +291,97 @@ public class HeapPage implements Page {
      * @throws DbException if the page is full (no empty slots) or tupledesc
      *                     is mismatch.
      */
-    public void insertTuple(Tuple t) throws DbException {
-        // TODO: some code goes here
-        // not necessary for lab1
+    public synchronized void insertTuple(Tuple t) throws DbException {
+        if (!insertTuple(t, slot -> true)) {
+            throw new DbException("page " + pid + " is full");
+        }
+    }
+
+    /**
+     * Add the tuple to the first empty slot that canUse accepts. canUse is
+     * called with the page locked, and must not block.
+     *
+     * @return false if there was no such slot
+     * @throws DbException if tupledesc is mismatch
+     */
+    synchronized boolean insertTuple(Tuple t, IntPredicate canUse) throws DbException {
+        TupleDesc ttd = t.getTupleDesc();
+        if (ttd.numFields() != td.numFields()) {
+            throw new DbException("tupledesc is mismatch");
+        }
+        for (int i = 0; i < td.numFields(); i++) {
+            if (ttd.getFieldType(i) != td.getFieldType(i)) {
+                throw new DbException("tupledesc is mismatch");
+            }
+        }
+        int slot = 0;
+        while (slot < numSlots && (isSlotUsed(slot) || !canUse.test(slot))) {
+            slot++;
+        }
+        if (slot == numSlots) {
+            return false;
+        }
+        writeSlot(slot, t);
+        return true;
+    }
+
+    /**
+     * Put a slot back the way it was: empty if before is null, holding
+     * before otherwise. Used to undo a change to a single record.
+     */
+    synchronized void restoreSlot(int slot, Tuple before) throws DbException {
+        ensureWritable();
+        Tuple old = tuples[slot];
+        if (old != null) {
+            old.materialize();
+            tuples[slot] = null;
+        }
+        if (before == null) {
+            Arrays.fill(own, slotOffset(slot), slotOffset(slot) + tupleSize, (byte) 0);
+            markSlotUsed(slot, false);
+        } else {
+            writeSlot(slot, before);
+        }
+    }
+
+    private void writeSlot(int slot, Tuple t) throws DbException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(tupleSize);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int i = 0; i < td.numFields(); i++) {
+                t.getField(i).serialize(dos);
+            }
+            dos.flush();
+        } catch (IOException e) {
+            throw new DbException("could not serialize tuple: " + e.getMessage());
+        }
+
+        ensureWritable();
+        System.arraycopy(baos.toByteArray(), 0, own, slotOffset(slot), tupleSize);
+        markSlotUsed(slot, true);
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /**
+     * @return the tuples on this page by slot, null for empty slots; they
+     *         are decoded, so they stay valid while the page changes
+     */
+    synchronized Tuple[] slotTuples() {
+        Tuple[] slots = new Tuple[numSlots];
+        for (int i = 0; i < numSlots; i++) {
+            slots[i] = tuple(i);
+            if (slots[i] != null) {
+                slots[i].materialize();
+            }
+        }
+        return slots;
+    }
+
+    /**
+     * @return the tuple in slot slotId, or null if the slot is empty
+     */
+    Tuple getTuple(int slotId) {
+        return tuple(slotId);
     }
 
     /**
@@ -282,17 +389,14 @@ public class HeapPage implements Page {
      * that did the dirtying
      */
     public void markDirty(boolean dirty, TransactionId tid) {
-        // TODO: some code goes here
-        // not necessary for lab1
+        this.dirtier = dirty ? tid : null;
     }
 
     /**
      * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
      */
     public TransactionId isDirty() {
-        // TODO: some code goes here
-        // Not necessary for lab1
-        return null;      
+        return dirtier;
     }
 
     /**
@@ -300,7 +404,7 @@ public class HeapPage implements Page {
      */
     public int getNumUnusedSlots() {
         int count = 0;
-        for (int i = 0; i < tuples.length; i++) {
+        for (int i = 0; i < numSlots; i++) {
             if (! isSlotUsed(i)) {
                 count ++;
             }
@@ -316,16 +420,17 @@ public class HeapPage implements Page {
         // TODO: some code goes here; MAY DONE
         int idx = i / 8;
         int bit = i % 8;
-        // System.out.printf("%d %d\n", i, header[idx]);
-        return ((header[idx] >> bit) & 1) == 1;
+        return ((data.get(idx) >> bit) & 1) == 1;
     }
 
     /**
      * Abstraction to fill or clear a slot on this page.
      */
     private void markSlotUsed(int i, boolean value) {
-        // TODO: some code goes here
-        // not necessary for lab1
+        ensureWritable();
+        int idx = i / 8;
+        int mask = 1 << (i % 8);
+        own[idx] = (byte) (value ? own[idx] | mask : own[idx] & ~mask);
     }
 
     /**
@@ -334,12 +439,38 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // TODO: some code goes here; MAY DONE
-        ArrayList<Tuple> filledTuples = new ArrayList<Tuple>();
-        for(int i=0;i<numSlots;++i){
-            if(isSlotUsed(i)){
-                filledTuples.add(tuples[i]);
+        // only the slot numbers are collected up front; tuples are created
+        // as the iterator reaches them
+        final int[] used = new int[numSlots - getNumUnusedSlots()];
+        int n = 0;
+        for (int i = 0; i < numSlots && n < used.length; ++i) {
+            if (isSlotUsed(i)) {
+                used[n++] = i;
             }
         }
-        return filledTuples.iterator();
+        final int count = n;
+        return new Iterator<Tuple>() {
+            private int pos = 0;
+            private Tuple next = null;
+
+            @Override
+            public boolean hasNext() {
+                // skip slots emptied since the iterator was created
+                while (next == null && pos < count) {
+                    next = tuple(used[pos++]);
+                }
+                return next != null;
+            }
+
+            @Override
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = next;
+                next = null;
+                return t;
+            }
+        };
     }
-}
\ No newline at end of file
+}
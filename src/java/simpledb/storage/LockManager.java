@@ -0,0 +1,532 @@
+package simpledb.storage;
+
+import simpledb.common.DeadlockException;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * LockManager implements the locks the buffer pool hands out to
+ * transactions: shared locks for reading, exclusive locks for writing, held
+ * until the transaction completes (strict two-phase locking).
+ * <p>
+ * What is locked is normally a page ({@link PageId}). Tables that use record
+ * locking (see {@link HeapFile#setRecordLocking}) lock individual records
+ * ({@link RecordId}) instead, and announce them with intention locks on the
+ * page and on the table ({@link #table}), following the usual multiple
+ * granularity protocol; SIX is not supported and is granted as X.
+ * <p>
+ * Every locked object has its own lock state with the current holders and a
+ * FIFO queue of waiting requests. A request that cannot be granted is queued
+ * and its thread parks; whoever releases a lock grants the requests at the
+ * head of the queue that have become compatible and unparks their threads.
+ * A transaction upgrading its shared lock to an exclusive one goes to the
+ * front of the queue, since everything behind it would otherwise wait for a
+ * lock it already holds.
+ * <p>
+ * Deadlocks are found by a background detector thread, which runs while any
+ * request is waiting. It builds the wait-for graph from the lock states and,
+ * for every cycle, aborts the waiting requests of the youngest transaction
+ * in it, which then get a {@link DeadlockException}. The graph is assembled
+ * one page at a time, so it may contain an edge that has just gone away; the
+ * worst that can happen then is an unnecessary abort.
+ *
+ * @Threadsafe
+ */
+public class LockManager {
+
+    public enum LockMode {
+        INTENTION_SHARED, INTENTION_EXCLUSIVE, SHARED, EXCLUSIVE;
+
+        boolean conflicts(LockMode other) {
+            switch (this) {
+                case INTENTION_SHARED:
+                    return other == EXCLUSIVE;
+                case INTENTION_EXCLUSIVE:
+                    return other == SHARED || other == EXCLUSIVE;
+                case SHARED:
+                    return other == INTENTION_EXCLUSIVE || other == EXCLUSIVE;
+                default:
+                    return true;
+            }
+        }
+
+        /**
+         * @return true if holding this mode implies holding other
+         */
+        boolean covers(LockMode other) {
+            return this == other || this == EXCLUSIVE || other == INTENTION_SHARED;
+        }
+
+        /**
+         * @return the weakest mode covering both this and other
+         */
+        LockMode combine(LockMode other) {
+            if (covers(other)) {
+                return this;
+            }
+            if (other.covers(this)) {
+                return other;
+            }
+            return EXCLUSIVE;
+        }
+    }
+
+    private static final class TableLock {
+        final int tableId;
+
+        TableLock(int tableId) {
+            this.tableId = tableId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof TableLock && ((TableLock) o).tableId == tableId;
+        }
+
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(tableId);
+        }
+
+        @Override
+        public String toString() {
+            return "table " + tableId;
+        }
+    }
+
+    /**
+     * @return the object to lock to lock a whole table
+     */
+    public static Object table(int tableId) {
+        return new TableLock(tableId);
+    }
+
+    /**
+     * Default time between two runs of the deadlock detector.
+     */
+    public static final long DEFAULT_DETECTION_INTERVAL_MS = 10;
+
+    private static final class LockState {
+        final Map<TransactionId, LockMode> holders = new HashMap<>();
+        final ArrayDeque<Request> queue = new ArrayDeque<>();
+        // set once the state has been removed from the lock table; a
+        // thread that still finds it must look the page up again
+        boolean retired = false;
+    }
+
+    private static final class Request {
+        final TransactionId tid;
+        final Object target;
+        final LockMode mode;
+        final LockState state;
+        final Thread thread = Thread.currentThread();
+        // guarded by the monitor of state
+        boolean granted = false;
+        boolean aborted = false;
+
+        Request(TransactionId tid, Object target, LockMode mode, LockState state) {
+            this.tid = tid;
+            this.target = target;
+            this.mode = mode;
+            this.state = state;
+        }
+    }
+
+    private final ConcurrentHashMap<Object, LockState> locks = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<TransactionId, Set<Object>> held = new ConcurrentHashMap<>();
+    private final Set<Request> waiting = ConcurrentHashMap.newKeySet();
+    private final long detectionIntervalNanos;
+    private final AtomicLong deadlocks = new AtomicLong();
+    private Thread detector = null;     // guarded by this
+
+    public LockManager() {
+        this(DEFAULT_DETECTION_INTERVAL_MS);
+    }
+
+    /**
+     * @param detectionIntervalMs time between two runs of the deadlock
+     *                            detector while requests are waiting
+     */
+    public LockManager(long detectionIntervalMs) {
+        this.detectionIntervalNanos = TimeUnit.MILLISECONDS.toNanos(detectionIntervalMs);
+    }
+
+    /**
+     * Acquire a lock on target (a PageId, a RecordId or a {@link #table})
+     * for tid, blocking until it is granted. Asking for a mode covered by
+     * the one tid already holds returns at once; asking for a stronger one
+     * upgrades the lock.
+     *
+     * @throws DeadlockException           if tid was chosen as the victim of a
+     *                                     deadlock while waiting
+     * @throws TransactionAbortedException if the thread was interrupted while
+     *                                     waiting
+     */
+    public void acquire(TransactionId tid, Object target, LockMode mode)
+            throws DeadlockException, TransactionAbortedException {
+        Request req;
+        while (true) {
+            LockState state = locks.computeIfAbsent(target, k -> new LockState());
+            synchronized (state) {
+                if (state.retired) {
+                    continue;
+                }
+                LockMode current = state.holders.get(tid);
+                if (current != null && current.covers(mode)) {
+                    return;
+                }
+                boolean upgrade = current != null;
+                LockMode wanted = upgrade ? current.combine(mode) : mode;
+                if ((upgrade || state.queue.isEmpty()) && compatible(state, tid, wanted)) {
+                    grant(state, tid, target, wanted);
+                    return;
+                }
+                req = new Request(tid, target, wanted, state);
+                if (upgrade) {
+                    state.queue.addFirst(req);
+                } else {
+                    state.queue.addLast(req);
+                }
+            }
+            break;
+        }
+
+        waiting.add(req);
+        startDetector();
+        try {
+            while (true) {
+                synchronized (req.state) {
+                    if (req.granted) {
+                        return;
+                    }
+                    if (req.aborted) {
+                        throw new DeadlockException();
+                    }
+                }
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    Thread.currentThread().interrupt();
+                    if (cancel(req)) {
+                        throw new TransactionAbortedException();
+                    }
+                }
+            }
+        } finally {
+            waiting.remove(req);
+            // leaves the queue if the thread is unwinding for any other reason
+            cancel(req);
+        }
+    }
+
+    /**
+     * Acquire a lock like {@link #acquire}, but only if that is possible
+     * without waiting.
+     *
+     * @return true if tid now holds the lock
+     */
+    public boolean tryAcquire(TransactionId tid, Object target, LockMode mode) {
+        while (true) {
+            LockState state = locks.computeIfAbsent(target, k -> new LockState());
+            synchronized (state) {
+                if (state.retired) {
+                    continue;
+                }
+                LockMode current = state.holders.get(tid);
+                if (current != null && current.covers(mode)) {
+                    return true;
+                }
+                boolean upgrade = current != null;
+                LockMode wanted = upgrade ? current.combine(mode) : mode;
+                if ((upgrade || state.queue.isEmpty()) && compatible(state, tid, wanted)) {
+                    grant(state, tid, target, wanted);
+                    return true;
+                }
+                if (state.holders.isEmpty() && state.queue.isEmpty()) {
+                    state.retired = true;
+                    locks.remove(target, state);
+                }
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Release the lock tid holds on target, if any, and grant it to the
+     * requests waiting for it.
+     */
+    public void release(TransactionId tid, Object target) {
+        LockState state = locks.get(target);
+        if (state == null) {
+            return;
+        }
+        List<Thread> wake;
+        synchronized (state) {
+            if (state.holders.remove(tid) == null) {
+                return;
+            }
+            Set<Object> targets = held.get(tid);
+            if (targets != null) {
+                targets.remove(target);
+            }
+            wake = grantWaiters(state, target);
+        }
+        wake.forEach(LockSupport::unpark);
+    }
+
+    /**
+     * Release all locks held by tid.
+     */
+    public void releaseAll(TransactionId tid) {
+        Set<Object> targets = held.remove(tid);
+        if (targets == null) {
+            return;
+        }
+        for (Object target : targets) {
+            release(tid, target);
+        }
+    }
+
+    /**
+     * @return true if tid holds a lock of any mode on target
+     */
+    public boolean holdsLock(TransactionId tid, Object target) {
+        Set<Object> targets = held.get(tid);
+        return targets != null && targets.contains(target);
+    }
+
+    /**
+     * @return the mode of the lock tid holds on target, or null
+     */
+    public LockMode lockMode(TransactionId tid, Object target) {
+        LockState state = locks.get(target);
+        if (state == null) {
+            return null;
+        }
+        synchronized (state) {
+            return state.holders.get(tid);
+        }
+    }
+
+    /**
+     * @return the pages tid holds locks (including intention locks) on
+     */
+    public Set<PageId> lockedPages(TransactionId tid) {
+        Set<Object> targets = held.get(tid);
+        Set<PageId> pages = new HashSet<>();
+        if (targets != null) {
+            for (Object target : targets) {
+                if (target instanceof PageId) {
+                    pages.add((PageId) target);
+                }
+            }
+        }
+        return pages;
+    }
+
+    /**
+     * @return the number of transactions aborted to break a deadlock
+     */
+    public long getDeadlockCount() {
+        return deadlocks.get();
+    }
+
+    // all of the following must be called with the monitor of state held
+
+    private static boolean compatible(LockState state, TransactionId tid, LockMode mode) {
+        for (Map.Entry<TransactionId, LockMode> h : state.holders.entrySet()) {
+            if (!h.getKey().equals(tid) && mode.conflicts(h.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void grant(LockState state, TransactionId tid, Object target, LockMode mode) {
+        state.holders.merge(tid, mode, LockMode::combine);
+        held.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(target);
+    }
+
+    // grant queued requests from the head for as long as they are compatible,
+    // and drop the state from the table once nothing refers to it; returns
+    // the threads to unpark
+    private List<Thread> grantWaiters(LockState state, Object target) {
+        List<Thread> wake = new ArrayList<>();
+        while (!state.queue.isEmpty()) {
+            Request r = state.queue.peekFirst();
+            if (!compatible(state, r.tid, r.mode)) {
+                break;
+            }
+            state.queue.pollFirst();
+            grant(state, r.tid, target, r.mode);
+            r.granted = true;
+            wake.add(r.thread);
+        }
+        if (state.holders.isEmpty() && state.queue.isEmpty()) {
+            state.retired = true;
+            locks.remove(target, state);
+        }
+        return wake;
+    }
+
+    /**
+     * Withdraw a request that is still waiting.
+     *
+     * @return false if the request had already been granted
+     */
+    private boolean cancel(Request req) {
+        List<Thread> wake;
+        synchronized (req.state) {
+            if (req.granted) {
+                return false;
+            }
+            if (!req.state.queue.remove(req)) {
+                return true;
+            }
+            // requests behind it may have been waiting only for it
+            wake = grantWaiters(req.state, req.target);
+        }
+        wake.forEach(LockSupport::unpark);
+        return true;
+    }
+
+    private synchronized void startDetector() {
+        if (detector == null) {
+            detector = new Thread(this::runDetector, "simpledb-deadlock-detector");
+            detector.setDaemon(true);
+            detector.start();
+        }
+    }
+
+    private void runDetector() {
+        while (true) {
+            LockSupport.parkNanos(this, detectionIntervalNanos);
+            synchronized (this) {
+                if (waiting.isEmpty()) {
+                    detector = null;
+                    return;
+                }
+            }
+            detectDeadlocks();
+        }
+    }
+
+    /**
+     * Build the wait-for graph of the waiting requests and break every cycle
+     * in it by aborting the youngest transaction of the cycle.
+     *
+     * @return the number of transactions aborted
+     */
+    int detectDeadlocks() {
+        Map<TransactionId, Set<TransactionId>> waitsFor = new HashMap<>();
+        for (Request r : waiting) {
+            synchronized (r.state) {
+                if (r.granted || r.aborted) {
+                    continue;
+                }
+                Set<TransactionId> blockers = waitsFor.computeIfAbsent(r.tid, k -> new HashSet<>());
+                for (Map.Entry<TransactionId, LockMode> h : r.state.holders.entrySet()) {
+                    if (!h.getKey().equals(r.tid) && r.mode.conflicts(h.getValue())) {
+                        blockers.add(h.getKey());
+                    }
+                }
+                // requests are granted in queue order, so r also waits for
+                // every request ahead of it, compatible or not
+                for (Request ahead : r.state.queue) {
+                    if (ahead == r) {
+                        break;
+                    }
+                    if (!ahead.tid.equals(r.tid)) {
+                        blockers.add(ahead.tid);
+                    }
+                }
+            }
+        }
+
+        int aborted = 0;
+        List<TransactionId> cycle;
+        while ((cycle = findCycle(waitsFor)) != null) {
+            TransactionId victim = cycle.get(0);
+            for (TransactionId t : cycle) {
+                if (t.getId() > victim.getId()) {
+                    victim = t;
+                }
+            }
+            abortWaiting(victim);
+            waitsFor.remove(victim);
+            for (Set<TransactionId> blockers : waitsFor.values()) {
+                blockers.remove(victim);
+            }
+            deadlocks.incrementAndGet();
+            aborted++;
+        }
+        return aborted;
+    }
+
+    private static List<TransactionId> findCycle(Map<TransactionId, Set<TransactionId>> waitsFor) {
+        Set<TransactionId> done = new HashSet<>();
+        List<TransactionId> path = new ArrayList<>();
+        for (TransactionId start : waitsFor.keySet()) {
+            List<TransactionId> cycle = findCycle(waitsFor, start, path, done);
+            if (cycle != null) {
+                return cycle;
+            }
+        }
+        return null;
+    }
+
+    // depth-first search from t; path holds the transactions on the current
+    // branch, done those from which no cycle can be reached
+    private static List<TransactionId> findCycle(Map<TransactionId, Set<TransactionId>> waitsFor,
+                                                 TransactionId t, List<TransactionId> path,
+                                                 Set<TransactionId> done) {
+        if (done.contains(t)) {
+            return null;
+        }
+        int onPath = path.indexOf(t);
+        if (onPath >= 0) {
+            return new ArrayList<>(path.subList(onPath, path.size()));
+        }
+        path.add(t);
+        for (TransactionId next : waitsFor.getOrDefault(t, Collections.emptySet())) {
+            List<TransactionId> cycle = findCycle(waitsFor, next, path, done);
+            if (cycle != null) {
+                return cycle;
+            }
+        }
+        path.remove(path.size() - 1);
+        done.add(t);
+        return null;
+    }
+
+    private void abortWaiting(TransactionId victim) {
+        for (Request r : waiting) {
+            if (!r.tid.equals(victim)) {
+                continue;
+            }
+            List<Thread> wake;
+            synchronized (r.state) {
+                if (r.granted || r.aborted) {
+                    continue;
+                }
+                r.aborted = true;
+                r.state.queue.remove(r);
+                wake = grantWaiters(r.state, r.target);
+            }
+            LockSupport.unpark(r.thread);
+            wake.forEach(LockSupport::unpark);
+        }
+    }
+}
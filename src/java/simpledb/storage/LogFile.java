@@ -2,15 +2,24 @@ package simpledb.storage;
 
 import simpledb.common.Database;
 import simpledb.common.Debug;
+import simpledb.index.BTreeInternalPage;
+import simpledb.index.BTreeLeafPage;
 import simpledb.transaction.TransactionId;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
+import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ExecutionException;
 
 /*
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -46,40 +55,84 @@ must not be declared synchronized and must begin with a block like:
  *
  * <ul>
  *
- * <li> The first long integer of the file represents the offset of the
- * last written checkpoint, or -1 if there are no checkpoints
+ * <li> The log is a sequence of bytes, and the log sequence number (LSN)
+ * of a record is its position in the sequence.  It is stored in fixed-size
+ * segment files, next to a control file that holds the LSN of the last
+ * written checkpoint (or -1 if there are no checkpoints) and the first LSN
+ * that is kept; see {@link LogSegments}.  Truncating the log deletes old
+ * segments, and does not change the LSN of any record.
  *
- * <li> All additional data in the log consists of log records.  Log
- * records are variable length.
+ * <li> All data in the log consists of log records.  Log records are
+ * variable length.
  *
  * <li> Each log record begins with an integer type and a long integer
  * transaction id.
  *
- * <li> Each log record ends with a long integer file offset representing
- * the position in the log file where the record began.
+ * <li> Each log record ends with a long integer, the LSN of the record
+ * (the position in the log where the record began).
  *
- * <li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
- * CHECKPOINT
+ * <li> There are seven record types: ABORT, COMMIT, UPDATE, DELTA_UPDATE,
+ * BEGIN, CHECKPOINT and CLR
  *
  * <li> ABORT, COMMIT, and BEGIN records contain no additional data
  *
  * <li>UPDATE RECORDS consist of two entries, a before image and an
  * after image.  These images are serialized Page objects, and can be
  * accessed with the LogFile.readPageData() and LogFile.writePageData()
- * methods.  See LogFile.print() for an example.
+ * methods.  See LogFile.print() for an example.  A page image starts with
+ * the one byte type code of the page (see {@link PageTypeRegistry}) and
+ * its serialized page id.
+ *
+ * <li> DELTA_UPDATE records are the UPDATE records of heap pages and B-tree
+ * leaf and internal pages.  They consist of the page type and id, written
+ * like the header of a page image, followed by a {@link PageDelta} with the
+ * bytes the update changed.  They are read with LogFile.readDeltaUpdate().
  *
  * <li> CHECKPOINT records consist of active transactions at the time
  * the checkpoint was taken and their first log record on disk.  The format
  * of the record is an integer count of the number of transactions, as well
  * as a long integer transaction id and a long integer first record offset
- * for each active transaction.
+ * for each active transaction.  It is followed by the dirty page table: an
+ * integer count, and for each page whose logged updates may not have
+ * reached its file yet, the page id (a page type code, the number of ints
+ * and the ints) and the LSN of the first such update (its recLSN).
+ *
+ * <li> CLR (compensation) records are written when an update is undone, by
+ * a rollback or by recovery.  They consist of the LSN of the undone record,
+ * the page id, and the change that undoes the update: a one byte kind,
+ * followed by a page image (an int length and the bytes) or a
+ * {@link PageDelta}.  Redoing a CLR repeats the undo, and updates that
+ * have a CLR are not undone again.
  *
  * </ul>
+ *
+ * <p> Recovery follows ARIES.  Analysis reads the last checkpoint and the
+ * log after it to find the transactions that never ended (the losers) and
+ * the dirty page table.  Redo then repeats history from the smallest recLSN:
+ * every logged update and CLR of a page from its recLSN on is applied to the
+ * page, in log order.  Since each record sets bytes of the page to logged
+ * contents, rather than applying an operation, redo needs no page LSN to be
+ * safe to repeat, and page LSNs are kept in memory only (in the dirty page
+ * table of the buffer pool) so that the page formats stay the same.  Redo is
+ * split by page id over several threads.  Undo last takes back the updates
+ * of the losers, newest first, writing a CLR for each, and ends them with
+ * ABORT records.
+ *
+ * <p> Checkpoints are fuzzy: they record the active transactions and the
+ * dirty page table of the buffer pool, without writing any pages.
+ *
+ * <p> Records are appended to a log buffer in memory, and written to the
+ * segments when the buffer fills up or the log is forced.
+ *
+ * <p> Commits are forced to disk in groups: a committing thread appends its
+ * COMMIT record and waits, while a log flusher thread forces the log once for
+ * all the COMMIT records appended since the last force.  How long the
+ * flusher waits for a batch to fill is set with {@link #setGroupCommit}.
  */
 public class LogFile {
 
     final File logFile;
-    private RandomAccessFile raf;
+    private final LogSegments segments; //protected by this
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
@@ -87,17 +140,94 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int DELTA_UPDATE_RECORD = 6;
+    static final int CLR_RECORD = 7;
     static final long NO_CHECKPOINT_ID = -1;
 
+    // kinds of change in a CLR record
+    static final byte CLR_IMAGE = 0;
+    static final byte CLR_DELTA = 1;
+
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
 
+    /**
+     * Default size of the segment files of the log, in bytes.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 20;
+
+    /**
+     * Size of the log buffer, in bytes.
+     */
+    static final int LOG_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Default number of threads that redo updates during recovery.
+     */
+    public static final int DEFAULT_REDO_THREADS = Runtime.getRuntime().availableProcessors();
+
     long currentOffset = -1;//protected by this
+    private volatile long endLsn = 0; // LSN of the next record
+    private volatile long durableLsn = 0; // the records before it are on disk
+    private int redoThreads = DEFAULT_REDO_THREADS; //protected by this
     //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
 
     final Map<Long, Long> tidToFirstLogRecord = new HashMap<>();
 
+    // the image of each page as of its last DELTA_UPDATE record, kept while
+    // the transaction that wrote the record runs. The next delta of the page
+    // is taken against it, since redo applies the deltas one after the other;
+    // a page without an entry is unchanged since its before image was taken.
+    private final Map<PageId, LoggedImage> lastLogged = new HashMap<>(); //protected by this
+
+    private static final class LoggedImage {
+        final long tid;
+        final byte[] image;
+
+        LoggedImage(long tid, byte[] image) {
+            this.tid = tid;
+            this.image = image;
+        }
+    }
+
+    // the record being built between startRecord and endRecord
+    private final RecordBuffer recordBytes = new RecordBuffer(); //protected by this
+    private final DataOutputStream record = new DataOutputStream(recordBytes);
+
+    /**
+     * Default time the log flusher waits for more commits to join a batch,
+     * in microseconds. With no wait, the commits appended while one force is
+     * running make up the next batch.
+     */
+    public static final long DEFAULT_GROUP_COMMIT_WINDOW_US = 0;
+
+    /**
+     * Default number of pending commits that is forced without waiting for
+     * the rest of the window.
+     */
+    public static final int DEFAULT_GROUP_COMMIT_BATCH = 64;
+
+    /**
+     * Time an idle log flusher thread lingers before it exits.
+     */
+    static final long FLUSHER_IDLE_MS = 1000;
+
+    // group commit state, all protected by this. Commits are numbered in the
+    // order their records were appended; every commit up to commitsFlushed
+    // has been forced, and is durable unless it is at most commitsFailed.
+    private long groupCommitWindowUs = DEFAULT_GROUP_COMMIT_WINDOW_US;
+    private int groupCommitBatch = DEFAULT_GROUP_COMMIT_BATCH;
+    private long commitsAppended = 0;
+    private long commitsFlushed = 0;
+    private long commitsFailed = 0;
+    private IOException flushError = null;
+    private Thread flusher = null;
+    private boolean forcing = false; // the flusher is forcing channels it took from segments
+    private long commitFlushes = 0;
+    private long maxCommitBatch = 0;
+    private long forces = 0;
+
     /**
      * Constructor.
      * Initialize and back the log file with the specified file.
@@ -111,8 +241,17 @@ public class LogFile {
      * @param f The log file's name
      */
     public LogFile(File f) throws IOException {
+        this(f, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Constructor for a log whose new segment files have segmentSize bytes.
+     * The log file f is the control file, and the segments are stored next
+     * to it.
+     */
+    public LogFile(File f, int segmentSize) throws IOException {
         this.logFile = f;
-        raf = new RandomAccessFile(f, "rw");
+        segments = new LogSegments(f, segmentSize, LOG_BUFFER_SIZE);
         recoveryUndecided = true;
 
         // install shutdown hook to force cleanup on close
@@ -133,14 +272,89 @@ public class LogFile {
         totalRecords++;
         if (recoveryUndecided) {
             recoveryUndecided = false;
-            raf.seek(0);
-            raf.setLength(0);
-            raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            segments.reset();
+            setCurrentOffset(segments.end());
         }
     }
 
+    private void setCurrentOffset(long offset) {
+        currentOffset = offset;
+        endLsn = offset;
+    }
+
+    /**
+     * A ByteArrayOutputStream whose contents can be appended to the log
+     * without copying them first.
+     */
+    private static final class RecordBuffer extends ByteArrayOutputStream {
+        void appendTo(LogSegments segments) throws IOException {
+            segments.append(buf, 0, count);
+        }
+    }
+
+    // begin a record of the given type: the body is written to the
+    // returned stream, and the record appended by endRecord
+    private DataOutputStream startRecord(int type, long tid) throws IOException {
+        recordBytes.reset();
+        record.writeInt(type);
+        record.writeLong(tid);
+        return record;
+    }
+
+    // end the record begun by startRecord with its LSN, and append it
+    private void endRecord() throws IOException {
+        record.writeLong(currentOffset);
+        record.flush();
+        recordBytes.appendTo(segments);
+        setCurrentOffset(segments.end());
+    }
+
+    /**
+     * @return the LSN the next log record will get. Every record appended
+     *         so far has a smaller LSN.
+     */
+    public long getEndLsn() {
+        return endLsn;
+    }
+
+    /**
+     * @return an LSN such that every record before it is on disk
+     */
+    public long getDurableLsn() {
+        return durableLsn;
+    }
+
+    /**
+     * @return the first LSN that has not been truncated away
+     */
+    public synchronized long getStartLsn() {
+        return segments.start();
+    }
+
+    /**
+     * @return the number of segment files of the log
+     */
+    public synchronized int getSegmentCount() {
+        return segments.numSegments();
+    }
+
+    /**
+     * Close the log and delete its control and segment files.
+     */
+    public synchronized void delete() throws IOException {
+        segments.delete();
+    }
+
+    /**
+     * Set the number of threads that redo updates during recovery.
+     */
+    public synchronized void setRedoThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("need at least one redo thread");
+        }
+        redoThreads = threads;
+    }
+
     public synchronized int getTotalRecords() {
         return totalRecords;
     }
@@ -166,16 +380,21 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                startRecord(ABORT_RECORD, tid.getId());
+                endRecord();
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
+                forgetLoggedImages(tid);
             }
         }
     }
 
+    // once tid has ended, the pages it logged last are as their before
+    // images are taken now
+    private void forgetLoggedImages(TransactionId tid) {
+        lastLogged.values().removeIf(last -> last.tid == tid.getId());
+    }
+
     /**
      * Write a commit record to disk for the specified tid,
      * and force the log to disk.
@@ -187,17 +406,148 @@ public class LogFile {
         Debug.log("COMMIT " + tid.getId());
         //should we verify that this is a live transaction?
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
+        startRecord(COMMIT_RECORD, tid.getId());
+        endRecord();
         tidToFirstLogRecord.remove(tid.getId());
+        forgetLoggedImages(tid);
+
+        // wait for the log flusher to force the record, together with the
+        // other commits appended meanwhile
+        long commit = ++commitsAppended;
+        if (flusher == null) {
+            flusher = new Thread(this::runFlusher, "simpledb-log-flusher");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+        notifyAll();
+        boolean interrupted = false;
+        while (commitsFlushed < commit) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                // the record is in the log, so the commit has to be seen through
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (commit <= commitsFailed) {
+            throw new IOException("could not force commit of transaction " + tid.getId(), flushError);
+        }
+    }
+
+    /**
+     * Set how commits are grouped: the log flusher forces pending commits
+     * once windowUs microseconds have passed since it started waiting for
+     * them, or as soon as maxBatch of them are pending.
+     */
+    public synchronized void setGroupCommit(long windowUs, int maxBatch) {
+        if (windowUs < 0 || maxBatch < 1) {
+            throw new IllegalArgumentException("bad group commit window " + windowUs + " or batch " + maxBatch);
+        }
+        groupCommitWindowUs = windowUs;
+        groupCommitBatch = maxBatch;
+        notifyAll();
+    }
+
+    private void runFlusher() {
+        while (true) {
+            long batchEnd;
+            long batchLsn;
+            List<FileChannel> channels = null;
+            IOException error = null;
+            synchronized (this) {
+                try {
+                    if (commitsAppended == commitsFlushed) {
+                        wait(FLUSHER_IDLE_MS);
+                        if (commitsAppended == commitsFlushed) {
+                            flusher = null;
+                            return;
+                        }
+                    }
+                    long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(groupCommitWindowUs);
+                    long left;
+                    while (commitsAppended - commitsFlushed < groupCommitBatch
+                            && (left = deadline - System.nanoTime()) > 0) {
+                        TimeUnit.NANOSECONDS.timedWait(this, left);
+                    }
+                } catch (InterruptedException e) {
+                    // force what is pending right away
+                }
+                batchEnd = commitsAppended;
+                batchLsn = endLsn;
+                try {
+                    channels = segments.flush();
+                    forcing = true;
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+
+            // appends go on while the log is forced; they join the next batch
+            if (error == null) {
+                try {
+                    LogSegments.force(channels);
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+
+            synchronized (this) {
+                forcing = false;
+                if (error != null) {
+                    flushError = error;
+                    commitsFailed = batchEnd;
+                } else {
+                    advanceDurableLsn(batchLsn);
+                }
+                commitFlushes++;
+                forces++;
+                maxCommitBatch = Math.max(maxCommitBatch, batchEnd - commitsFlushed);
+                commitsFlushed = batchEnd;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return the number of times the log was forced for pending commits
+     */
+    public synchronized long getCommitFlushCount() {
+        return commitFlushes;
+    }
+
+    /**
+     * @return the number of times the log was forced, for commits or
+     *         otherwise
+     */
+    public synchronized long getForceCount() {
+        return forces;
+    }
+
+    /**
+     * @return the average number of commits made durable by one force of
+     *         the log, or 0 if there were no commits yet
+     */
+    public synchronized double getAverageCommitBatch() {
+        return commitFlushes == 0 ? 0 : (double) commitsFlushed / commitFlushes;
+    }
+
+    /**
+     * @return the largest number of commits made durable by one force
+     */
+    public synchronized long getMaxCommitBatch() {
+        return maxCommitBatch;
     }
 
     /**
      * Write an UPDATE record to disk for the specified tid and page
-     * (with provided         before and after images.)
+     * (with provided         before and after images.)  For the pages
+     * of heap files and B-trees, only the bytes that differ between the
+     * images are logged, in a DELTA_UPDATE record. If the page was logged
+     * before since its before image was taken, the difference is taken
+     * from the image last logged instead.
      *
      * @param tid    The transaction performing the write
      * @param before The before image of the page
@@ -207,7 +557,7 @@ public class LogFile {
     public synchronized void logWrite(TransactionId tid, Page before,
                                       Page after)
             throws IOException {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
+        Debug.log("WRITE, offset = " + currentOffset);
         preAppend();
         /* update record conists of
 
@@ -217,83 +567,172 @@ public class LogFile {
            after page data
            start offset
         */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
-
-        writePageData(raf, before);
-        writePageData(raf, after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        if (hasDeltaUpdates(after)) {
+            DataOutputStream out = startRecord(DELTA_UPDATE_RECORD, tid.getId());
+            PageRef.of(after).write(out);
+            byte[] image = after.getPageData();
+            LoggedImage last = lastLogged.get(after.getId());
+            PageDelta.diff(last != null ? last.image : before.getPageData(), image).write(out);
+            endRecord();
+            lastLogged.put(after.getId(), new LoggedImage(tid.getId(), image));
+            Debug.log("WRITE OFFSET = " + currentOffset);
+            return;
+        }
+        DataOutputStream out = startRecord(UPDATE_RECORD, tid.getId());
+        writePageData(out, before);
+        writePageData(out, after);
+        endRecord();
 
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException {
-        PageId pid = p.getId();
-        int[] pageInfo = pid.serialize();
+    /**
+     * Write UPDATE records for pages that tid has just created, such as the
+     * pages of a bulk load. The before image of each page is all zeroes, the
+     * way a new page starts out. The records of the whole batch go to the log
+     * buffer and are forced together, so the pages may be written to their
+     * file as soon as this returns.
+     *
+     * @param tid   The transaction that created the pages
+     * @param pages The new pages, with their contents as after images
+     */
+    public synchronized void logNewPages(TransactionId tid, List<Page> pages)
+            throws IOException {
+        if (pages.isEmpty()) {
+            return;
+        }
+        preAppend();
+        totalRecords += pages.size() - 1;
+
+        for (Page p : pages) {
+            byte[] after = p.getPageData();
+            DataOutputStream out = startRecord(UPDATE_RECORD, tid.getId());
+            writePageData(out, p, new byte[after.length]);
+            writePageData(out, p, after);
+            endRecord();
+            lastLogged.remove(p.getId());
+        }
+        force();
+        Debug.log("WRITE %d NEW PAGES, OFFSET = %d", pages.size(), currentOffset);
+    }
 
+    void writePageData(DataOutput out, Page p) throws IOException {
+        writePageData(out, p, p.getPageData());
+    }
+
+    // writes p's type and id, with pageData as its contents
+    private void writePageData(DataOutput out, Page p, byte[] pageData) throws IOException {
         //page data is:
-        // page class name
-        // id class name
-        // id class bytes
-        // id class data
-        // page class bytes
-        // page class data
-
-        String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
-
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
-
-        raf.writeInt(pageInfo.length);
-        for (int j : pageInfo) {
-            raf.writeInt(j);
-        }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
+        // page type code
+        // id ints
+        // id data
+        // page bytes
+        // page data
+
+        PageRef.of(p).write(out);
+        out.writeInt(pageData.length);
+        out.write(pageData);
         //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage = null;
+    Page readPageData(DataInput in) throws IOException {
+        PageRef ref = PageRef.read(in);
+        PageId pid = ref.pageId();
 
-        String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
+        int pageSize = in.readInt();
+        byte[] pageData = new byte[pageSize];
+        in.readFully(pageData);
 
-        try {
-            Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
-
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
-            Object[] idArgs = new Object[numIdArgs];
-            for (int i = 0; i < numIdArgs; i++) {
-                idArgs[i] = raf.readInt();
+        //            Debug.log("READ PAGE OF TYPE " + ref.type + ", table = " + pid.getTableId() + ", page = " + pid.getPageNumber());
+        return PageTypeRegistry.newPage(ref.type, pid, pageData);
+    }
+
+    /**
+     * The type and id of a logged page, as written before its data.
+     */
+    private static final class PageRef {
+        final byte type;
+        final int[] idData;
+
+        private PageRef(byte type, int[] idData) {
+            this.type = type;
+            this.idData = idData;
+        }
+
+        static PageRef of(Page p) {
+            return new PageRef(PageTypeRegistry.codeOf(p), p.getId().serialize());
+        }
+
+        static PageRef of(PageId pid) {
+            return new PageRef(PageTypeRegistry.codeOf(pid), pid.serialize());
+        }
+
+        static PageRef read(DataInput in) throws IOException {
+            byte type = in.readByte();
+            int[] idData = new int[in.readUnsignedByte()];
+            for (int i = 0; i < idData.length; i++) {
+                idData[i] = in.readInt();
             }
-            pid = (PageId) idConsts[0].newInstance(idArgs);
+            return new PageRef(type, idData);
+        }
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
+        void write(DataOutput out) throws IOException {
+            out.writeByte(type);
+            out.writeByte(idData.length);
+            for (int j : idData) {
+                out.writeInt(j);
+            }
+        }
 
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+        PageId pageId() throws IOException {
+            return PageTypeRegistry.newPageId(type, idData);
+        }
+    }
 
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
+    // true for the pages whose updates are logged as DELTA_UPDATE records
+    private static boolean hasDeltaUpdates(Page p) {
+        return p instanceof HeapPage || p instanceof BTreeLeafPage || p instanceof BTreeInternalPage;
+    }
 
-            newPage = (Page) pageConsts[0].newInstance(pageArgs);
+    /**
+     * The update of a DELTA_UPDATE record, which can be redone or undone on
+     * the current version of the page.
+     */
+    static final class DeltaUpdate {
+        final PageId pid;
+        final PageDelta delta;
 
-            //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e) {
-            e.printStackTrace();
-            throw new IOException();
+        DeltaUpdate(PageId pid, PageDelta delta) {
+            this.pid = pid;
+            this.delta = delta;
+        }
+
+        /**
+         * @return page with the update applied
+         */
+        Page redo(Page page) throws IOException {
+            return rebuild(page, delta.redo(page.getPageData()));
+        }
+
+        /**
+         * @return page with the update taken back
+         */
+        Page undo(Page page) throws IOException {
+            return rebuild(page, delta.undo(page.getPageData()));
         }
-        return newPage;
 
+        // a page of the same type as page, holding image
+        private static Page rebuild(Page page, byte[] image) throws IOException {
+            return PageTypeRegistry.newPage(PageTypeRegistry.codeOf(page), page.getId(), image);
+        }
+    }
+
+    /**
+     * Read the body of a DELTA_UPDATE record, after its type and tid.
+     */
+    DeltaUpdate readDeltaUpdate(DataInput in) throws IOException {
+        PageRef ref = PageRef.read(in);
+        return new DeltaUpdate(ref.pageId(), PageDelta.read(in));
     }
 
     /**
@@ -309,53 +748,53 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
+        startRecord(BEGIN_RECORD, tid.getId());
         tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        endRecord();
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
     /**
-     * Checkpoint the log and write a checkpoint record.
+     * Checkpoint the log and write a checkpoint record.  The checkpoint is
+     * fuzzy: it records the active transactions and the dirty page table,
+     * while transactions go on, and writes no pages.
      */
     public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
-                preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
-                }
+        synchronized (this) {
+            //Debug.log("CHECKPOINT, offset = " + currentOffset);
+            preAppend();
+            Set<Long> keys = tidToFirstLogRecord.keySet();
+            Iterator<Long> els = keys.iterator();
+            // a page is in the table before its update is logged, so
+            // every logged update not known to be on disk is either
+            // covered here or comes after the checkpoint
+            Map<PageId, Long> dirty = Database.getBufferPool().getDirtyPageTable();
+            long startCpOffset = currentOffset;
+            DataOutputStream out = startRecord(CHECKPOINT_RECORD, -1); //no tid , but leave space for convenience
+
+            //write list of outstanding transactions
+            out.writeInt(keys.size());
+            while (els.hasNext()) {
+                Long key = els.next();
+                Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
+                out.writeLong(key);
+                //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
+                out.writeLong(tidToFirstLogRecord.get(key));
+            }
 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
+            //write the dirty page table
+            out.writeInt(dirty.size());
+            for (Map.Entry<PageId, Long> e : dirty.entrySet()) {
+                PageRef.of(e.getKey()).write(out);
+                out.writeLong(e.getValue());
             }
+            endRecord();
+
+            //once the CP is written, make sure the control file points at it
+            segments.setCheckpoint(startCpOffset);
+            force();
+            //Debug.log("CP OFFSET = " + currentOffset);
         }
 
         logTruncate();
@@ -363,117 +802,384 @@ public class LogFile {
 
     /**
      * Truncate any unneeded portion of the log to reduce its space
-     * consumption
+     * consumption.  What is kept starts at the last checkpoint, or at the
+     * first record of a transaction active at the checkpoint or the recLSN
+     * of a page dirty at the checkpoint, if these are older.  The segments
+     * that end before that are deleted; no record is copied.
      */
     public synchronized void logTruncate() throws IOException {
         preAppend();
-        raf.seek(0);
-        long cpLoc = raf.readLong();
+        long cpLoc = segments.checkpoint();
+        if (cpLoc == NO_CHECKPOINT_ID) {
+            return;
+        }
 
+        LogRecord cp = readRecord(segments.reader(cpLoc));
+        if (cp == null || cp.type != CHECKPOINT_RECORD) {
+            throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
+        }
         long minLogRecord = cpLoc;
+        for (long firstLogRecord : cp.active.values()) {
+            minLogRecord = Math.min(minLogRecord, firstLogRecord);
+        }
+        for (long recLsn : cp.dirty.values()) {
+            minLogRecord = Math.min(minLogRecord, recLsn);
+        }
 
-        if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
-            @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
+        Debug.log("TRUNCATING LOG;  WAS " + segments.start() + " TO " + currentOffset + " ; NEW START : " + minLogRecord);
+        segments.truncateStart(Math.max(segments.start(), minLogRecord));
+    }
 
-            if (cpType != CHECKPOINT_RECORD) {
-                throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
+    /**
+     * Rollback the specified transaction, setting the state of any
+     * of pages it updated to their pre-updated state.  To preserve
+     * transaction semantics, this should not be called on
+     * transactions that have already committed (though this may not
+     * be enforced by this method.)
+     * <p>
+     * Each undone update gets a CLR record, so that recovery repeats the
+     * rollback instead of bringing the update back.  The pages are written
+     * to their files and dropped from the buffer pool.  Pages of tables with
+     * record locking are left alone; their changes are undone record by
+     * record by the buffer pool.
+     *
+     * @param tid The transaction to rollback
+     */
+    public void rollback(TransactionId tid)
+            throws NoSuchElementException, IOException {
+        synchronized (Database.getBufferPool()) {
+            synchronized (this) {
+                preAppend();
+                Long first = tidToFirstLogRecord.get(tid.getId());
+                if (first == null) {
+                    throw new NoSuchElementException("transaction " + tid.getId() + " has no BEGIN record");
+                }
+                undo(Collections.singleton(tid.getId()), first);
             }
+        }
+    }
 
-            int numOutstanding = raf.readInt();
+    /**
+     * A log record as read back by {@link #readRecord}.  Only the fields of
+     * its type are set.
+     */
+    static final class LogRecord {
+        final int type;
+        final long tid;
+        final long offset;
+        PageRef ref;                // UPDATE, DELTA_UPDATE, CLR
+        byte[] before;              // UPDATE
+        byte[] after;               // UPDATE, CLR of kind CLR_IMAGE
+        PageDelta delta;            // DELTA_UPDATE, CLR of kind CLR_DELTA
+        long undoneLsn = -1;        // CLR
+        Map<Long, Long> active;     // CHECKPOINT: first record offset by tid
+        Map<PageId, Long> dirty;    // CHECKPOINT: recLSN by page
+
+        LogRecord(int type, long tid, long offset) {
+            this.type = type;
+            this.tid = tid;
+            this.offset = offset;
+        }
 
-            for (int i = 0; i < numOutstanding; i++) {
-                @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
-                if (firstLogRecord < minLogRecord) {
-                    minLogRecord = firstLogRecord;
-                }
-            }
+        boolean changesPage() {
+            return type == UPDATE_RECORD || type == DELTA_UPDATE_RECORD || type == CLR_RECORD;
         }
 
-        // we can truncate everything before minLogRecord
-        File newFile = new File("logtmp" + System.currentTimeMillis());
-        RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
+        /**
+         * @return true if redo needs the current contents of the page
+         */
+        boolean needsImage() {
+            return delta != null;
+        }
 
-        raf.seek(minLogRecord);
+        /**
+         * @return the contents of the page after this record, given its
+         *         contents before (null unless {@link #needsImage})
+         */
+        byte[] redo(byte[] image) {
+            return delta != null ? delta.redo(image) : after;
+        }
 
-        //have to rewrite log records since offsets are different after truncation
-        while (true) {
-            try {
-                int type = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
+        /**
+         * @return the CLR that undoes this update, whose LSN is lsn
+         */
+        LogRecord compensation(long lsn) {
+            LogRecord clr = new LogRecord(CLR_RECORD, tid, -1);
+            clr.undoneLsn = lsn;
+            clr.ref = ref;
+            if (delta != null) {
+                clr.delta = delta.inverse();
+            } else {
+                clr.after = before;
+            }
+            return clr;
+        }
 
-                Debug.log("NEW START = " + newStart);
+        /**
+         * Write what comes between the tid and the start offset of this
+         * record, for the records that change pages.
+         */
+        void writeBody(DataOutput out) throws IOException {
+            switch (type) {
+                case UPDATE_RECORD:
+                    ref.write(out);
+                    out.writeInt(before.length);
+                    out.write(before);
+                    ref.write(out);
+                    out.writeInt(after.length);
+                    out.write(after);
+                    break;
+                case DELTA_UPDATE_RECORD:
+                    ref.write(out);
+                    delta.write(out);
+                    break;
+                case CLR_RECORD:
+                    out.writeLong(undoneLsn);
+                    ref.write(out);
+                    if (delta != null) {
+                        out.writeByte(CLR_DELTA);
+                        delta.write(out);
+                    } else {
+                        out.writeByte(CLR_IMAGE);
+                        out.writeInt(after.length);
+                        out.write(after);
+                    }
+                    break;
+            }
+        }
+    }
 
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
+    // read the next record of in; null at the end of the log, or if the
+    // record there was not completely written
+    private static LogRecord readRecord(LogSegments.Reader in) throws IOException {
+        long offset = in.position();
+        try {
+            int type = in.readInt();
+            LogRecord r = new LogRecord(type, in.readLong(), offset);
+            switch (type) {
+                case UPDATE_RECORD:
+                    r.ref = PageRef.read(in);
+                    r.before = readBytes(in);
+                    PageRef.read(in);
+                    r.after = readBytes(in);
+                    break;
+                case DELTA_UPDATE_RECORD:
+                    r.ref = PageRef.read(in);
+                    r.delta = PageDelta.read(in);
+                    break;
+                case CLR_RECORD:
+                    r.undoneLsn = in.readLong();
+                    r.ref = PageRef.read(in);
+                    if (in.readByte() == CLR_DELTA) {
+                        r.delta = PageDelta.read(in);
+                    } else {
+                        r.after = readBytes(in);
+                    }
+                    break;
+                case CHECKPOINT_RECORD:
+                    r.active = new HashMap<>();
+                    for (int n = in.readInt(); n > 0; n--) {
+                        r.active.put(in.readLong(), in.readLong());
+                    }
+                    r.dirty = new HashMap<>();
+                    for (int n = in.readInt(); n > 0; n--) {
+                        r.dirty.put(PageRef.read(in).pageId(), in.readLong());
+                    }
+                    break;
+                case ABORT_RECORD:
+                case COMMIT_RECORD:
+                case BEGIN_RECORD:
+                    break;
+                default:
+                    return null;
+            }
+            return in.readLong() == offset ? r : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
 
-                switch (type) {
-                    case UPDATE_RECORD:
-                        Page before = readPageData(raf);
-                        Page after = readPageData(raf);
+    private static byte[] readBytes(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
 
-                        writePageData(logNew, before);
-                        writePageData(logNew, after);
-                        break;
-                    case CHECKPOINT_RECORD:
-                        int numXactions = raf.readInt();
-                        logNew.writeInt(numXactions);
-                        while (numXactions-- > 0) {
-                            long xid = raf.readLong();
-                            long xoffset = raf.readLong();
-                            logNew.writeLong(xid);
-                            logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
-                        }
-                        break;
-                    case BEGIN_RECORD:
-                        tidToFirstLogRecord.put(record_tid, newStart);
-                        break;
-                }
+    // append r at the end of the log
+    private void appendRecord(LogRecord r) throws IOException {
+        preAppend();
+        r.writeBody(startRecord(r.type, r.tid));
+        endRecord();
+    }
 
-                //all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
+    // the contents of pid on disk, which r applies to; a page past the end
+    // of its file was appended after the update was logged, and was empty
+    private static byte[] diskImage(DbFile file, PageId pid, LogRecord r) {
+        try {
+            return file.readPage(pid).getPageData();
+        } catch (IllegalArgumentException e) {
+            return new byte[r.delta.pageSize()];
+        }
+    }
 
-            } catch (EOFException e) {
-                break;
-            }
+    // the file of the table of pid, or null if the table is gone
+    private static DbFile fileOf(PageId pid) {
+        try {
+            return Database.getCatalog().getDatabaseFile(pid.getTableId());
+        } catch (NoSuchElementException e) {
+            return null;
         }
+    }
 
-        Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
+    /**
+     * Undo the updates of the transactions in tids that have no CLR yet,
+     * newest first, logging a CLR for each, then write the pages.
+     *
+     * @param from LSN of the first record of any of the transactions
+     */
+    private void undo(Set<Long> tids, long from) throws IOException {
+        List<LogRecord> updates = new ArrayList<>();
+        Set<Long> undone = new HashSet<>();
+        LogSegments.Reader in = segments.reader(from);
+        LogRecord r;
+        while ((r = readRecord(in)) != null) {
+            if (!tids.contains(r.tid)) {
+                continue;
+            }
+            if (r.type == CLR_RECORD) {
+                undone.add(r.undoneLsn);
+            } else if (r.changesPage()) {
+                updates.add(r);
+            }
+        }
 
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
+        Map<PageId, byte[]> images = new LinkedHashMap<>();
+        Map<PageId, PageRef> refs = new HashMap<>();
+        for (int i = updates.size() - 1; i >= 0; i--) {
+            r = updates.get(i);
+            long lsn = r.offset;
+            PageId pid = r.ref.pageId();
+            DbFile file = fileOf(pid);
+            if (undone.contains(lsn) || file == null
+                    || Database.getCatalog().isRecordLocking(pid.getTableId())) {
+                continue;
+            }
+            LogRecord clr = r.compensation(lsn);
+            byte[] image = images.get(pid);
+            if (image == null && clr.needsImage()) {
+                image = diskImage(file, pid, clr);
+            }
+            appendRecord(clr);
+            images.put(pid, clr.redo(image));
+            refs.put(pid, r.ref);
+        }
 
-        currentOffset = raf.getFilePointer();
-        //print();
+        // write-ahead: the CLRs reach the disk before the pages
+        force();
+        for (Map.Entry<PageId, byte[]> e : images.entrySet()) {
+            PageId pid = e.getKey();
+            fileOf(pid).writePage(PageTypeRegistry.newPage(refs.get(pid).type, pid, e.getValue()));
+            Database.getBufferPool().removePage(pid);
+            lastLogged.remove(pid);
+        }
     }
 
     /**
-     * Rollback the specified transaction, setting the state of any
-     * of pages it updated to their pre-updated state.  To preserve
-     * transaction semantics, this should not be called on
-     * transactions that have already committed (though this may not
-     * be enforced by this method.)
+     * Repeat history: redo every update and CLR of the pages in dirty, from
+     * their recLSN on, in log order.  The pages are split over the redo
+     * threads by page id, so that the updates of each page are applied in
+     * order by one thread.
      *
-     * @param tid The transaction to rollback
+     * @param from LSN of the record with the smallest recLSN
      */
-    public void rollback(TransactionId tid)
-            throws NoSuchElementException, IOException {
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                preAppend();
-                // TODO: some code goes here
+    private void redo(long from, Map<PageId, Long> dirty) throws IOException {
+        RedoPartition[] parts = new RedoPartition[redoThreads];
+        for (int i = 0; i < parts.length; i++) {
+            parts[i] = new RedoPartition();
+        }
+        LogSegments.Reader in = segments.reader(from);
+        LogRecord r;
+        while ((r = readRecord(in)) != null) {
+            if (!r.changesPage()) {
+                continue;
+            }
+            PageId pid = r.ref.pageId();
+            Long recLsn = dirty.get(pid);
+            if (recLsn != null && r.offset >= recLsn) {
+                parts[Math.floorMod(pid.hashCode(), parts.length)].redo(pid, r);
+            }
+        }
+
+        IOException failure = null;
+        for (RedoPartition part : parts) {
+            try {
+                part.finish();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * The pages of one redo thread, with the records redone on them so far.
+     * The pages are written when all records have been redone.
+     */
+    private static final class RedoPartition {
+        private final ExecutorService thread = Executors.newSingleThreadExecutor(task -> {
+            Thread t = new Thread(task, "simpledb-redo");
+            t.setDaemon(true);
+            return t;
+        });
+        // confined to thread
+        private final Map<PageId, byte[]> images = new HashMap<>();
+        private final Map<PageId, PageRef> refs = new HashMap<>();
+        private Exception failure = null;
+
+        void redo(PageId pid, LogRecord r) {
+            thread.execute(() -> {
+                DbFile file = fileOf(pid);
+                if (failure != null || file == null) {
+                    return;
+                }
+                try {
+                    byte[] image = images.get(pid);
+                    if (image == null && r.needsImage()) {
+                        image = diskImage(file, pid, r);
+                    }
+                    images.put(pid, r.redo(image));
+                    refs.put(pid, r.ref);
+                } catch (RuntimeException e) {
+                    failure = e;
+                }
+            });
+        }
+
+        void finish() throws IOException {
+            Future<?> written = thread.submit(() -> {
+                if (failure != null) {
+                    throw failure;
+                }
+                for (Map.Entry<PageId, byte[]> e : images.entrySet()) {
+                    PageId pid = e.getKey();
+                    fileOf(pid).writePage(PageTypeRegistry.newPage(refs.get(pid).type, pid, e.getValue()));
+                }
+                return null;
+            });
+            thread.shutdown();
+            try {
+                written.get();
+            } catch (ExecutionException e) {
+                throw new IOException("redo failed", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted during redo", e);
             }
         }
     }
@@ -486,7 +1192,7 @@ public class LogFile {
     public synchronized void shutdown() {
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
+            segments.close();
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
@@ -502,65 +1208,125 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 recoveryUndecided = false;
-                // TODO: some code goes here
+                if (segments.numSegments() == 0) {
+                    // nothing was ever logged
+                    segments.reset();
+                    setCurrentOffset(segments.end());
+                    return;
+                }
+                long cpLoc = segments.checkpoint();
+
+                // analysis: the transactions that did not end, and the pages
+                // that may miss logged updates
+                Map<Long, Long> losers = new HashMap<>();
+                Map<PageId, Long> dirty = new HashMap<>();
+                LogSegments.Reader in = segments.reader(cpLoc == NO_CHECKPOINT_ID ? segments.start() : cpLoc);
+                long end = in.position();
+                LogRecord r;
+                while ((r = readRecord(in)) != null) {
+                    end = in.position();
+                    switch (r.type) {
+                        case CHECKPOINT_RECORD:
+                            r.active.forEach(losers::putIfAbsent);
+                            r.dirty.forEach(dirty::putIfAbsent);
+                            break;
+                        case COMMIT_RECORD:
+                        case ABORT_RECORD:
+                            losers.remove(r.tid);
+                            break;
+                        case BEGIN_RECORD:
+                            losers.putIfAbsent(r.tid, r.offset);
+                            break;
+                        default:
+                            losers.putIfAbsent(r.tid, r.offset);
+                            dirty.putIfAbsent(r.ref.pageId(), r.offset);
+                    }
+                }
+                // a record cut short by the crash is dropped
+                segments.truncateEnd(end);
+                setCurrentOffset(end);
+
+                if (!dirty.isEmpty()) {
+                    long redoLsn = Collections.min(dirty.values());
+                    redo(Math.max(segments.start(), redoLsn), dirty);
+                }
+                if (!losers.isEmpty()) {
+                    undo(losers.keySet(), Collections.min(losers.values()));
+                    for (long tid : losers.keySet()) {
+                        appendRecord(new LogRecord(ABORT_RECORD, tid, -1));
+                    }
+                    force();
+                }
+                tidToFirstLogRecord.clear();
+                lastLogged.clear();
             }
         }
     }
 
+
     /**
      * Print out a human readable represenation of the log
      */
-    public void print() throws IOException {
-        long curOffset = raf.getFilePointer();
+    public synchronized void print() throws IOException {
+        System.out.println("checkpoint record at LSN " + segments.checkpoint());
+        System.out.println("log starts at LSN " + segments.start() + ", in segments of "
+                + segments.segmentSize() + " bytes");
 
-        raf.seek(0);
-
-        System.out.println("0: checkpoint record at offset " + raf.readLong());
+        LogSegments.Reader in = segments.reader(segments.start());
 
         while (true) {
             try {
-                int cpType = raf.readInt();
-                long cpTid = raf.readLong();
+                int cpType = in.readInt();
+                long cpTid = in.readLong();
 
-                System.out.println((raf.getFilePointer() - (INT_SIZE + LONG_SIZE)) + ": RECORD TYPE " + cpType);
-                System.out.println((raf.getFilePointer() - LONG_SIZE) + ": TID " + cpTid);
+                System.out.println((in.position() - (INT_SIZE + LONG_SIZE)) + ": RECORD TYPE " + cpType);
+                System.out.println((in.position() - LONG_SIZE) + ": TID " + cpTid);
 
                 switch (cpType) {
                     case BEGIN_RECORD:
                         System.out.println(" (BEGIN)");
-                        System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                        System.out.println(in.position() + ": RECORD START OFFSET: " + in.readLong());
                         break;
                     case ABORT_RECORD:
                         System.out.println(" (ABORT)");
-                        System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                        System.out.println(in.position() + ": RECORD START OFFSET: " + in.readLong());
                         break;
                     case COMMIT_RECORD:
                         System.out.println(" (COMMIT)");
-                        System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                        System.out.println(in.position() + ": RECORD START OFFSET: " + in.readLong());
                         break;
 
                     case CHECKPOINT_RECORD:
                         System.out.println(" (CHECKPOINT)");
-                        int numTransactions = raf.readInt();
-                        System.out.println((raf.getFilePointer() - INT_SIZE) + ": NUMBER OF OUTSTANDING RECORDS: " + numTransactions);
+                        int numTransactions = in.readInt();
+                        System.out.println((in.position() - INT_SIZE) + ": NUMBER OF OUTSTANDING RECORDS: " + numTransactions);
 
                         while (numTransactions-- > 0) {
-                            long tid = raf.readLong();
-                            long firstRecord = raf.readLong();
-                            System.out.println((raf.getFilePointer() - (LONG_SIZE + LONG_SIZE)) + ": TID: " + tid);
-                            System.out.println((raf.getFilePointer() - LONG_SIZE) + ": FIRST LOG RECORD: " + firstRecord);
+                            long tid = in.readLong();
+                            long firstRecord = in.readLong();
+                            System.out.println((in.position() - (LONG_SIZE + LONG_SIZE)) + ": TID: " + tid);
+                            System.out.println((in.position() - LONG_SIZE) + ": FIRST LOG RECORD: " + firstRecord);
+                        }
+                        int numDirty = in.readInt();
+                        System.out.println((in.position() - INT_SIZE) + ": NUMBER OF DIRTY PAGES: " + numDirty);
+
+                        while (numDirty-- > 0) {
+                            long entry = in.position();
+                            PageId pid = PageRef.read(in).pageId();
+                            System.out.println(entry + ": PAGE " + pid.getTableId() + "/" + pid.getPageNumber()
+                                    + " RECLSN: " + in.readLong());
                         }
-                        System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                        System.out.println(in.position() + ": RECORD START OFFSET: " + in.readLong());
 
                         break;
                     case UPDATE_RECORD:
                         System.out.println(" (UPDATE)");
 
-                        long start = raf.getFilePointer();
-                        Page before = readPageData(raf);
+                        long start = in.position();
+                        Page before = readPageData(in);
 
-                        long middle = raf.getFilePointer();
-                        Page after = readPageData(raf);
+                        long middle = in.position();
+                        Page after = readPageData(in);
 
                         System.out.println(start + ": before image table id " + before.getId().getTableId());
                         System.out.println((start + INT_SIZE) + ": before image page number " + before.getId().getPageNumber());
@@ -568,11 +1334,49 @@ public class LogFile {
 
                         System.out.println(middle + ": after image table id " + after.getId().getTableId());
                         System.out.println((middle + INT_SIZE) + ": after image page number " + after.getId().getPageNumber());
-                        System.out.println((middle + INT_SIZE) + " TO " + (raf.getFilePointer()) + ": page data");
+                        System.out.println((middle + INT_SIZE) + " TO " + (in.position()) + ": page data");
 
-                        System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                        System.out.println(in.position() + ": RECORD START OFFSET: " + in.readLong());
 
                         break;
+                    case DELTA_UPDATE_RECORD:
+                        System.out.println(" (DELTA UPDATE)");
+
+                        long deltaStart = in.position();
+                        DeltaUpdate update = readDeltaUpdate(in);
+
+                        System.out.println(deltaStart + ": table id " + update.pid.getTableId()
+                                + ", page number " + update.pid.getPageNumber());
+                        System.out.println(deltaStart + " TO " + in.position() + ": " + update.delta.numRanges()
+                                + " changed ranges, " + update.delta.changedBytes() + " bytes");
+
+                        System.out.println(in.position() + ": RECORD START OFFSET: " + in.readLong());
+
+                        break;
+                    case CLR_RECORD:
+                        System.out.println(" (CLR)");
+
+                        long undone = in.readLong();
+                        System.out.println((in.position() - LONG_SIZE) + ": UNDONE LSN " + undone);
+                        long clrStart = in.position();
+                        PageId clrPid = PageRef.read(in).pageId();
+                        byte kind = in.readByte();
+                        if (kind == CLR_DELTA) {
+                            PageDelta.read(in);
+                        } else {
+                            in.skipBytes(in.readInt());
+                        }
+                        System.out.println(clrStart + ": table id " + clrPid.getTableId()
+                                + ", page number " + clrPid.getPageNumber());
+                        System.out.println(clrStart + " TO " + in.position()
+                                + (kind == CLR_DELTA ? ": inverse delta" : ": page data"));
+
+                        System.out.println(in.position() + ": RECORD START OFFSET: " + in.readLong());
+
+                        break;
+                    default:
+                        // the zeroes after the end of the log
+                        return;
                 }
 
             } catch (EOFException e) {
@@ -580,13 +1384,43 @@ public class LogFile {
                 break;
             }
         }
-
-        // Return the file pointer to its original position
-        raf.seek(curOffset);
     }
 
     public synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+        // the channels the flusher is forcing are no longer in segments
+        boolean interrupted = false;
+        while (forcing) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        long end = endLsn;
+        segments.force();
+        forces++;
+        advanceDurableLsn(end);
+    }
+
+    /**
+     * Force the log to disk, unless every record before lsn is there
+     * already, for instance because a commit forced it. The writers of
+     * {@link BufferPool} call this with the LSN of the last update of a
+     * page before writing the page.
+     */
+    public void force(long lsn) throws IOException {
+        if (durableLsn < lsn) {
+            force();
+        }
+    }
+
+    private synchronized void advanceDurableLsn(long lsn) {
+        if (lsn > durableLsn) {
+            durableLsn = lsn;
+        }
     }
 
 }
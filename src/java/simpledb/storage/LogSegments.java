@@ -0,0 +1,432 @@
+package simpledb.storage;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The storage of a {@link LogFile}: the log as a sequence of bytes addressed
+ * by log sequence number (LSN), kept in fixed-size segment files.
+ * <p>
+ * Segment i holds the LSNs from i times the segment size on, and is named
+ * after the control file with the number i appended. A segment is filled
+ * with zeroes and forced when it is created, so appending to it never
+ * changes the size of a file, and forcing the appended bytes needs no
+ * metadata update. The log is truncated by deleting the segments before
+ * the oldest LSN still needed.
+ * <p>
+ * The control file holds the LSN of the last checkpoint, the first LSN
+ * kept, and the segment size. It is rewritten in place, and forced after
+ * the segments by {@link #force}.
+ * <p>
+ * Appends go to a direct buffer, and are written to the segments when it is
+ * full, when the log is forced, and before the log is read; so a record of
+ * a few dozen bytes costs no system call. Bytes are only ever appended at
+ * the end of the log, except that the end can be moved back over a record
+ * cut short by a crash.
+ * <p>
+ * Not thread safe: {@link LogFile} calls it holding its own monitor, except
+ * for forcing the channels returned by {@link #flush}.
+ */
+final class LogSegments {
+
+    private static final int CONTROL_SIZE = 2 * Long.BYTES + Integer.BYTES;
+    private static final int ZEROES_SIZE = 64 * 1024;
+
+    private final File control;
+    private final RandomAccessFile controlFile;
+    private final int defaultSegmentSize;
+    private final ByteBuffer buffer;
+
+    private int segmentSize;
+    private long checkpoint = LogFile.NO_CHECKPOINT_ID;
+    private long start = 0;
+    private long end = 0;           // LSN after the last byte of the log
+    private long bufferStart = 0;   // LSN of the first byte in buffer
+    private boolean controlDirty = false;
+    private final TreeMap<Long, FileChannel> segments = new TreeMap<>();
+    // segments written since the last flush
+    private final Set<FileChannel> unforced = new LinkedHashSet<>();
+
+    /**
+     * Open the log whose control file is control. If there is no complete
+     * control file, the log is empty; otherwise its end is the end of the
+     * last segment, until {@link #truncateEnd} sets it.
+     *
+     * @param segmentSize size of the segments of a new log
+     * @param bufferSize  size of the log buffer
+     */
+    LogSegments(File control, int segmentSize, int bufferSize) throws IOException {
+        if (segmentSize <= 0 || bufferSize <= 0) {
+            throw new IllegalArgumentException("bad log segment size " + segmentSize + " or buffer size " + bufferSize);
+        }
+        this.control = control;
+        this.defaultSegmentSize = segmentSize;
+        this.segmentSize = segmentSize;
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        this.controlFile = new RandomAccessFile(control, "rw");
+        if (controlFile.length() < CONTROL_SIZE) {
+            return;
+        }
+        controlFile.seek(0);
+        checkpoint = controlFile.readLong();
+        start = controlFile.readLong();
+        this.segmentSize = controlFile.readInt();
+        if (this.segmentSize <= 0) {
+            throw new IOException("bad segment size in " + control);
+        }
+        for (long i = start / this.segmentSize; segmentFile(i).exists(); i++) {
+            segments.put(i, open(segmentFile(i)));
+        }
+        end = segments.isEmpty() ? start : (segments.lastKey() + 1) * this.segmentSize;
+        bufferStart = end;
+    }
+
+    private File segmentFile(long index) {
+        return new File(control.getPath() + String.format(".%012d", index));
+    }
+
+    private static FileChannel open(File f) throws IOException {
+        return new RandomAccessFile(f, "rw").getChannel();
+    }
+
+    /**
+     * Throw away the whole log, and start a new one at the LSN after its
+     * end, so LSNs are never reused.
+     */
+    void reset() throws IOException {
+        flushBuffer();
+        for (Map.Entry<Long, FileChannel> e : segments.entrySet()) {
+            e.getValue().close();
+            segmentFile(e.getKey()).delete();
+        }
+        segments.clear();
+        unforced.clear();
+        segmentSize = defaultSegmentSize;
+        checkpoint = LogFile.NO_CHECKPOINT_ID;
+        start = end;
+        bufferStart = end;
+        writeControl();
+        controlFile.getChannel().force(true);
+        controlDirty = false;
+    }
+
+    long checkpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * Point the control file at the checkpoint record at lsn; durable once
+     * the log is next forced.
+     */
+    void setCheckpoint(long lsn) throws IOException {
+        checkpoint = lsn;
+        writeControl();
+    }
+
+    private void writeControl() throws IOException {
+        controlFile.seek(0);
+        controlFile.writeLong(checkpoint);
+        controlFile.writeLong(start);
+        controlFile.writeInt(segmentSize);
+        controlDirty = true;
+    }
+
+    /**
+     * @return the first LSN of the log
+     */
+    long start() {
+        return start;
+    }
+
+    /**
+     * @return the LSN after the end of the log
+     */
+    long end() {
+        return end;
+    }
+
+    int segmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * @return the number of segment files
+     */
+    int numSegments() {
+        return segments.size();
+    }
+
+    /**
+     * Append bytes at the end of the log.
+     */
+    void append(byte[] bytes, int off, int len) throws IOException {
+        while (len > 0) {
+            if (!buffer.hasRemaining()) {
+                flushBuffer();
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.put(bytes, off, n);
+            off += n;
+            len -= n;
+            end += n;
+        }
+    }
+
+    void append(byte[] bytes) throws IOException {
+        append(bytes, 0, bytes.length);
+    }
+
+    // write the buffer to the segments
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        long lsn = bufferStart;
+        while (buffer.hasRemaining()) {
+            FileChannel segment = segment(lsn / segmentSize);
+            int inSegment = (int) Math.min(buffer.remaining(), segmentSize - lsn % segmentSize);
+            ByteBuffer part = buffer.slice();
+            part.limit(inSegment);
+            while (part.hasRemaining()) {
+                segment.write(part, lsn % segmentSize + part.position());
+            }
+            buffer.position(buffer.position() + inSegment);
+            lsn += inSegment;
+            unforced.add(segment);
+        }
+        buffer.clear();
+        bufferStart = lsn;
+    }
+
+    // the segment with the given index, created and zeroed if it is new
+    private FileChannel segment(long index) throws IOException {
+        FileChannel segment = segments.get(index);
+        if (segment != null) {
+            return segment;
+        }
+        segment = open(segmentFile(index));
+        ByteBuffer zeroes = ByteBuffer.allocateDirect(Math.min(ZEROES_SIZE, segmentSize));
+        for (long pos = 0; pos < segmentSize; ) {
+            zeroes.clear();
+            zeroes.limit((int) Math.min(zeroes.capacity(), segmentSize - pos));
+            pos += segment.write(zeroes, pos);
+        }
+        segment.force(true);
+        segments.put(index, segment);
+        return segment;
+    }
+
+    /**
+     * Write out the log buffer, and return the channels that must be forced
+     * to make the log durable up to its current end, for {@link #force(List)}.
+     */
+    List<FileChannel> flush() throws IOException {
+        flushBuffer();
+        List<FileChannel> channels = new ArrayList<>(unforced);
+        unforced.clear();
+        if (controlDirty) {
+            // after the segments, so the control file never points at
+            // records that are not on disk
+            channels.add(controlFile.getChannel());
+            controlDirty = false;
+        }
+        return channels;
+    }
+
+    /**
+     * Force channels returned by {@link #flush}. Segments deleted by
+     * truncation meanwhile are skipped; they are no longer needed.
+     */
+    static void force(List<FileChannel> channels) throws IOException {
+        for (FileChannel channel : channels) {
+            try {
+                channel.force(false);
+            } catch (ClosedChannelException e) {
+                // deleted by truncateStart
+            }
+        }
+    }
+
+    /**
+     * Make the log durable up to its current end.
+     */
+    void force() throws IOException {
+        force(flush());
+    }
+
+    /**
+     * Drop the log from lsn on, zeroing the rest of its segment so that
+     * nothing left there can be read as a record later.
+     */
+    void truncateEnd(long lsn) throws IOException {
+        if (lsn < start || lsn > end) {
+            throw new IllegalArgumentException("cannot end the log at " + lsn);
+        }
+        flushBuffer();
+        long last = lsn / segmentSize;
+        FileChannel segment = segments.get(last);
+        if (segment != null) {
+            ByteBuffer zeroes = ByteBuffer.allocateDirect(Math.min(ZEROES_SIZE, segmentSize));
+            for (long pos = lsn % segmentSize; pos < segmentSize; ) {
+                zeroes.clear();
+                zeroes.limit((int) Math.min(zeroes.capacity(), segmentSize - pos));
+                pos += segment.write(zeroes, pos);
+            }
+            segment.force(false);
+        }
+        while (!segments.isEmpty() && segments.lastKey() > last) {
+            Map.Entry<Long, FileChannel> e = segments.pollLastEntry();
+            e.getValue().close();
+            segmentFile(e.getKey()).delete();
+        }
+        end = lsn;
+        bufferStart = lsn;
+    }
+
+    /**
+     * Drop the log before lsn, by deleting the segments that end before it.
+     * The new start is forced to the control file first.
+     */
+    void truncateStart(long lsn) throws IOException {
+        if (lsn < start) {
+            return;
+        }
+        if (lsn > end) {
+            throw new IllegalArgumentException("cannot start the log at " + lsn);
+        }
+        start = lsn;
+        writeControl();
+        controlFile.getChannel().force(false);
+        controlDirty = false;
+        while (!segments.isEmpty() && (segments.firstKey() + 1) * segmentSize <= lsn) {
+            Map.Entry<Long, FileChannel> e = segments.pollFirstEntry();
+            unforced.remove(e.getValue());
+            e.getValue().close();
+            segmentFile(e.getKey()).delete();
+        }
+    }
+
+    /**
+     * @return a reader of the log from lsn to its end
+     */
+    Reader reader(long lsn) throws IOException {
+        flushBuffer();
+        return new Reader(new SegmentInput(lsn));
+    }
+
+    /**
+     * Close the log.
+     */
+    void close() throws IOException {
+        flushBuffer();
+        for (FileChannel segment : segments.values()) {
+            segment.close();
+        }
+        controlFile.close();
+    }
+
+    /**
+     * Close the log and delete its files.
+     */
+    void delete() throws IOException {
+        close();
+        for (Long index : segments.keySet()) {
+            segmentFile(index).delete();
+        }
+        segments.clear();
+        control.delete();
+    }
+
+    /**
+     * Reads the log sequentially, knowing the LSN it is at.
+     */
+    static final class Reader extends DataInputStream {
+        private final SegmentInput input;
+
+        private Reader(SegmentInput input) {
+            super(input);
+            this.input = input;
+        }
+
+        /**
+         * @return the LSN of the next byte to be read
+         */
+        long position() {
+            return input.position;
+        }
+    }
+
+    // the bytes of the segments from an LSN to the end of the log
+    private final class SegmentInput extends InputStream {
+        private final ByteBuffer chunk = ByteBuffer.allocate(8192);
+        private long position;      // LSN of the next byte returned
+        private long chunkEnd;      // LSN after the last byte in chunk
+
+        SegmentInput(long lsn) {
+            if (lsn < start) {
+                throw new IllegalArgumentException("LSN " + lsn + " was truncated away");
+            }
+            position = lsn;
+            chunkEnd = lsn;
+            chunk.limit(0);
+        }
+
+        private boolean fill() throws IOException {
+            if (chunk.hasRemaining()) {
+                return true;
+            }
+            if (chunkEnd >= end) {
+                return false;
+            }
+            FileChannel segment = segments.get(chunkEnd / segmentSize);
+            if (segment == null) {
+                throw new EOFException("log segment " + chunkEnd / segmentSize + " is missing");
+            }
+            chunk.clear();
+            chunk.limit((int) Math.min(chunk.capacity(),
+                    Math.min(end - chunkEnd, segmentSize - chunkEnd % segmentSize)));
+            while (chunk.hasRemaining()) {
+                if (segment.read(chunk, chunkEnd % segmentSize + chunk.position()) < 0) {
+                    throw new EOFException("log segment " + chunkEnd / segmentSize + " is short");
+                }
+            }
+            chunk.flip();
+            chunkEnd += chunk.limit();
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            position++;
+            return chunk.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(len, chunk.remaining());
+            chunk.get(b, off, n);
+            position += n;
+            return n;
+        }
+    }
+}
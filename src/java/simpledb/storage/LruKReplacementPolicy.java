@@ -0,0 +1,149 @@
+package simpledb.storage;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum). The victim is the page whose
+ * K-th most recent access lies furthest in the past. Pages with fewer than K
+ * recorded accesses have an infinite backward K-distance and are therefore
+ * evicted before any page that has been referenced K times; among those,
+ * the least recently used goes first.
+ * <p>
+ * This is what makes the policy scan resistant: pages streamed through once
+ * by a sequential scan never reach K accesses, so they cannot push out hot
+ * pages such as B+ tree internal nodes.
+ * <p>
+ * Pages are kept in a tree ordered by eviction priority, so accesses and
+ * evictions cost O(log n). Prefetched pages get no history until they are
+ * first accessed and are evicted before everything else.
+ */
+public class LruKReplacementPolicy implements ReplacementPolicy {
+
+    /**
+     * Default number of accesses remembered per page.
+     */
+    public static final int DEFAULT_K = 2;
+
+    private static final class History {
+        final PageId pid;
+        final Deque<Long> accesses = new ArrayDeque<>();
+
+        History(PageId pid) {
+            this.pid = pid;
+        }
+
+        long last() {
+            return accesses.peekLast();
+        }
+    }
+
+    private final int k;
+    private final Map<PageId, History> histories;
+    private final TreeSet<History> byPriority;
+    // prefetched pages not accessed yet, oldest first; they have no history
+    private final LinkedHashSet<PageId> prefetched;
+    private long clock;
+
+    /**
+     * Creates an LRU-K policy with K = {@link #DEFAULT_K}.
+     *
+     * @param capacity expected number of pages the owning buffer pool holds
+     */
+    public LruKReplacementPolicy(int capacity) {
+        this(capacity, DEFAULT_K);
+    }
+
+    /**
+     * Creates an LRU-K policy.
+     *
+     * @param capacity expected number of pages the owning buffer pool holds
+     * @param k        number of past accesses considered per page; must be at least 1
+     */
+    public LruKReplacementPolicy(int capacity, int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("K must be at least 1");
+        }
+        this.k = k;
+        this.histories = new HashMap<>(Math.max(capacity, 1) * 2);
+        this.byPriority = new TreeSet<>((a, b) -> {
+            // pages with fewer than K accesses come first (infinite K-distance)
+            boolean aFull = a.accesses.size() >= this.k;
+            boolean bFull = b.accesses.size() >= this.k;
+            if (aFull != bFull) {
+                return aFull ? 1 : -1;
+            }
+            // then the oldest K-th access (for full histories) or the oldest
+            // last access (for partial ones); access stamps are unique
+            long ka = aFull ? a.accesses.peekFirst() : a.last();
+            long kb = bFull ? b.accesses.peekFirst() : b.last();
+            return Long.compare(ka, kb);
+        });
+        this.prefetched = new LinkedHashSet<>();
+        this.clock = 0;
+    }
+
+    public void pageAdded(PageId pid) {
+        History h = histories.get(pid);
+        if (h == null) {
+            h = new History(pid);
+            histories.put(pid, h);
+        } else {
+            byPriority.remove(h);
+        }
+        record(h);
+    }
+
+    public void pagePrefetched(PageId pid) {
+        pageRemoved(pid);
+        prefetched.add(pid);
+    }
+
+    public void pageAccessed(PageId pid) {
+        if (prefetched.remove(pid)) {
+            // the first use of a prefetched page is its load, not a reuse
+            pageAdded(pid);
+            return;
+        }
+        History h = histories.get(pid);
+        if (h != null) {
+            byPriority.remove(h);
+            record(h);
+        }
+    }
+
+    private void record(History h) {
+        h.accesses.addLast(++clock);
+        if (h.accesses.size() > k) {
+            h.accesses.removeFirst();
+        }
+        byPriority.add(h);
+    }
+
+    public void pageRemoved(PageId pid) {
+        prefetched.remove(pid);
+        History h = histories.remove(pid);
+        if (h != null) {
+            byPriority.remove(h);
+        }
+    }
+
+    public PageId chooseVictim(Predicate<PageId> evictable) {
+        for (PageId pid : prefetched) {
+            if (evictable.test(pid)) {
+                return pid;
+            }
+        }
+        for (History h : byPriority) {
+            if (evictable.test(h.pid)) {
+                return h.pid;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,88 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A read-only memory mapping of a data file. Pages are served as slices of
+ * the mapping, so reading a page costs no system call. Since writes show
+ * through the mapping (see below), callers that keep a page around must copy
+ * its slice.
+ * <p>
+ * The mapping covers the file as it was when it was (re)mapped. When a read
+ * asks for bytes beyond the mapped length, the file is remapped if it has
+ * grown. Writes never go through the mapping: they use the ordinary file
+ * channel, and because the mapping is shared with the page cache they become
+ * visible through it immediately.
+ * <p>
+ * A single mapping is limited to 2 GB; reads past that return null so the
+ * caller can fall back to channel I/O.
+ *
+ * @Threadsafe
+ */
+public class MappedDataFile {
+
+    private final File f;
+    private volatile MappedByteBuffer map;
+
+    /**
+     * @param f the data file to map
+     */
+    public MappedDataFile(File f) {
+        this.f = f;
+        this.map = null;
+    }
+
+    /**
+     * Get a read-only view of length bytes of the file starting at offset.
+     *
+     * @return a buffer positioned at 0 whose capacity is length, or null if
+     *         the range lies beyond the end of the file or beyond what can be
+     *         mapped
+     */
+    public ByteBuffer slice(long offset, int length) throws IOException {
+        long end = offset + length;
+        if (end > Integer.MAX_VALUE) {
+            return null;
+        }
+        MappedByteBuffer m = map;
+        if (m == null || end > m.capacity()) {
+            m = remap(end);
+            if (m == null) {
+                return null;
+            }
+        }
+        ByteBuffer view = m.duplicate();
+        view.position((int) offset);
+        view.limit((int) end);
+        return view.slice();
+    }
+
+    /**
+     * @return the number of bytes currently mapped
+     */
+    public long mappedLength() {
+        MappedByteBuffer m = map;
+        return m == null ? 0 : m.capacity();
+    }
+
+    // map the whole file again if it now covers end
+    private synchronized MappedByteBuffer remap(long end) throws IOException {
+        MappedByteBuffer m = map;
+        if (m != null && end <= m.capacity()) {
+            return m;   // another thread already remapped
+        }
+        long length = Math.min(f.length(), Integer.MAX_VALUE);
+        if (end > length) {
+            return null;
+        }
+        try (FileHandleCache.Handle h = FileHandleCache.getInstance().acquire(f)) {
+            m = h.channel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+        }
+        map = m;
+        return m;
+    }
+}
@@ -0,0 +1,24 @@
+package simpledb.storage;
+
+import simpledb.common.Catalog;
+
+/**
+ * A DbFile that can serve page reads from a read-only memory mapping of its
+ * data file instead of from explicit reads. Meant for read-mostly tables;
+ * writes keep going through the file channel.
+ *
+ * @see Catalog#setMemoryMapped(int, boolean)
+ * @see MappedDataFile
+ */
+public interface MemoryMappable {
+
+    /**
+     * Turn memory-mapped reads on or off for this file.
+     */
+    void setMemoryMapped(boolean mapped);
+
+    /**
+     * @return true if page reads are served from a memory mapping
+     */
+    boolean isMemoryMapped();
+}
@@ -0,0 +1,95 @@
+package simpledb.storage;
+
+import simpledb.transaction.TransactionId;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * OptimisticStore keeps what optimistic transactions need to validate when
+ * they commit (see {@link BufferPool#beginOptimistic}): a version number for
+ * every page, and for each running optimistic transaction a workspace with
+ * the versions of the pages it read and its private copies of the pages it
+ * changed.
+ * <p>
+ * The version of a page goes up every time the page is changed in the buffer
+ * pool, and again when a transaction holding a write lock on it completes,
+ * before the lock is released. So a reader that saw version v of a page, and
+ * finds the version still at v while holding a shared lock on the page, read
+ * committed contents that are still current: any change made before the read
+ * by a transaction that was still running would have been followed by a
+ * completion, and any change after the read by a change.
+ *
+ * @Threadsafe
+ */
+public class OptimisticStore {
+
+    /**
+     * The pages one optimistic transaction read, with the versions it saw,
+     * and its private copies of the pages it changed.
+     */
+    static final class Workspace {
+        final Map<PageId, Long> reads = new ConcurrentHashMap<>();
+        final Map<PageId, Page> writes = new ConcurrentHashMap<>();
+    }
+
+    private final ConcurrentHashMap<PageId, Long> versions = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<TransactionId, Workspace> workspaces = new ConcurrentHashMap<>();
+    private final AtomicLong conflicts = new AtomicLong();
+
+    /**
+     * Start tracking the reads and writes of tid.
+     */
+    public void begin(TransactionId tid) {
+        workspaces.put(tid, new Workspace());
+    }
+
+    /**
+     * @return true if tid runs optimistically
+     */
+    public boolean isOptimistic(TransactionId tid) {
+        return workspaces.containsKey(tid);
+    }
+
+    Workspace workspace(TransactionId tid) {
+        return workspaces.get(tid);
+    }
+
+    /**
+     * Stop tracking tid.
+     *
+     * @return the workspace of tid, or null if it did not run optimistically
+     */
+    Workspace end(TransactionId tid) {
+        return workspaces.remove(tid);
+    }
+
+    /**
+     * @return the current version of a page
+     */
+    public long version(PageId pid) {
+        return versions.getOrDefault(pid, 0L);
+    }
+
+    /**
+     * Move a page to its next version.
+     */
+    void bump(PageId pid) {
+        versions.merge(pid, 1L, Long::sum);
+    }
+
+    /**
+     * Count a failed validation.
+     */
+    void conflict() {
+        conflicts.incrementAndGet();
+    }
+
+    /**
+     * @return the number of optimistic transactions that failed validation
+     */
+    public long getConflictCount() {
+        return conflicts.get();
+    }
+}
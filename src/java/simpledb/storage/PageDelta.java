@@ -0,0 +1,185 @@
+package simpledb.storage;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * PageDelta is the change an update made to a page, as the byte ranges of
+ * the page image that differ between its before and after images, with the
+ * old and new contents of each range. It is what the physiological UPDATE
+ * log records of {@link LogFile} store instead of two full page images.
+ * <p>
+ * The pages of heap files and B-trees keep a header (slot bitmap, sibling and
+ * parent pointers) followed by fixed-size slots, and an insert or delete
+ * changes one bit of the bitmap and the bytes of one slot; so a delta is a
+ * few dozen bytes where the page images are several kilobytes. Ranges closer
+ * than {@link #MERGE_GAP} bytes are merged, since the per-range overhead is
+ * larger than the unchanged bytes in between.
+ * <p>
+ * Redo writes the new contents of each range into a page image and undo the
+ * old ones, so both can be repeated on a page they were already applied to.
+ */
+public class PageDelta {
+
+    /**
+     * Largest run of unchanged bytes between two changed ranges that is
+     * logged as part of one range.
+     */
+    static final int MERGE_GAP = 8;
+
+    private final int pageSize;
+    private final List<int[]> ranges;      // offset, length
+    private final List<byte[]> before;
+    private final List<byte[]> after;
+
+    private PageDelta(int pageSize, List<int[]> ranges, List<byte[]> before, List<byte[]> after) {
+        this.pageSize = pageSize;
+        this.ranges = ranges;
+        this.before = before;
+        this.after = after;
+    }
+
+    /**
+     * Compute the delta that turns page image before into page image after.
+     *
+     * @throws IllegalArgumentException if the images differ in size
+     */
+    public static PageDelta diff(byte[] before, byte[] after) {
+        if (before.length != after.length) {
+            throw new IllegalArgumentException("page images of " + before.length + " and " + after.length + " bytes");
+        }
+        List<int[]> ranges = new ArrayList<>();
+        List<byte[]> olds = new ArrayList<>();
+        List<byte[]> news = new ArrayList<>();
+        int i = 0;
+        while (i < before.length) {
+            if (before[i] == after[i]) {
+                i++;
+                continue;
+            }
+            int start = i;
+            int end = i + 1;    // exclusive end of the changed bytes so far
+            for (int j = end; j < before.length && j - end <= MERGE_GAP; j++) {
+                if (before[j] != after[j]) {
+                    end = j + 1;
+                }
+            }
+            ranges.add(new int[]{start, end - start});
+            olds.add(copy(before, start, end));
+            news.add(copy(after, start, end));
+            i = end;
+        }
+        return new PageDelta(before.length, ranges, olds, news);
+    }
+
+    private static byte[] copy(byte[] image, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        System.arraycopy(image, from, bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    /**
+     * @return true if the images were the same
+     */
+    public boolean isEmpty() {
+        return ranges.isEmpty();
+    }
+
+    /**
+     * @return the number of changed bytes, counting merged gaps
+     */
+    public int changedBytes() {
+        int n = 0;
+        for (int[] r : ranges) {
+            n += r[1];
+        }
+        return n;
+    }
+
+    /**
+     * @return the size of the page images
+     */
+    public int pageSize() {
+        return pageSize;
+    }
+
+    /**
+     * @return the number of changed ranges
+     */
+    public int numRanges() {
+        return ranges.size();
+    }
+
+    /**
+     * @return the delta that takes this one back
+     */
+    public PageDelta inverse() {
+        return new PageDelta(pageSize, ranges, after, before);
+    }
+
+    /**
+     * @return a copy of image with the new contents of the changed ranges
+     */
+    public byte[] redo(byte[] image) {
+        return apply(image, after);
+    }
+
+    /**
+     * @return a copy of image with the old contents of the changed ranges
+     */
+    public byte[] undo(byte[] image) {
+        return apply(image, before);
+    }
+
+    private byte[] apply(byte[] image, List<byte[]> contents) {
+        if (image.length != pageSize) {
+            throw new IllegalArgumentException("delta of a " + pageSize + " byte page applied to " + image.length + " bytes");
+        }
+        byte[] result = image.clone();
+        for (int i = 0; i < ranges.size(); i++) {
+            System.arraycopy(contents.get(i), 0, result, ranges.get(i)[0], ranges.get(i)[1]);
+        }
+        return result;
+    }
+
+    /**
+     * Write this delta: the page size, the number of ranges, and for each
+     * range its offset, length, old and new contents.
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(pageSize);
+        out.writeInt(ranges.size());
+        for (int i = 0; i < ranges.size(); i++) {
+            out.writeInt(ranges.get(i)[0]);
+            out.writeInt(ranges.get(i)[1]);
+            out.write(before.get(i));
+            out.write(after.get(i));
+        }
+    }
+
+    /**
+     * Read a delta written by {@link #write}.
+     */
+    public static PageDelta read(DataInput in) throws IOException {
+        int pageSize = in.readInt();
+        int n = in.readInt();
+        List<int[]> ranges = new ArrayList<>(n);
+        List<byte[]> olds = new ArrayList<>(n);
+        List<byte[]> news = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            int offset = in.readInt();
+            int length = in.readInt();
+            byte[] old = new byte[length];
+            in.readFully(old);
+            byte[] now = new byte[length];
+            in.readFully(now);
+            ranges.add(new int[]{offset, length});
+            olds.add(old);
+            news.add(now);
+        }
+        return new PageDelta(pageSize, ranges, olds, news);
+    }
+}
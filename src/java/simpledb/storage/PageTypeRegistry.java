@@ -0,0 +1,156 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeHeaderPage;
+import simpledb.index.BTreeInternalPage;
+import simpledb.index.BTreeLeafPage;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeRootPtrPage;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * PageTypeRegistry maps each kind of page that can appear in the log to a
+ * one-byte type code, and to the factories that rebuild its page id and page
+ * from their serialized form. The log stores the code in place of the page
+ * and page id class names, and reading a page image back is a table lookup
+ * and a constructor call instead of a reflective class lookup.
+ * <p>
+ * The pages of heap files and B-trees are registered here; other page types
+ * must be registered before their pages are logged.
+ *
+ * @Threadsafe
+ */
+public final class PageTypeRegistry {
+
+    /**
+     * Builds a page id from the ints of {@link PageId#serialize}.
+     */
+    @FunctionalInterface
+    public interface PageIdFactory {
+        PageId create(int[] data);
+    }
+
+    /**
+     * Builds a page from its id and the bytes of {@link Page#getPageData}.
+     */
+    @FunctionalInterface
+    public interface PageFactory {
+        Page create(PageId pid, byte[] data) throws IOException;
+    }
+
+    public static final byte HEAP_PAGE = 1;
+    public static final byte BTREE_LEAF_PAGE = 2;
+    public static final byte BTREE_INTERNAL_PAGE = 3;
+    public static final byte BTREE_HEADER_PAGE = 4;
+    public static final byte BTREE_ROOT_PTR_PAGE = 5;
+
+    private static final class PageType {
+        final byte code;
+        final PageIdFactory ids;
+        final PageFactory pages;
+
+        PageType(byte code, PageIdFactory ids, PageFactory pages) {
+            this.code = code;
+            this.ids = ids;
+            this.pages = pages;
+        }
+    }
+
+    private static final Map<Byte, PageType> byCode = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, PageType> byClass = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, PageType> byIdClass = new ConcurrentHashMap<>();
+
+    static {
+        register(HEAP_PAGE, HeapPage.class, HeapPageId.class,
+                d -> new HeapPageId(d[0], d[1]),
+                (pid, data) -> new HeapPage((HeapPageId) pid, data));
+        register(BTREE_LEAF_PAGE, BTreeLeafPage.class, BTreePageId.class, PageTypeRegistry::bTreePageId,
+                (pid, data) -> new BTreeLeafPage((BTreePageId) pid, data, keyField(pid)));
+        register(BTREE_INTERNAL_PAGE, BTreeInternalPage.class, BTreePageId.class, PageTypeRegistry::bTreePageId,
+                (pid, data) -> new BTreeInternalPage((BTreePageId) pid, data, keyField(pid)));
+        register(BTREE_HEADER_PAGE, BTreeHeaderPage.class, BTreePageId.class, PageTypeRegistry::bTreePageId,
+                (pid, data) -> new BTreeHeaderPage((BTreePageId) pid, data));
+        register(BTREE_ROOT_PTR_PAGE, BTreeRootPtrPage.class, BTreePageId.class, PageTypeRegistry::bTreePageId,
+                (pid, data) -> new BTreeRootPtrPage((BTreePageId) pid, data));
+    }
+
+    private PageTypeRegistry() {
+    }
+
+    private static PageId bTreePageId(int[] d) {
+        return new BTreePageId(d[0], d[1], d[2]);
+    }
+
+    private static int keyField(PageId pid) {
+        return ((BTreeFile) Database.getCatalog().getDatabaseFile(pid.getTableId())).keyField();
+    }
+
+    /**
+     * Register a page type under code, whose pages have ids of class idClass.
+     *
+     * @throws IllegalArgumentException if code or pageClass is already
+     *                                  registered
+     */
+    public static synchronized void register(byte code, Class<? extends Page> pageClass,
+                                             Class<? extends PageId> idClass,
+                                             PageIdFactory ids, PageFactory pages) {
+        if (byCode.containsKey(code) || byClass.containsKey(pageClass)) {
+            throw new IllegalArgumentException("page type " + code + " or " + pageClass.getName() + " is already registered");
+        }
+        PageType type = new PageType(code, ids, pages);
+        byCode.put(code, type);
+        byClass.put(pageClass, type);
+        byIdClass.putIfAbsent(idClass, type);
+    }
+
+    /**
+     * @return the type code of p
+     * @throws IllegalArgumentException if the type of p is not registered
+     */
+    public static byte codeOf(Page p) {
+        PageType type = byClass.get(p.getClass());
+        if (type == null) {
+            throw new IllegalArgumentException("page type " + p.getClass().getName() + " is not registered");
+        }
+        return type.code;
+    }
+
+    /**
+     * @return a type code whose page ids are of the class of pid, for
+     *         rebuilding pid with {@link #newPageId}
+     * @throws IllegalArgumentException if no such page type is registered
+     */
+    public static byte codeOf(PageId pid) {
+        PageType type = byIdClass.get(pid.getClass());
+        if (type == null) {
+            throw new IllegalArgumentException("page id type " + pid.getClass().getName() + " is not registered");
+        }
+        return type.code;
+    }
+
+    /**
+     * @return the page id of a page of type code, serialized as data
+     */
+    public static PageId newPageId(byte code, int[] data) throws IOException {
+        return lookup(code).ids.create(data);
+    }
+
+    /**
+     * @return the page of type code with id pid and contents data
+     */
+    public static Page newPage(byte code, PageId pid, byte[] data) throws IOException {
+        return lookup(code).pages.create(pid, data);
+    }
+
+    private static PageType lookup(byte code) throws IOException {
+        PageType type = byCode.get(code);
+        if (type == null) {
+            throw new IOException("unknown page type " + code + " in log");
+        }
+        return type;
+    }
+}
@@ -0,0 +1,120 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.function.IntSupplier;
+
+/**
+ * Sequential readahead for an iterator that walks the pages of a file by page
+ * number. The iterator reports each page it is about to fetch with
+ * {@link #access}; once a few pages in a row have been consecutive, ReadAhead
+ * asks the buffer pool to prefetch the next window of pages (see
+ * {@link BufferPool#prefetchPages}), which reads them with a single
+ * {@link DbFile#readPages} call.
+ * <p>
+ * The window adapts to how fast the scan consumes pages compared to how fast
+ * they can be read. When the scan reaches a page that is still being
+ * prefetched, it is outrunning the I/O and the window doubles. When a
+ * prefetched page has already been evicted again by the time the scan gets
+ * to it, the scan is too slow for the window and the window halves. A new
+ * window is requested when the scan gets halfway through the previous one,
+ * so reads overlap with processing.
+ * <p>
+ * A ReadAhead belongs to one iterator and is not thread safe.
+ */
+public class ReadAhead {
+
+    /**
+     * Number of consecutive page accesses after which readahead starts.
+     */
+    public static final int SEQUENTIAL_THRESHOLD = 2;
+
+    public static final int MIN_WINDOW = 2;
+    public static final int INITIAL_WINDOW = 4;
+    public static final int MAX_WINDOW = 64;
+
+    private final IntFunction<PageId> pageId;
+    private final IntSupplier numPages;
+
+    private int window = INITIAL_WINDOW;
+    private int lastPage;
+    private int run;
+    // pages [prefetchStart, prefetchEnd) have been handed to prefetchPage
+    // during the current sequential run
+    private int prefetchStart;
+    private int prefetchEnd;
+
+    /**
+     * @param pageId   maps a page number to the id of that page
+     * @param numPages current number of pages in the file
+     */
+    public ReadAhead(IntFunction<PageId> pageId, IntSupplier numPages) {
+        this.pageId = pageId;
+        this.numPages = numPages;
+        reset();
+    }
+
+    /**
+     * Forget the access history, e.g. when the iterator is rewound. The
+     * window size is kept.
+     */
+    public void reset() {
+        lastPage = -2;
+        run = 0;
+        prefetchStart = 0;
+        prefetchEnd = 0;
+    }
+
+    /**
+     * @return the current number of pages read ahead
+     */
+    public int window() {
+        return window;
+    }
+
+    /**
+     * Report that the iterator is about to fetch page pageNo, and prefetch
+     * the pages after it if the access pattern is sequential.
+     */
+    public void access(int pageNo) {
+        BufferPool bp = Database.getBufferPool();
+        if (pageNo == lastPage + 1) {
+            run++;
+        } else {
+            // a jump: start over and wait for the scan to look sequential
+            run = 1;
+            prefetchStart = 0;
+            prefetchEnd = 0;
+        }
+        lastPage = pageNo;
+
+        if (pageNo >= prefetchStart && pageNo < prefetchEnd) {
+            PageId pid = pageId.apply(pageNo);
+            if (bp.isLoading(pid)) {
+                window = Math.min(window * 2, MAX_WINDOW);
+            } else if (!bp.isResident(pid)) {
+                window = Math.max(window / 2, MIN_WINDOW);
+            }
+        }
+
+        if (run < SEQUENTIAL_THRESHOLD || prefetchEnd - pageNo > window / 2) {
+            return;
+        }
+        int from = Math.max(prefetchEnd, pageNo + 1);
+        int to = Math.min(numPages.getAsInt(), pageNo + 1 + window);
+        List<PageId> pids = new ArrayList<>(Math.max(0, to - from));
+        for (int p = from; p < to; p++) {
+            pids.add(pageId.apply(p));
+        }
+        bp.prefetchPages(pids);
+        if (from < to) {
+            if (prefetchEnd == 0) {
+                prefetchStart = from;
+            }
+            prefetchEnd = to;
+        }
+    }
+}
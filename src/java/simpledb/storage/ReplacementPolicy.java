@@ -0,0 +1,67 @@
+package simpledb.storage;
+
+import java.util.function.Predicate;
+
+/**
+ * ReplacementPolicy decides which resident page the {@link BufferPool} should
+ * discard when it needs room for a new one. The buffer pool reports every
+ * page it caches, touches and drops; the policy only keeps the bookkeeping it
+ * needs to rank pages, never the pages themselves.
+ * <p>
+ * Implementations are not required to be thread safe; the buffer pool only
+ * calls a policy while holding the lock that protects it.
+ *
+ * @see ClockReplacementPolicy
+ * @see LruKReplacementPolicy
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Called when a page is brought into the buffer pool.
+     *
+     * @param pid the id of the page that became resident
+     */
+    void pageAdded(PageId pid);
+
+    /**
+     * Called instead of {@link #pageAdded} when a page is read ahead of need,
+     * e.g. by sequential readahead. Until it is first accessed, such a page
+     * should be evicted before any page that was actually used, so that a
+     * scan reading ahead cannot push the working set out of the cache. The
+     * first access should then count the way the load of a demanded page
+     * does, not as a reuse.
+     * <p>
+     * The default treats the page like any other new page.
+     *
+     * @param pid the id of the page that became resident
+     */
+    default void pagePrefetched(PageId pid) {
+        pageAdded(pid);
+    }
+
+    /**
+     * Called on every buffer pool hit on a resident page.
+     *
+     * @param pid the id of the page that was accessed
+     */
+    void pageAccessed(PageId pid);
+
+    /**
+     * Called when a page leaves the buffer pool, either because it was chosen
+     * as a victim or because it was discarded explicitly.
+     *
+     * @param pid the id of the page that is no longer resident
+     */
+    void pageRemoved(PageId pid);
+
+    /**
+     * Pick the page that should be evicted next. The policy must skip pages
+     * for which <code>evictable</code> returns false (under NO STEAL these are
+     * the dirty pages). The returned page is still tracked by the policy until
+     * {@link #pageRemoved} is called for it.
+     *
+     * @param evictable test telling whether a candidate page may be evicted
+     * @return the id of the victim page, or null if no resident page may be evicted
+     */
+    PageId chooseVictim(Predicate<PageId> evictable);
+}
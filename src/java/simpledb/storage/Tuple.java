@@ -1,6 +1,9 @@
 package simpledb.storage;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Iterator;
 
@@ -16,6 +19,10 @@ public class Tuple implements Serializable {
     private TupleDesc tdesc;
     private RecordId rId;
     private Field[] _fields;
+
+    // serialized image the fields not yet in _fields are decoded from, or null
+    private transient ByteBuffer image;
+    private transient int imageOffset;
     /**
      * Create a new tuple with the specified schema (type).
      *
@@ -25,7 +32,23 @@ public class Tuple implements Serializable {
     public Tuple(TupleDesc td) {
         // TODO: some code goes here
         this.tdesc = td;
-        this._fields = new Field[td.getSize()];
+        this._fields = new Field[td.numFields()];
+    }
+
+    /**
+     * Create a tuple whose fields are decoded lazily from their serialized
+     * form: field i is only parsed the first time getField(i) is called.
+     * The caller must not change the bytes of the image while the tuple
+     * still needs them, or must call {@link #materialize()} first.
+     *
+     * @param td     the schema of this tuple
+     * @param image  buffer holding the serialized tuple
+     * @param offset absolute position of the first field in image
+     */
+    public Tuple(TupleDesc td, ByteBuffer image, int offset) {
+        this(td);
+        this.image = image;
+        this.imageOffset = offset;
     }
 
     /**
@@ -75,11 +98,31 @@ public class Tuple implements Serializable {
     public Field getField(int i) {
         // TODO: some code goes here; MAY DONE
         if (i >=0 && this._fields.length > i) {
-            return this._fields[i];
+            Field f = this._fields[i];
+            ByteBuffer img = this.image;
+            if (f == null && img != null) {
+                f = tdesc.getFieldType(i).parse(img, imageOffset + tdesc.getFieldOffset(i));
+                this._fields[i] = f;
+            }
+            return f;
         }
         return null;
     }
 
+    /**
+     * Decode every field that has not been decoded yet, and stop referring to
+     * the serialized image this tuple was created from.
+     */
+    public void materialize() {
+        if (image == null) {
+            return;
+        }
+        for (int i = 0; i < _fields.length; i++) {
+            getField(i);
+        }
+        image = null;
+    }
+
     /**
      * Returns the contents of this Tuple as a string. Note that to pass the
      * system tests, the format needs to be as follows:
@@ -92,7 +135,7 @@ public class Tuple implements Serializable {
         // TODO: some code goes here; MAY DONE
         String[] arr = new String[this._fields.length];
         for (int i = 0; i < this._fields.length; i++) {
-            arr[i] = String.format("%s", this._fields[i]);
+            arr[i] = String.format("%s", getField(i));
         }
         return String.format("<p>\n%s\n</p>", String.join("\t", arr));
     }
@@ -102,6 +145,7 @@ public class Tuple implements Serializable {
      */
     public Iterator<Field> fields() {
         // TODO: some code goes here; MAY DONE
+        materialize();
         int maxSize = this._fields.length;
         Field[] items = this._fields;
         Iterator<Field> it = new Iterator<Field>() {
@@ -127,7 +171,13 @@ public class Tuple implements Serializable {
      */
     public void resetTupleDesc(TupleDesc td) {
         // TODO: some code goes here; MAY DONE
+        materialize();
         this.tdesc = td;
     }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        materialize();
+        out.defaultWriteObject();
+    }
 }
 
@@ -53,6 +53,9 @@ public class TupleDesc implements Serializable {
     // private TDItem[] items;
     private ArrayList<TDItem> items;
 
+    // byte offset of each field within a serialized tuple
+    private int[] offsets;
+
     /**
      * Create a new TupleDesc with typeAr.length fields with fields of the
      * specified types, with associated named fields.
@@ -65,8 +68,12 @@ public class TupleDesc implements Serializable {
     public TupleDesc(Type[] typeAr, String[] fieldAr) {
         // TODO: some code goes here; MAY DONE
         items = new ArrayList<TDItem>();
+        offsets = new int[typeAr.length];
+        int offset = 0;
         for (int i = 0; i < typeAr.length; i++) {
             items.add(new TDItem(typeAr[i], fieldAr[i]));
+            offsets[i] = offset;
+            offset += typeAr[i].getLen();
         }
     }
 
@@ -121,6 +128,21 @@ public class TupleDesc implements Serializable {
         return items.get(i).fieldType;
     }
 
+    /**
+     * Gets the position of the ith field within a serialized tuple, i.e. the
+     * sum of the lengths of the fields before it.
+     *
+     * @param i The index of the field. It must be a valid index.
+     * @return the byte offset of the ith field
+     * @throws NoSuchElementException if i is not a valid field reference.
+     */
+    public int getFieldOffset(int i) throws NoSuchElementException {
+        if (0 > i || i >= offsets.length) {
+            throw new NoSuchElementException();
+        }
+        return offsets[i];
+    }
+
     /**
      * Find the index of the field with a given name.
      *
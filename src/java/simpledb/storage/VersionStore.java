@@ -0,0 +1,298 @@
+package simpledb.storage;
+
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * VersionStore keeps the old versions of heap file records that snapshot
+ * readers may still need, so that a read-only transaction can scan a table
+ * without taking locks and without seeing changes made after it started
+ * (multi-version concurrency control).
+ * <p>
+ * Heap pages only ever hold the newest version of each record. Every insert
+ * or delete first records the before image of the record here, stamped with
+ * the writing transaction; a chain of such entries per record, newest first,
+ * is the undo area from which older versions are rebuilt. When the writer
+ * commits it gets a commit timestamp from a global clock. A snapshot is the
+ * clock value when the reading transaction started, and sees exactly the
+ * writes of transactions that committed at or before it: for each record,
+ * the reader walks the chain from the newest entry and stops at the first
+ * writer it can see, taking the version that writer produced.
+ * <p>
+ * Entries of aborted transactions are kept, marked as never visible, until
+ * no snapshot older than the abort remains. An entry is only needed by
+ * snapshots older than its commit (or abort) stamp, so it is dropped at once
+ * when no snapshot is open, and otherwise by a background thread once the
+ * oldest open snapshot has moved past it.
+ *
+ * @Threadsafe
+ */
+public class VersionStore {
+
+    /**
+     * Time between two garbage collection passes while old versions exist.
+     */
+    public static final long GC_INTERVAL_MS = 50;
+
+    private static final long PENDING = Long.MAX_VALUE;
+
+    // the outcome of one writing transaction, shared by all its entries
+    private static final class Writer {
+        final TransactionId tid;
+        final List<RecordId> written = new ArrayList<>();   // guarded by this
+        volatile long stamp = PENDING;
+        volatile boolean committed = false;
+
+        Writer(TransactionId tid) {
+            this.tid = tid;
+        }
+    }
+
+    private static final class Version {
+        final Writer writer;
+        final Tuple before;     // null: the slot was empty
+        Version older;
+
+        Version(Writer writer, Tuple before, Version older) {
+            this.writer = writer;
+            this.before = before;
+            this.older = older;
+        }
+    }
+
+    private final Object clockLock = new Object();
+    private long clock = 0;                                             // guarded by clockLock
+    private final Map<TransactionId, Long> snapshots = new HashMap<>(); // guarded by clockLock
+
+    private final ConcurrentHashMap<TransactionId, Writer> writers = new ConcurrentHashMap<>();
+    // newest version of each changed record, by page and slot; the inner
+    // maps are guarded by themselves
+    private final ConcurrentHashMap<PageId, Map<Integer, Version>> chains = new ConcurrentHashMap<>();
+    private final List<Writer> finished = new ArrayList<>();            // guarded by this
+    private Thread collector = null;                                    // guarded by this
+
+    /**
+     * Start a snapshot for tid: from now on, {@link #visibleTuples} shows tid
+     * the records as of this moment.
+     */
+    public void beginSnapshot(TransactionId tid) {
+        synchronized (clockLock) {
+            snapshots.put(tid, clock);
+        }
+    }
+
+    /**
+     * @return true if tid reads from a snapshot
+     */
+    public boolean hasSnapshot(TransactionId tid) {
+        synchronized (clockLock) {
+            return snapshots.containsKey(tid);
+        }
+    }
+
+    /**
+     * Record the contents of a record before tid changes it. Must be called
+     * before the page is changed, with the page locked.
+     *
+     * @param before the record, or null if its slot is empty
+     */
+    public void recordWrite(TransactionId tid, RecordId rid, Tuple before) {
+        Writer w = writers.computeIfAbsent(tid, Writer::new);
+        while (true) {
+            Map<Integer, Version> page = chains.computeIfAbsent(rid.getPageId(), k -> new HashMap<>());
+            synchronized (page) {
+                if (chains.get(rid.getPageId()) != page) {
+                    // emptied and dropped meanwhile
+                    continue;
+                }
+                Version newest = page.get(rid.getTupleNumber());
+                if (newest != null && newest.writer == w) {
+                    // only the version before tid's first change can be seen
+                    return;
+                }
+                page.put(rid.getTupleNumber(), new Version(w, before, newest));
+            }
+            break;
+        }
+        synchronized (w) {
+            w.written.add(rid);
+        }
+    }
+
+    /**
+     * Make the writes of tid visible to snapshots started from now on (on
+     * commit), or to none (on abort), and end the snapshot of tid if it had
+     * one. On abort the caller must have restored the records first.
+     */
+    public void transactionComplete(TransactionId tid, boolean commit) {
+        Writer w = writers.remove(tid);
+        boolean snapshotsOpen;
+        synchronized (clockLock) {
+            snapshots.remove(tid);
+            if (w != null) {
+                w.committed = commit;
+                w.stamp = ++clock;
+            }
+            snapshotsOpen = !snapshots.isEmpty();
+        }
+        if (w == null) {
+            return;
+        }
+        if (!snapshotsOpen) {
+            prune(w);
+            return;
+        }
+        synchronized (this) {
+            finished.add(w);
+            if (collector == null) {
+                collector = new Thread(this::runCollector, "simpledb-version-gc");
+                collector.setDaemon(true);
+                collector.start();
+            }
+        }
+    }
+
+    /**
+     * Get the tuples of a page as the snapshot of tid sees them.
+     *
+     * @param current the tuples now on the page, by slot (null for empty
+     *                slots); must have been read before this call
+     */
+    public List<Tuple> visibleTuples(TransactionId tid, PageId pid, Tuple[] current) {
+        long snapshot;
+        synchronized (clockLock) {
+            Long s = snapshots.get(tid);
+            if (s == null) {
+                throw new IllegalStateException("transaction " + tid.getId() + " has no snapshot");
+            }
+            snapshot = s;
+        }
+        Tuple[] visible = current.clone();
+        Map<Integer, Version> page = chains.get(pid);
+        if (page != null) {
+            synchronized (page) {
+                for (Map.Entry<Integer, Version> e : page.entrySet()) {
+                    int slot = e.getKey();
+                    Version v = e.getValue();
+                    Tuple t = current[slot];
+                    // until a visible writer is found, the version to show is
+                    // the one before the writer's change
+                    while (v != null && !(v.writer.committed && v.writer.stamp <= snapshot)) {
+                        t = v.before;
+                        v = v.older;
+                    }
+                    visible[slot] = t;
+                }
+            }
+        }
+        List<Tuple> tuples = new ArrayList<>();
+        for (Tuple t : visible) {
+            if (t != null) {
+                tuples.add(t);
+            }
+        }
+        return tuples;
+    }
+
+    /**
+     * @return the number of records with old versions kept
+     */
+    public int size() {
+        int n = 0;
+        for (Map<Integer, Version> page : chains.values()) {
+            synchronized (page) {
+                n += page.size();
+            }
+        }
+        return n;
+    }
+
+    private void runCollector() {
+        while (true) {
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(GC_INTERVAL_MS));
+            collect();
+            synchronized (this) {
+                if (finished.isEmpty()) {
+                    collector = null;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Drop the versions no open snapshot can see any more.
+     */
+    void collect() {
+        long oldest;
+        synchronized (clockLock) {
+            oldest = Long.MAX_VALUE;
+            for (long s : snapshots.values()) {
+                oldest = Math.min(oldest, s);
+            }
+        }
+        List<Writer> done = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Writer> it = finished.iterator();
+            while (it.hasNext()) {
+                Writer w = it.next();
+                if (w.stamp <= oldest) {
+                    done.add(w);
+                    it.remove();
+                }
+            }
+        }
+        for (Writer w : done) {
+            prune(w);
+        }
+    }
+
+    // remove the entries of w, which no snapshot needs any more
+    private void prune(Writer w) {
+        List<RecordId> written;
+        synchronized (w) {
+            written = new ArrayList<>(w.written);
+        }
+        for (RecordId rid : written) {
+            Map<Integer, Version> page = chains.get(rid.getPageId());
+            if (page == null) {
+                continue;
+            }
+            synchronized (page) {
+                Version v = page.get(rid.getTupleNumber());
+                Version newer = null;
+                while (v != null && v.writer != w) {
+                    newer = v;
+                    v = v.older;
+                }
+                if (v == null) {
+                    continue;
+                }
+                // every open snapshot sees a committed w, so it never looks
+                // past its entry; an aborted write was undone, so only its
+                // own entry goes
+                Version rest = w.committed ? null : v.older;
+                if (newer == null) {
+                    if (rest == null) {
+                        page.remove(rid.getTupleNumber());
+                    } else {
+                        page.put(rid.getTupleNumber(), rest);
+                    }
+                } else {
+                    newer.older = rest;
+                }
+                if (page.isEmpty()) {
+                    chains.remove(rid.getPageId(), page);
+                }
+            }
+        }
+    }
+}
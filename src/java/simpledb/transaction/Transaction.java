@@ -11,10 +11,44 @@ import java.io.IOException;
 
 public class Transaction {
     private final TransactionId tid;
+    private final boolean readOnly;
+    private final boolean optimistic;
     volatile boolean started = false;
 
     public Transaction() {
+        this(false);
+    }
+
+    /**
+     * @param readOnly if true, the transaction only reads, and does so from
+     *                 a snapshot taken when it starts instead of locking
+     *                 what it reads (see {@link simpledb.storage.BufferPool#beginSnapshot})
+     */
+    public Transaction(boolean readOnly) {
+        this(readOnly, false);
+    }
+
+    private Transaction(boolean readOnly, boolean optimistic) {
         tid = new TransactionId();
+        this.readOnly = readOnly;
+        this.optimistic = optimistic;
+    }
+
+    /**
+     * @return a transaction that takes no locks while it runs, and validates
+     *         what it read when it commits (see
+     *         {@link simpledb.storage.BufferPool#beginOptimistic})
+     */
+    public static Transaction optimistic() {
+        return new Transaction(false, true);
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    public boolean isOptimistic() {
+        return optimistic;
     }
 
     /**
@@ -22,6 +56,11 @@ public class Transaction {
      */
     public void start() {
         started = true;
+        if (readOnly) {
+            Database.getBufferPool().beginSnapshot(tid);
+        } else if (optimistic) {
+            Database.getBufferPool().beginOptimistic(tid);
+        }
         try {
             Database.getLogFile().logXactionBegin(tid);
         } catch (IOException e) {
@@ -35,8 +74,12 @@ public class Transaction {
 
     /**
      * Finish the transaction
+     *
+     * @throws TransactionAbortedException if the transaction runs
+     *                                     optimistically and failed
+     *                                     validation; it has been aborted
      */
-    public void commit() throws IOException {
+    public void commit() throws IOException, TransactionAbortedException {
         transactionComplete(false);
     }
 
@@ -44,13 +87,29 @@ public class Transaction {
      * Finish the transaction
      */
     public void abort() throws IOException {
-        transactionComplete(true);
+        complete(true);
     }
 
     /**
      * Handle the details of transaction commit / abort
+     *
+     * @throws TransactionAbortedException if an optimistic commit failed
+     *                                     validation; the transaction has
+     *                                     been aborted
      */
-    public void transactionComplete(boolean abort) throws IOException {
+    public void transactionComplete(boolean abort) throws IOException, TransactionAbortedException {
+        if (started && optimistic && !abort) {
+            try {
+                Database.getBufferPool().validate(tid);
+            } catch (TransactionAbortedException e) {
+                complete(true);
+                throw e;
+            }
+        }
+        complete(abort);
+    }
+
+    private void complete(boolean abort) throws IOException {
 
         if (started) {
             //write abort log record and rollback transaction
@@ -58,12 +117,12 @@ public class Transaction {
                 Database.getLogFile().logAbort(tid); //does rollback too
             }
 
-            // Release locks and flush pages if needed
-            Database.getBufferPool().transactionComplete(tid, !abort); // release locks
-
-            // write commit log record
-            if (!abort) {
-                Database.getLogFile().logCommit(tid);
+            // Release locks and flush pages if needed; a commit record is
+            // written after the updates of the pages, before they are flushed
+            if (abort) {
+                Database.getBufferPool().transactionComplete(tid, false); // release locks
+            } else {
+                Database.getBufferPool().commitTransaction(tid);
             }
 
             //setting this here means we could possibly write multiple abort records -- OK?
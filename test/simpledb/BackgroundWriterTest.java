@@ -0,0 +1,155 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BackgroundWriter;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+public class BackgroundWriterTest extends SimpleDbTestBase {
+
+    private File file;
+    private HeapFile hf;
+
+    @Before public void createTable() throws Exception {
+        file = File.createTempFile("writer", ".dat");
+        file.deleteOnExit();
+        hf = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+    }
+
+    @After public void tearDown() {
+        Database.getBufferPool().stopBackgroundWriter();
+        file.delete();
+    }
+
+    private int slotsPerPage() throws Exception {
+        return new HeapPage(new HeapPageId(hf.getId(), 0), HeapPage.createEmptyPageData()).getNumUnusedSlots();
+    }
+
+    private int tuplesOnDisk(int pageNo) throws Exception {
+        HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), pageNo));
+        return slotsPerPage() - page.getNumUnusedSlots();
+    }
+
+    /**
+     * Unit test for BufferPool.flushOldestPages: the page of a running
+     * transaction is written, and the abort of the transaction undoes it on
+     * disk.
+     */
+    @Test public void stolenPageIsUndoneOnAbort() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        Transaction t = new Transaction();
+        t.start();
+        bp.insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(1, 2));
+        assertEquals(1, bp.getDirtyPageCount());
+
+        assertEquals(1, bp.flushOldestPages(8));
+        assertEquals(0, bp.getDirtyPageCount());
+        assertEquals(1, tuplesOnDisk(0));
+
+        t.transactionComplete(true);
+        assertEquals(0, tuplesOnDisk(0));
+    }
+
+    /**
+     * Unit test for BufferPool.flushOldestPages: a page written twice while
+     * its transaction runs, with a change undone in between, is recovered
+     * as it was committed.
+     */
+    @Test public void pageWrittenTwiceIsRecovered() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        Transaction setup = new Transaction();
+        setup.start();
+        for (int i = 0; i < 9; i++) {
+            bp.insertTuple(setup.getId(), hf.getId(), Utility.getHeapTuple(i, 2));
+        }
+        setup.commit();
+
+        Transaction t = new Transaction();
+        t.start();
+        HeapPage page = (HeapPage) bp.getPage(t.getId(), new HeapPageId(hf.getId(), 0), Permissions.READ_WRITE);
+        bp.deleteTuple(t.getId(), page.iterator().next());
+        assertEquals(1, bp.flushOldestPages(8));
+        bp.insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(0, 2));
+        Tuple last = null;
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); ) {
+            last = it.next();
+        }
+        bp.deleteTuple(t.getId(), last);
+        assertEquals(1, bp.flushOldestPages(8));
+        t.commit();
+
+        Database.reset();
+        hf = Utility.openHeapFile(2, file);
+        Database.getLogFile().recover();
+        List<Integer> values = new ArrayList<>();
+        TransactionId tid = new TransactionId();
+        page = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        page.iterator().forEachRemaining(tuple -> values.add(((IntField) tuple.getField(0)).getValue()));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(List.of(0, 1, 2, 3, 4, 5, 6, 7), values);
+    }
+
+    /**
+     * Unit test for BackgroundWriter: a transaction dirties more pages than
+     * the buffer pool holds, and the writer keeps the pool supplied with
+     * clean pages and takes checkpoints meanwhile.
+     */
+    @Test public void writerMakesRoom() throws Exception {
+        int pages = 20;
+        BufferPool bp = Database.resetBufferPool(pages);
+        BackgroundWriter writer = bp.startBackgroundWriter(5, 8, 10);
+
+        Transaction t = new Transaction();
+        t.start();
+        int perPage = slotsPerPage();
+        for (int i = 0; i < 2 * pages * perPage; i++) {
+            bp.insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(i, 2));
+            if (i % perPage == 0) {
+                // leave the writer time to keep up with a page of inserts
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (bp.getDirtyPageCount() > pages / 2 && System.nanoTime() < deadline) {
+                    Thread.sleep(1);
+                }
+            }
+        }
+        t.commit();
+
+        assertTrue(hf.numPages() >= 2 * pages);
+        assertTrue(writer.getPagesWritten() >= pages);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (writer.getCheckpointCount() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue(writer.getCheckpointCount() > 0);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BackgroundWriterTest.class);
+    }
+}
@@ -0,0 +1,105 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Utility;
+import simpledb.execution.BlockNestedLoopJoin;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.LogicalJoinNode;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BlockNestedLoopJoinTest extends SimpleDbTestBase {
+
+  // a tuple of two int fields
+  private static final int TUPLE_BYTES = 8;
+
+  private static final int[] OUTER_KEYS = { 1, 3, 5, 7, 9 };
+  private static final int[] INNER_KEYS = { 2, 4, 6, 8 };
+
+  private int innerRewinds;
+  private OpIterator outer;
+  private OpIterator inner;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() {
+    TupleDesc td2 = Utility.getTupleDesc(2, "b.f");
+    innerRewinds = 0;
+    this.outer = TestUtil.createKeyedTupleList("a.f", OUTER_KEYS);
+    this.inner = new TupleIterator(td2, TestUtil.createKeyedTuples(td2, INNER_KEYS)) {
+      private static final long serialVersionUID = 1L;
+
+      @Override public void rewind() {
+        innerRewinds++;
+        super.rewind();
+      }
+    };
+  }
+
+  /**
+   * Unit test for BlockNestedLoopJoin.getNext() with blocks of two tuples:
+   * the inner relation is scanned once per block, not once per outer tuple.
+   */
+  @Test public void smallBlocks() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    BlockNestedLoopJoin op = new BlockNestedLoopJoin(pred, outer, inner, 2 * TUPLE_BYTES);
+    assertEquals(2, op.getBlockSize());
+    op.open();
+    assertEquals(10, TestUtil.countTuples(op));
+    // three blocks
+    assertEquals(2, innerRewinds);
+
+    // the same tuples as nested loops, in another order
+    op = new BlockNestedLoopJoin(pred, TestUtil.createKeyedTupleList("a.f", OUTER_KEYS),
+        TestUtil.createKeyedTupleList("b.f", INNER_KEYS), 2 * TUPLE_BYTES);
+    TestUtil.checkAgainstNestedLoops(op, pred, TestUtil.createKeyedTupleList("a.f", OUTER_KEYS),
+        TestUtil.createKeyedTupleList("b.f", INNER_KEYS), false);
+  }
+
+  /**
+   * Unit test for BlockNestedLoopJoin.getNext(): with the default budget the
+   * whole outer relation fits in one block.
+   */
+  @Test public void oneBlock() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    BlockNestedLoopJoin op = new BlockNestedLoopJoin(pred, outer, inner);
+    op.open();
+    assertEquals(10, TestUtil.countTuples(op));
+    assertEquals(0, innerRewinds);
+    op.rewind();
+    assertEquals(10, TestUtil.countTuples(op));
+    assertTrue(TestUtil.checkExhausted(op));
+  }
+
+  /**
+   * Unit test for JoinOptimizer.instantiateJoin: a block nested-loops join
+   * for predicates other than equality.
+   */
+  @Test public void chosenForInequality() throws Exception {
+    OpIterator j = JoinOptimizer.instantiateJoin(
+        new LogicalJoinNode("a", "b", "f0", "f0", Predicate.Op.LESS_THAN), outer, inner);
+    assertTrue(j instanceof BlockNestedLoopJoin);
+    j = JoinOptimizer.instantiateJoin(
+        new LogicalJoinNode("a", "b", "f0", "f0", Predicate.Op.EQUALS), outer, inner);
+    assertTrue(j instanceof HashEquiJoin);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BlockNestedLoopJoinTest.class);
+  }
+}
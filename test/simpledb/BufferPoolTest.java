@@ -0,0 +1,263 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.ClockReplacementPolicy;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+public class BufferPoolTest extends SimpleDbTestBase {
+
+    private static final int TABLE_ID = 4242;
+
+    /**
+     * DbFile that builds empty heap pages and counts how often it is read.
+     */
+    static class CountingFile extends TestUtil.SkeletonFile {
+        final AtomicInteger reads = new AtomicInteger();
+        volatile long readDelayMs = 0;
+
+        CountingFile() {
+            super(TABLE_ID, Utility.getTupleDesc(2));
+        }
+
+        @Override
+        public Page readPage(PageId id) {
+            reads.incrementAndGet();
+            try {
+                Thread.sleep(readDelayMs);
+                return new HeapPage((HeapPageId) id, HeapPage.createEmptyPageData());
+            } catch (InterruptedException | IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private CountingFile file;
+    private final TransactionId tid = new TransactionId();
+
+    @Before public void addFile() {
+        file = new CountingFile();
+        Database.getCatalog().addTable(file, "counting");
+    }
+
+    /**
+     * Unit test for BufferPool hit/miss/eviction counters.
+     */
+    @Test public void counters() throws Exception {
+        BufferPool bp = new BufferPool(2, 1, ClockReplacementPolicy::new);
+        bp.getPage(tid, new HeapPageId(TABLE_ID, 0), Permissions.READ_ONLY);
+        bp.getPage(tid, new HeapPageId(TABLE_ID, 0), Permissions.READ_ONLY);
+        bp.getPage(tid, new HeapPageId(TABLE_ID, 1), Permissions.READ_ONLY);
+        bp.getPage(tid, new HeapPageId(TABLE_ID, 2), Permissions.READ_ONLY);
+
+        assertEquals(1, bp.getHitCount());
+        assertEquals(3, bp.getMissCount());
+        assertEquals(1, bp.getEvictionCount());
+        assertEquals(3, file.reads.get());
+    }
+
+    /**
+     * Unit test for BufferPool capacity: the limit is global even when the
+     * pool is split into partitions.
+     */
+    @Test public void capacityAcrossPartitions() throws Exception {
+        BufferPool bp = new BufferPool(4, 4, ClockReplacementPolicy::new);
+        for (int i = 0; i < 20; i++) {
+            bp.getPage(tid, new HeapPageId(TABLE_ID, i), Permissions.READ_ONLY);
+        }
+        assertEquals(16, bp.getEvictionCount());
+    }
+
+    /**
+     * Replacement policy that can be made to hold its partition lock for a
+     * while when choosing a victim, and records the pages it manages.
+     */
+    static class SlowPolicy extends ClockReplacementPolicy {
+        volatile long victimDelayMs = 0;
+        final Set<PageId> pages = ConcurrentHashMap.newKeySet();
+
+        SlowPolicy(int capacity) {
+            super(capacity);
+        }
+
+        @Override public void pageAdded(PageId pid) {
+            pages.add(pid);
+            super.pageAdded(pid);
+        }
+
+        @Override public void pageRemoved(PageId pid) {
+            pages.remove(pid);
+            super.pageRemoved(pid);
+        }
+
+        @Override public PageId chooseVictim(java.util.function.Predicate<PageId> evictable) {
+            try {
+                Thread.sleep(victimDelayMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.chooseVictim(evictable);
+        }
+    }
+
+    /**
+     * Unit test for eviction under contention: a miss in a partition with no
+     * clean page waits for a busy partition that has one, instead of failing.
+     */
+    @Test public void evictionWaitsForBusyPartition() throws Exception {
+        final List<SlowPolicy> policies = new ArrayList<>();
+        final BufferPool bp = new BufferPool(1, 2, n -> {
+            SlowPolicy p = new SlowPolicy(n);
+            policies.add(p);
+            return p;
+        });
+        // read pages until each partition has had two; only the last one
+        // read stays resident, in what becomes the busy partition
+        List<List<PageId>> seen = Arrays.asList(new ArrayList<>(), new ArrayList<>());
+        PageId last = null;
+        for (int i = 0; seen.get(0).size() < 2 || seen.get(1).size() < 2; i++) {
+            last = new HeapPageId(TABLE_ID, i);
+            bp.getPage(tid, last, Permissions.READ_ONLY);
+            seen.get(policies.get(0).pages.contains(last) ? 0 : 1).add(last);
+        }
+        int busy = seen.get(0).contains(last) ? 0 : 1;
+        final PageId other = seen.get(busy).get(0).equals(last) ? seen.get(busy).get(1) : seen.get(busy).get(0);
+        PageId empty = seen.get(1 - busy).get(0);
+
+        policies.get(busy).victimDelayMs = 300;
+        final AtomicInteger failures = new AtomicInteger();
+        Thread t = new Thread(() -> {
+            try {
+                bp.getPage(new TransactionId(), other, Permissions.READ_ONLY);
+            } catch (Exception e) {
+                failures.incrementAndGet();
+            }
+        });
+        t.start();
+        Thread.sleep(100);
+        // the busy partition's lock is held while it chooses a victim
+        bp.getPage(new TransactionId(), empty, Permissions.READ_ONLY);
+        t.join();
+        assertEquals(0, failures.get());
+        assertTrue(bp.isResident(empty));
+    }
+
+    /**
+     * Unit test for single-flight loading: concurrent misses on the same page
+     * read it from disk once and all get the same page.
+     */
+    @Test public void concurrentMissesReadOnce() throws Exception {
+        final BufferPool bp = new BufferPool(10);
+        final PageId pid = new HeapPageId(TABLE_ID, 0);
+        file.readDelayMs = 200;
+
+        final int nThreads = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final Page[] results = new Page[nThreads];
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < nThreads; i++) {
+            final int n = i;
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                    results[n] = bp.getPage(new TransactionId(), pid, Permissions.READ_ONLY);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        assertEquals(1, file.reads.get());
+        assertEquals(1, bp.getDiskReadCount());
+        for (Page p : results) {
+            assertSame(results[0], p);
+        }
+    }
+
+    /**
+     * Unit test for prefetching: the page is read in the background, a later
+     * getPage is a hit, and an unused prefetched page is the first victim.
+     */
+    @Test public void prefetchedPagesAreEvictedFirst() throws Exception {
+        BufferPool bp = new BufferPool(2, 1, ClockReplacementPolicy::new);
+        PageId p0 = new HeapPageId(TABLE_ID, 0);
+        PageId p1 = new HeapPageId(TABLE_ID, 1);
+        PageId p2 = new HeapPageId(TABLE_ID, 2);
+
+        bp.getPage(tid, p0, Permissions.READ_ONLY);
+        bp.prefetchPage(p1);
+        while (bp.isLoading(p1)) {
+            Thread.sleep(5);
+        }
+        assertTrue(bp.isResident(p1));
+        assertEquals(1, bp.getPrefetchCount());
+
+        bp.getPage(tid, p2, Permissions.READ_ONLY);
+        assertTrue(bp.isResident(p0));
+        assertFalse(bp.isResident(p1));
+
+        bp.prefetchPage(p1);
+        while (bp.isLoading(p1)) {
+            Thread.sleep(5);
+        }
+        bp.getPage(tid, p1, Permissions.READ_ONLY);
+        assertEquals(1, bp.getHitCount());
+        assertEquals(4, file.reads.get());
+    }
+
+    /**
+     * Unit test for prefetching a run of pages from a file that can only read
+     * them one at a time.
+     */
+    @Test public void prefetchRunWithoutBatchReads() throws Exception {
+        BufferPool bp = new BufferPool(16, 1, ClockReplacementPolicy::new);
+        List<PageId> run = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            run.add(new HeapPageId(TABLE_ID, i));
+        }
+        bp.prefetchPages(run);
+        for (PageId pid : run) {
+            bp.getPage(tid, pid, Permissions.READ_ONLY);
+        }
+        assertEquals(3, file.reads.get());
+        assertEquals(3, bp.getPrefetchCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolTest.class);
+    }
+}
@@ -0,0 +1,119 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.BulkLoad;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleIterator;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+public class BulkLoadTest extends TestUtil.CreateHeapFile {
+
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+    }
+
+    /**
+     * Unit test for BulkLoad: tuples end up packed into full pages, the
+     * last page partly filled, and they can be scanned back.
+     */
+    @Test public void loadPacksPages() throws Exception {
+        int rows = 504 * 70 + 10;   // more than one batch of pages
+        List<Tuple> input = new ArrayList<>();
+        List<List<Integer>> expected = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            input.add(Utility.getHeapTuple(new int[]{i, -i}));
+            List<Integer> row = new ArrayList<>();
+            row.add(i);
+            row.add(-i);
+            expected.add(row);
+        }
+        int recordsBefore = Database.getLogFile().getTotalRecords();
+
+        BulkLoad load = new BulkLoad(tid, new TupleIterator(Utility.getTupleDesc(2), input), empty.getId());
+        load.open();
+        assertTrue(load.hasNext());
+        assertEquals(new IntField(rows), load.next().getField(0));
+        load.close();
+
+        // the loaded pages follow the one empty page the file starts with
+        assertEquals(72, empty.numPages());
+        assertEquals(71, Database.getLogFile().getTotalRecords() - recordsBefore);
+        SystemTestUtil.matchTuples(empty, tid, expected);
+
+        // inserts fill the free pages, not new ones
+        for (int i = 0; i < 504 * 2 - 10; i++) {
+            Database.getBufferPool().insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(72, empty.numPages());
+        Database.getBufferPool().insertTuple(tid, empty.getId(), Utility.getHeapTuple(0, 2));
+        assertEquals(73, empty.numPages());
+    }
+
+    /**
+     * Unit test for BulkLoad: the loaded pages belong to the loading
+     * transaction until it completes, so the inserts of others go elsewhere
+     * and survive an abort of the load.
+     */
+    @Test public void abortAfterFinish() throws Exception {
+        List<Tuple> input = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            input.add(Utility.getHeapTuple(new int[]{i, -i}));
+        }
+        Transaction loader = new Transaction();
+        loader.start();
+        BulkLoad load = new BulkLoad(loader.getId(), new TupleIterator(Utility.getTupleDesc(2), input), empty.getId());
+        load.open();
+        assertEquals(new IntField(10), load.next().getField(0));
+        load.close();
+        assertEquals(2, empty.numPages());
+
+        // fill the page the file started with, and one more tuple
+        Transaction other = new Transaction();
+        other.start();
+        List<List<Integer>> expected = new ArrayList<>();
+        for (int i = 0; i < 504 + 1; i++) {
+            Database.getBufferPool().insertTuple(other.getId(), empty.getId(), Utility.getHeapTuple(i, 2));
+            List<Integer> row = new ArrayList<>();
+            row.add(i);
+            row.add(i);
+            expected.add(row);
+        }
+        assertEquals(3, empty.numPages());
+
+        loader.abort();
+        other.commit();
+        SystemTestUtil.matchTuples(empty, expected);
+
+        // once the load has completed, its last page takes inserts again
+        TransactionId next = new TransactionId();
+        for (int i = 0; i < 504; i++) {
+            Database.getBufferPool().insertTuple(next, empty.getId(), Utility.getHeapTuple(i, 2));
+        }
+        Database.getBufferPool().transactionComplete(next);
+        assertEquals(3, empty.numPages());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BulkLoadTest.class);
+    }
+}
@@ -0,0 +1,110 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import simpledb.storage.FileHandleCache;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class FileHandleCacheTest extends SimpleDbTestBase {
+
+    private static File tempFile() throws Exception {
+        File f = File.createTempFile("fhc", ".dat");
+        f.deleteOnExit();
+        return f;
+    }
+
+    /**
+     * Unit test for positional reads and writes through a shared handle.
+     */
+    @Test public void readWrite() throws Exception {
+        FileHandleCache cache = new FileHandleCache(4, 60_000);
+        File f = tempFile();
+        try (FileHandleCache.Handle h = cache.acquire(f)) {
+            h.writeFully(ByteBuffer.wrap(new byte[]{1, 2, 3, 4}), 8);
+        }
+        ByteBuffer buf = ByteBuffer.allocate(4);
+        try (FileHandleCache.Handle h = cache.acquire(f)) {
+            assertEquals(4, h.readFully(buf, 8));
+            // reading past the end stops short
+            assertEquals(0, h.readFully(ByteBuffer.allocate(4), 12));
+        }
+        assertEquals(3, buf.get(2));
+        assertEquals(12, f.length());
+    }
+
+    /**
+     * Unit test for handle sharing and the open channel limit.
+     */
+    @Test public void limitsOpenChannels() throws Exception {
+        FileHandleCache cache = new FileHandleCache(2, 60_000);
+        File f1 = tempFile(), f2 = tempFile(), f3 = tempFile();
+
+        FileHandleCache.Handle h1 = cache.acquire(f1);
+        try (FileHandleCache.Handle again = cache.acquire(f1)) {
+            assertSame(h1.channel(), again.channel());
+        }
+        cache.acquire(f2).close();
+        cache.acquire(f3).close();
+
+        // f1 is still in use so f2, the least recently used idle one, went
+        assertEquals(2, cache.openCount());
+        assertTrue(h1.channel().isOpen());
+        h1.close();
+    }
+
+    /**
+     * Unit test for closing channels that have been idle.
+     */
+    @Test public void closesIdleChannels() throws Exception {
+        FileHandleCache cache = new FileHandleCache(8, 20);
+        FileHandleCache.Handle h = cache.acquire(tempFile());
+        h.close();
+        Thread.sleep(50);
+        cache.acquire(tempFile()).close();
+
+        assertEquals(1, cache.openCount());
+        assertTrue(!h.channel().isOpen());
+    }
+
+    /**
+     * Unit test for files replaced under a cached channel: once the file is
+     * closed, the next acquire opens the new file, and the old channel stays
+     * usable until released.
+     */
+    @Test public void reopensReplacedFile() throws Exception {
+        FileHandleCache cache = new FileHandleCache(4, 60_000);
+        File f = tempFile();
+        FileHandleCache.Handle old = cache.acquire(f);
+        old.writeFully(ByteBuffer.wrap(new byte[]{1, 2, 3, 4}), 0);
+
+        assertTrue(f.delete());
+        cache.close(f);
+        try (FileHandleCache.Handle h = cache.acquire(f)) {
+            assertTrue(h.channel() != old.channel());
+            assertEquals(0, h.readFully(ByteBuffer.allocate(4), 0));
+            h.writeFully(ByteBuffer.wrap(new byte[]{5, 6}), 0);
+        }
+        assertEquals(2, f.length());
+
+        assertTrue(old.channel().isOpen());
+        assertEquals(4, old.readFully(ByteBuffer.allocate(4), 0));
+        old.close();
+        assertTrue(!old.channel().isOpen());
+        assertEquals(1, cache.openCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FileHandleCacheTest.class);
+    }
+}
@@ -0,0 +1,45 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.storage.FreeSpaceMap;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+
+    /**
+     * Unit test for FreeSpaceMap.findPage(): pages are assumed to have room
+     * until they are seen full, and freed pages are found again.
+     */
+    @Test public void findPage() {
+        FreeSpaceMap fsm = new FreeSpaceMap();
+        assertEquals(0, fsm.findPage(3));
+
+        fsm.update(0, 0);
+        fsm.update(1, 0);
+        assertTrue(fsm.isFull(1));
+        assertEquals(2, fsm.findPage(3));
+
+        fsm.update(2, 0);
+        assertEquals(-1, fsm.findPage(3));
+        // a page appended to the file may have room
+        assertEquals(3, fsm.findPage(4));
+
+        // a delete on an earlier page makes it the first candidate again
+        fsm.update(1, 1);
+        assertFalse(fsm.isFull(1));
+        assertEquals(1, fsm.findPage(4));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
@@ -0,0 +1,140 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LogFile;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+public class GroupCommitTest extends SimpleDbTestBase {
+
+    private File file;
+    private LogFile log;
+    private ExecutorService threads;
+
+    @Before public void setUp() throws Exception {
+        file = File.createTempFile("groupcommit", ".log");
+        file.deleteOnExit();
+        log = new LogFile(file);
+        threads = Executors.newCachedThreadPool();
+    }
+
+    @After public void tearDown() throws Exception {
+        threads.shutdownNow();
+        log.delete();
+    }
+
+    private List<Future<?>> commitAsync(int n) {
+        List<Future<?>> commits = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            commits.add(threads.submit(() -> {
+                TransactionId tid = new TransactionId();
+                log.logXactionBegin(tid);
+                log.logCommit(tid);
+                return null;
+            }));
+        }
+        return commits;
+    }
+
+    /**
+     * Unit test for group commit: commits arriving within the window are
+     * made durable by a single force, as soon as the batch is full.
+     */
+    @Test public void fullBatchIsForcedOnce() throws Exception {
+        log.setGroupCommit(TimeUnit.SECONDS.toMicros(30), 8);
+        for (Future<?> commit : commitAsync(8)) {
+            commit.get(10, TimeUnit.SECONDS);
+        }
+        assertEquals(1, log.getCommitFlushCount());
+        assertEquals(8, log.getMaxCommitBatch());
+        assertEquals(8.0, log.getAverageCommitBatch(), 0.0);
+    }
+
+    /**
+     * Unit test for group commit: a lone commit is forced once the window
+     * closes, without waiting for the batch to fill.
+     */
+    @Test public void windowBoundsTheWait() throws Exception {
+        log.setGroupCommit(TimeUnit.MILLISECONDS.toMicros(20), 1000);
+        long start = System.nanoTime();
+        commitAsync(1).get(0).get(10, TimeUnit.SECONDS);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertEquals(1, log.getCommitFlushCount());
+        assertEquals(1, log.getMaxCommitBatch());
+    }
+
+    /**
+     * Unit test for group commit of transactions that write pages: their
+     * updates are logged before their COMMIT records, whose group force
+     * covers them, so the log is forced less often than once per commit.
+     */
+    @Test public void writingCommitsShareForces() throws Exception {
+        int n = 8;
+        LogFile dbLog = Database.getLogFile();
+        dbLog.setGroupCommit(TimeUnit.SECONDS.toMicros(30), n);
+        List<HeapFile> tables = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            File f = File.createTempFile("groupcommit", ".dat");
+            f.deleteOnExit();
+            tables.add(Utility.createEmptyHeapFile(f.getAbsolutePath(), 2));
+        }
+
+        long forces = dbLog.getForceCount();
+        List<Future<?>> commits = new ArrayList<>();
+        for (HeapFile hf : tables) {
+            commits.add(threads.submit(() -> {
+                Transaction t = new Transaction();
+                t.start();
+                for (int j = 0; j < 3; j++) {
+                    Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(j, 2));
+                }
+                t.commit();
+                return null;
+            }));
+        }
+        for (Future<?> commit : commits) {
+            commit.get(10, TimeUnit.SECONDS);
+        }
+        assertTrue(dbLog.getForceCount() - forces < n);
+
+        // the pages reached disk after the commits
+        for (HeapFile hf : tables) {
+            HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+            int tuples = 0;
+            for (Iterator<Tuple> it = page.iterator(); it.hasNext(); it.next()) {
+                tuples++;
+            }
+            assertEquals(3, tuples);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GroupCommitTest.class);
+    }
+}
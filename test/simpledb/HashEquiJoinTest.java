@@ -0,0 +1,110 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+  // a tuple of two int fields
+  private static final int TUPLE_BYTES = 8;
+
+  // n tuples {key(i), i}
+  private static OpIterator tuples(int n, java.util.function.IntUnaryOperator key) {
+    int[] data = new int[2 * n];
+    for (int i = 0; i < n; i++) {
+      data[2 * i] = key.applyAsInt(i);
+      data[2 * i + 1] = i;
+    }
+    return TestUtil.createTupleList(2, data);
+  }
+
+  private static JoinPredicate equals() {
+    return new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+  }
+
+  /**
+   * Unit test for HashEquiJoin.getNext() with a build side that fits in
+   * memory.
+   */
+  @Test public void inMemory() throws Exception {
+    HashEquiJoin op = new HashEquiJoin(equals(), tuples(100, i -> i % 10), tuples(20, i -> i));
+    TestUtil.checkAgainstNestedLoops(op, equals(), tuples(100, i -> i % 10), tuples(20, i -> i), false);
+    assertEquals(0, op.getSpilledPartitionCount());
+    op.rewind();
+    // keys 0..9 match 10 build tuples each
+    assertEquals(100, TestUtil.countTuples(op));
+    op.close();
+  }
+
+  /**
+   * Unit test for HashEquiJoin.getNext() with a build side ten times the
+   * memory budget: partitions are spilled and joined afterwards.
+   */
+  @Test public void spilled() throws Exception {
+    int n = 1000;
+    HashEquiJoin op = new HashEquiJoin(equals(), tuples(n, i -> i), tuples(n, i -> n - 1 - i),
+        n / 10 * TUPLE_BYTES);
+    TestUtil.checkAgainstNestedLoops(op, equals(), tuples(n, i -> i), tuples(n, i -> n - 1 - i), false);
+    assertTrue(op.getSpilledPartitionCount() > 0);
+    op.rewind();
+    assertEquals(n, TestUtil.countTuples(op));
+    assertTrue(TestUtil.checkExhausted(op));
+    op.close();
+  }
+
+  /**
+   * Unit test for HashEquiJoin.getNext(): a spilled partition of a single
+   * key does not split up when hashed again, and is joined by nested loops.
+   */
+  @Test public void skewed() throws Exception {
+    HashEquiJoin op = new HashEquiJoin(equals(), tuples(300, i -> 7), tuples(3, i -> 7),
+        10 * TUPLE_BYTES);
+    TestUtil.checkAgainstNestedLoops(op, equals(), tuples(300, i -> 7), tuples(3, i -> 7), false);
+    op.rewind();
+    assertEquals(900, TestUtil.countTuples(op));
+    assertEquals(1, op.getSpilledPartitionCount());
+    op.close();
+  }
+
+  /**
+   * Unit test for HashEquiJoin.getNext() on string keys, which go into
+   * hash maps rather than int tables, spilled as well.
+   */
+  @Test public void stringKeys() throws Exception {
+    int n = 200;
+    Object[] build = new Object[2 * n];
+    Object[] probe = new Object[2 * n];
+    for (int i = 0; i < n; i++) {
+      build[2 * i] = "key" + (i % 50);
+      build[2 * i + 1] = i;
+      probe[2 * i] = "key" + i;
+      probe[2 * i + 1] = i;
+    }
+    int tupleBytes = TestUtil.createTupleList(2, build).getTupleDesc().getSize();
+    HashEquiJoin op = new HashEquiJoin(equals(), TestUtil.createTupleList(2, build),
+        TestUtil.createTupleList(2, probe), n / 4 * tupleBytes);
+    TestUtil.checkAgainstNestedLoops(op, equals(), TestUtil.createTupleList(2, build),
+        TestUtil.createTupleList(2, probe), false);
+    op.rewind();
+    // keys 0..49 match 4 build tuples each
+    assertEquals(n, TestUtil.countTuples(op));
+    assertTrue(op.getSpilledPartitionCount() > 0);
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashEquiJoinTest.class);
+  }
+}
@@ -81,6 +81,56 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() in memory-mapped mode, including a
+     * remap after the file grows.
+     */
+    @Test
+    public void readPageMapped() throws Exception {
+        Database.getCatalog().setMemoryMapped(hf.getId(), true);
+        assertTrue(Database.getCatalog().isMemoryMapped(hf.getId()));
+
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        assertEquals(484, page.getNumUnusedSlots());
+        assertTrue(page.isSlotUsed(1));
+        assertFalse(page.isSlotUsed(20));
+
+        // append a copy of page 0 through the channel; the mapping must grow
+        HeapPageId pid1 = new HeapPageId(hf.getId(), 1);
+        hf.writePage(new HeapPage(pid1, page.getPageData()));
+        assertEquals(2, hf.numPages());
+        HeapPage page1 = (HeapPage) hf.readPage(pid1);
+        assertArrayEquals(page.getPageData(), page1.getPageData());
+
+        try {
+            hf.readPage(new HeapPageId(hf.getId(), 2));
+            fail("expected exception");
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
+    /**
+     * Unit test for HeapFile.readPage() in memory-mapped mode: a page read
+     * from the mapping is not changed by later writes to the file.
+     */
+    @Test
+    public void mappedPageUnaffectedByWrites() throws Exception {
+        Database.getCatalog().setMemoryMapped(hf.getId(), true);
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        HeapPage run = (HeapPage) hf.readPages(pid, 1).get(0);
+        byte[] before = page.getPageData();
+
+        hf.writePage(new HeapPage(pid, HeapPage.createEmptyPageData()));
+        assertEquals(504, ((HeapPage) hf.readPage(pid)).getNumUnusedSlots());
+
+        assertEquals(484, page.getNumUnusedSlots());
+        assertEquals(484, run.getNumUnusedSlots());
+        assertArrayEquals(before, page.getPageData());
+        assertNotNull(page.iterator().next());
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -125,6 +175,42 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * Unit test for HeapFile.readPages()
+     */
+    @Test
+    public void readPages() throws Exception {
+        HeapFile threePageFile = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, null);
+        int id = threePageFile.getId();
+
+        // asking for more pages than are left stops at the end of the file
+        List<Page> pages = threePageFile.readPages(new HeapPageId(id, 1), 5);
+        assertEquals(2, pages.size());
+        for (int i = 0; i < pages.size(); i++) {
+            HeapPageId pid = new HeapPageId(id, i + 1);
+            assertEquals(pid, pages.get(i).getId());
+            assertArrayEquals(threePageFile.readPage(pid).getPageData(), pages.get(i).getPageData());
+        }
+    }
+
+    /**
+     * Unit test for readahead: a full scan returns every tuple, and the pages
+     * ahead of it are read by the prefetcher rather than on demand.
+     */
+    @Test
+    public void testIteratorReadAhead() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile bigFile = SystemTestUtil.createRandomHeapFile(2, 504 * 20, null, tuples);
+        assertEquals(20, bigFile.numPages());
+
+        BufferPool bp = Database.getBufferPool();
+        bp.resetStats();
+        SystemTestUtil.matchTuples(bigFile, tid, tuples);
+
+        assertTrue(bp.getPrefetchCount() > 0);
+        assertEquals(20, bp.getPrefetchCount() + bp.getDiskReadCount());
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,167 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Utility;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.IndexNestedLoopJoin;
+import simpledb.execution.IndexOpIterator;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.LogicalJoinNode;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+  // a tuple of two int fields
+  private static final int TUPLE_BYTES = 8;
+
+  private static final int[] OUTER_KEYS = { 5, 1, 3, 1, 5, 9, 4 };
+  private static final int[] INNER_KEYS = { 1, 1, 3, 4, 5, 7 };
+
+  /**
+   * An index over tuples sorted on field 0, which records the keys it is
+   * probed with.
+   */
+  private static class SortedIndex extends TupleIterator implements IndexOpIterator {
+    private static final long serialVersionUID = 1L;
+
+    private final List<Tuple> tuples;
+    private final List<Integer> probed = new ArrayList<>();
+    private List<Tuple> found = new ArrayList<>();
+    private int pos = 0;
+
+    SortedIndex(TupleDesc td, List<Tuple> tuples) {
+      super(td, tuples);
+      this.tuples = tuples;
+    }
+
+    public void open(IndexPredicate ipred) {
+      super.open();
+      found = new ArrayList<>();
+      for (Tuple t : tuples) {
+        if (t.getField(0).compare(ipred.getOp(), ipred.getField())) {
+          found.add(t);
+        }
+      }
+      pos = 0;
+      probed.add(((IntField) ipred.getField()).getValue());
+    }
+
+    public void rewind(IndexPredicate ipred) {
+      open(ipred);
+    }
+
+    @Override public boolean hasNext() {
+      return pos < found.size();
+    }
+
+    @Override public Tuple next() {
+      return found.get(pos++);
+    }
+  }
+
+  private static TupleIterator outer(int... keys) {
+    return TestUtil.createKeyedTupleList("a.f", keys);
+  }
+
+  private static SortedIndex index(int... keys) {
+    TupleDesc td = Utility.getTupleDesc(2, "b.f");
+    return new SortedIndex(td, TestUtil.createKeyedTuples(td, keys));
+  }
+
+  // an index join returns the same tuples as nested loops, in another order
+  private static void checkAgainstNestedLoops(Predicate.Op op) throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, op, 0);
+    TestUtil.checkAgainstNestedLoops(new IndexNestedLoopJoin(pred, outer(OUTER_KEYS), index(INNER_KEYS)),
+        pred, outer(OUTER_KEYS), TestUtil.createKeyedTupleList("b.f", INNER_KEYS), false);
+  }
+
+  /**
+   * Unit test for IndexNestedLoopJoin.getNext(): the index is probed once
+   * per distinct outer key, in key order.
+   */
+  @Test public void probesOncePerKey() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortedIndex index = index(INNER_KEYS);
+    IndexNestedLoopJoin op = new IndexNestedLoopJoin(pred, outer(OUTER_KEYS), index);
+    op.open();
+    // 2 x 2 for key 1, 1 for key 3, 1 for key 4, 2 x 1 for key 5
+    assertEquals(8, TestUtil.countTuples(op));
+    assertEquals(5, op.getProbeCount());
+    assertEquals(Arrays.asList(1, 3, 4, 5, 9), index.probed);
+
+    op.rewind();
+    assertEquals(8, TestUtil.countTuples(op));
+    assertTrue(TestUtil.checkExhausted(op));
+
+    checkAgainstNestedLoops(Predicate.Op.EQUALS);
+  }
+
+  /**
+   * Unit test for IndexNestedLoopJoin.getNext() with batches of two tuples:
+   * each batch is sorted and probed on its own.
+   */
+  @Test public void smallBatches() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortedIndex index = index(INNER_KEYS);
+    IndexNestedLoopJoin op = new IndexNestedLoopJoin(pred, outer(OUTER_KEYS), index, 2 * TUPLE_BYTES);
+    assertEquals(2, op.getBatchSize());
+    op.open();
+    assertEquals(8, TestUtil.countTuples(op));
+    assertEquals(Arrays.asList(1, 5, 1, 3, 5, 9, 4), index.probed);
+  }
+
+  /**
+   * Unit test for IndexNestedLoopJoin.getNext() on range predicates, which
+   * are turned around to probe the inner index.
+   */
+  @Test public void ranges() throws Exception {
+    checkAgainstNestedLoops(Predicate.Op.LESS_THAN);
+    checkAgainstNestedLoops(Predicate.Op.LESS_THAN_OR_EQ);
+    checkAgainstNestedLoops(Predicate.Op.GREATER_THAN);
+    checkAgainstNestedLoops(Predicate.Op.GREATER_THAN_OR_EQ);
+  }
+
+  /**
+   * Unit test for JoinOptimizer.instantiateJoin over a real B-tree keyed on
+   * the join field: the planner does not pick the index join, as long as
+   * BTreeFile cannot look up keys yet.
+   */
+  @Test public void notChosenForBTreeKey() throws Exception {
+    BTreeFile encoded = BTreeUtility.createRandomBTreeFile(2, 1000, null, null, 0);
+    // the same file, with the column names the join refers to
+    BTreeFile btree = BTreeUtility.openBTreeFile(2, "b.f", encoded.getFile(), 0);
+    TransactionId tid = new TransactionId();
+
+    LogicalJoinNode lj = new LogicalJoinNode("a", "b", "f0", "f0", Predicate.Op.EQUALS);
+    OpIterator j = JoinOptimizer.instantiateJoin(lj, outer(OUTER_KEYS), new SeqScan(tid, btree.getId(), "b"));
+    assertTrue(j instanceof HashEquiJoin);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+  }
+}
@@ -130,6 +130,38 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test IntegerAggregator over many int groups, some of them negative
+   */
+  @Test public void countManyGroups() throws Exception {
+    int groups = 1000;
+    int[] data = new int[groups * 3 * width1];
+    for (int i = 0; i < groups * 3; i++) {
+      data[i * width1] = (i % groups - groups / 2) * 7919;
+      data[i * width1 + 1] = i;
+    }
+    OpIterator scan = TestUtil.createTupleList(width1, data);
+    IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.COUNT);
+    while (scan.hasNext()) {
+      agg.mergeTupleIntoGroup(scan.next());
+    }
+
+    int[] expected = new int[groups * width1];
+    for (int i = 0; i < groups; i++) {
+      expected[i * width1] = (i - groups / 2) * 7919;
+      expected[i * width1 + 1] = 3;
+    }
+    OpIterator it = agg.iterator();
+    it.open();
+    int count = 0;
+    while (it.hasNext()) {
+      it.next();
+      count++;
+    }
+    assertEquals(groups, count);
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1, expected), it);
+  }
+
   /**
    * Test IntegerAggregator.iterator() for OpIterator behaviour
    */
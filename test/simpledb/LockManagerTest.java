@@ -0,0 +1,153 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.DeadlockException;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LockManager;
+import simpledb.storage.LockManager.LockMode;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+public class LockManagerTest extends SimpleDbTestBase {
+
+    private final PageId a = new HeapPageId(1, 0);
+    private final PageId b = new HeapPageId(1, 1);
+    private LockManager lm;
+    private ExecutorService threads;
+
+    @Before public void setUp() {
+        lm = new LockManager();
+        threads = Executors.newCachedThreadPool();
+    }
+
+    @After public void tearDown() {
+        threads.shutdownNow();
+    }
+
+    private Future<?> acquireAsync(TransactionId tid, PageId pid, LockMode mode) {
+        return threads.submit(() -> {
+            lm.acquire(tid, pid, mode);
+            return null;
+        });
+    }
+
+    private static boolean isBlocked(Future<?> f) throws Exception {
+        try {
+            f.get(100, TimeUnit.MILLISECONDS);
+            return false;
+        } catch (TimeoutException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Unit test for deadlock detection: of the two transactions in a
+     * cycle, the younger one is aborted and the older one proceeds.
+     */
+    @Test public void youngestInCycleIsAborted() throws Exception {
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+        lm.acquire(older, a, LockMode.SHARED);
+        lm.acquire(younger, b, LockMode.SHARED);
+
+        Future<?> olderWrite = acquireAsync(older, b, LockMode.EXCLUSIVE);
+        assertTrue(isBlocked(olderWrite));
+        Future<?> youngerWrite = acquireAsync(younger, a, LockMode.EXCLUSIVE);
+
+        try {
+            youngerWrite.get(5, TimeUnit.SECONDS);
+            fail("expected the younger transaction to be aborted");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof DeadlockException);
+        }
+        assertTrue(isBlocked(olderWrite));
+        assertEquals(1, lm.getDeadlockCount());
+
+        lm.releaseAll(younger);
+        olderWrite.get(5, TimeUnit.SECONDS);
+        assertTrue(lm.holdsLock(older, b));
+        assertFalse(lm.holdsLock(younger, b));
+    }
+
+    /**
+     * Unit test for deadlock detection: a request waits for the requests
+     * queued ahead of it even when its mode is compatible with theirs, so a
+     * cycle through such a wait is found too.
+     */
+    @Test public void waitBehindCompatibleRequestIsInCycle() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        TransactionId t3 = new TransactionId();
+        lm.acquire(t1, a, LockMode.SHARED);
+        lm.acquire(t3, b, LockMode.EXCLUSIVE);
+
+        Future<?> intent = acquireAsync(t2, a, LockMode.INTENTION_EXCLUSIVE);
+        assertTrue(isBlocked(intent));
+        Future<?> read = acquireAsync(t1, b, LockMode.SHARED);
+        assertTrue(isBlocked(read));
+        // compatible with t1's lock and t2's request, but queued behind t2
+        Future<?> behind = acquireAsync(t3, a, LockMode.INTENTION_SHARED);
+
+        try {
+            behind.get(5, TimeUnit.SECONDS);
+            fail("expected the youngest transaction to be aborted");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof DeadlockException);
+        }
+        assertTrue(isBlocked(intent));
+        assertEquals(1, lm.getDeadlockCount());
+
+        lm.releaseAll(t3);
+        read.get(5, TimeUnit.SECONDS);
+        assertTrue(lm.holdsLock(t1, b));
+    }
+
+    /**
+     * Unit test for lock upgrades: a transaction upgrading its shared lock
+     * is served before exclusive requests that queued earlier.
+     */
+    @Test public void upgradeGoesFirst() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        TransactionId t3 = new TransactionId();
+        lm.acquire(t1, a, LockMode.SHARED);
+        lm.acquire(t2, a, LockMode.SHARED);
+
+        Future<?> write = acquireAsync(t3, a, LockMode.EXCLUSIVE);
+        assertTrue(isBlocked(write));
+        Future<?> upgrade = acquireAsync(t1, a, LockMode.EXCLUSIVE);
+        assertTrue(isBlocked(upgrade));
+
+        lm.releaseAll(t2);
+        upgrade.get(5, TimeUnit.SECONDS);
+        assertTrue(isBlocked(write));
+
+        lm.releaseAll(t1);
+        write.get(5, TimeUnit.SECONDS);
+        assertTrue(lm.holdsLock(t3, a));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
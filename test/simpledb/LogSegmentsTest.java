@@ -0,0 +1,106 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Utility;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LogFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+public class LogSegmentsTest extends SimpleDbTestBase {
+
+    private static final int SEGMENT_SIZE = 4096;
+    private static final int PAGES = 8;
+    private static final int TUPLES_PER_PAGE = 40;
+
+    private File data;
+    private File logFile;
+    private HeapFile hf;
+    private LogFile log;
+
+    @Before public void createLog() throws Exception {
+        data = File.createTempFile("segments", ".dat");
+        data.deleteOnExit();
+        hf = Utility.createEmptyHeapFile(data.getAbsolutePath(), 2);
+        logFile = File.createTempFile("segments", ".log");
+        logFile.deleteOnExit();
+        log = new LogFile(logFile, SEGMENT_SIZE);
+    }
+
+    @After public void tearDown() throws Exception {
+        log.delete();
+        data.delete();
+    }
+
+    // log PAGES pages of committed inserts, one update record per tuple,
+    // without writing the pages
+    private void logInserts() throws Exception {
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        for (int i = 0; i < PAGES; i++) {
+            HeapPage page = new HeapPage(new HeapPageId(hf.getId(), i), HeapPage.createEmptyPageData());
+            for (int j = 0; j < TUPLES_PER_PAGE; j++) {
+                page.setBeforeImage();
+                page.insertTuple(Utility.getHeapTuple(j, 2));
+                log.logWrite(tid, page.getBeforeImage(), page);
+            }
+        }
+        log.logCommit(tid);
+    }
+
+    /**
+     * Unit test for LogFile.recover: records spread over many segments, some
+     * of them across segment boundaries, are all redone.
+     */
+    @Test public void recoversAcrossSegments() throws Exception {
+        logInserts();
+        assertTrue(log.getSegmentCount() > 4);
+
+        log = new LogFile(logFile, SEGMENT_SIZE);
+        log.recover();
+        assertEquals(PAGES, hf.numPages());
+        HeapPage empty = new HeapPage(new HeapPageId(hf.getId(), 0), HeapPage.createEmptyPageData());
+        for (int i = 0; i < PAGES; i++) {
+            HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), i));
+            assertEquals(empty.getNumUnusedSlots() - TUPLES_PER_PAGE, page.getNumUnusedSlots());
+        }
+    }
+
+    /**
+     * Unit test for LogFile.logTruncate: a checkpoint with nothing active
+     * deletes the segments before it, and LSNs go on from where they were.
+     */
+    @Test public void checkpointDeletesOldSegments() throws Exception {
+        logInserts();
+        int segments = log.getSegmentCount();
+        long end = log.getEndLsn();
+
+        log.logCheckpoint();
+        assertTrue(log.getStartLsn() >= end);
+        assertTrue(log.getSegmentCount() <= 2);
+        assertTrue(log.getSegmentCount() < segments);
+
+        // and the truncated log still recovers
+        log = new LogFile(logFile, SEGMENT_SIZE);
+        log.recover();
+        assertTrue(log.getEndLsn() > end);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogSegmentsTest.class);
+    }
+}
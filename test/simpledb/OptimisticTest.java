@@ -0,0 +1,146 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+
+public class OptimisticTest extends SimpleDbTestBase {
+
+    private File file;
+    private HeapFile hf;
+    private HeapPageId pid;
+
+    @Before public void createTable() throws Exception {
+        file = File.createTempFile("optimistic", ".dat");
+        file.deleteOnExit();
+        hf = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+        pid = new HeapPageId(hf.getId(), 0);
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(1, 2));
+        t.commit();
+    }
+
+    @After public void tearDown() {
+        file.delete();
+    }
+
+    // the values of page 0, read by t
+    private List<Integer> values(Transaction t) throws Exception {
+        List<Integer> values = new ArrayList<>();
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(t.getId(), pid, Permissions.READ_ONLY);
+        page.iterator().forEachRemaining(tup -> values.add(((IntField) tup.getField(0)).getValue()));
+        return values;
+    }
+
+    // the values of page 0, read by a locking transaction of its own
+    private List<Integer> committedValues() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        List<Integer> values = values(t);
+        t.commit();
+        return values;
+    }
+
+    /**
+     * Unit test for BufferPool.validate: an optimistic transaction sees its
+     * own writes, no one else does until it commits, and it takes no locks
+     * before then.
+     */
+    @Test public void writesAreInstalledAtCommit() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        Transaction t = Transaction.optimistic();
+        t.start();
+        assertEquals(List.of(1), values(t));
+        bp.insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(2, 2));
+        assertEquals(List.of(1, 2), values(t));
+        assertTrue(!bp.holdsLock(t.getId(), pid));
+
+        assertEquals(List.of(1), committedValues());
+        t.commit();
+        assertEquals(List.of(1, 2), committedValues());
+    }
+
+    /**
+     * Unit test for BufferPool.validate: a page read by an optimistic
+     * transaction changes before it commits, so the commit fails and its
+     * writes are thrown away.
+     */
+    @Test public void staleReadFailsValidation() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        long conflicts = bp.getOptimisticStore().getConflictCount();
+        Transaction t = Transaction.optimistic();
+        t.start();
+        assertEquals(List.of(1), values(t));
+        bp.insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(2, 2));
+
+        Transaction other = new Transaction();
+        other.start();
+        bp.insertTuple(other.getId(), hf.getId(), Utility.getHeapTuple(3, 2));
+        other.commit();
+
+        try {
+            t.commit();
+            fail("commit should have failed validation");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        assertEquals(conflicts + 1, bp.getOptimisticStore().getConflictCount());
+        assertEquals(List.of(1, 3), committedValues());
+    }
+
+    /**
+     * Unit test for BufferPool.getPage: an optimistic transaction that reads
+     * a page holding changes of a running transaction aborts at once.
+     */
+    @Test public void uncommittedPageAbortsReader() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        Transaction writer = new Transaction();
+        writer.start();
+        bp.insertTuple(writer.getId(), hf.getId(), Utility.getHeapTuple(2, 2));
+
+        Transaction t = Transaction.optimistic();
+        t.start();
+        try {
+            values(t);
+            fail("reading an uncommitted page should abort");
+        } catch (TransactionAbortedException e) {
+            t.abort();
+        }
+        writer.abort();
+
+        // once the writer is gone, reading and committing succeeds
+        t = Transaction.optimistic();
+        t.start();
+        assertEquals(List.of(1), values(t));
+        t.commit();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OptimisticTest.class);
+    }
+}
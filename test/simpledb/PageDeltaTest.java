@@ -0,0 +1,94 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LogFile;
+import simpledb.storage.PageDelta;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class PageDeltaTest extends SimpleDbTestBase {
+
+    private HeapPageId pid;
+
+    @Before public void addTable() {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+    }
+
+    /**
+     * Unit test for PageDelta: the delta of an insert holds only the changed
+     * bytes, survives a round trip through its serialized form, and redo
+     * and undo turn either image into the other.
+     */
+    @Test public void insertDeltaRedoesAndUndoes() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        byte[] before = page.getPageData();
+        page.insertTuple(Utility.getHeapTuple(7, 2));
+        byte[] after = page.getPageData();
+
+        PageDelta delta = PageDelta.diff(before, after);
+        // one bit of the header and the 8 bytes of the tuple
+        assertTrue(delta.changedBytes() < 32);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        delta.write(new DataOutputStream(bytes));
+        PageDelta read = PageDelta.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertArrayEquals(after, read.redo(before));
+        assertArrayEquals(before, read.undo(after));
+        // and both can be repeated
+        assertArrayEquals(after, read.redo(after));
+        assertArrayEquals(before, read.undo(before));
+    }
+
+    /**
+     * Unit test for LogFile.logWrite: the UPDATE record of a heap page
+     * holds the delta instead of two page images.
+     */
+    @Test public void heapPageUpdateIsSmall() throws Exception {
+        File file = File.createTempFile("delta", ".log");
+        file.deleteOnExit();
+        LogFile log = new LogFile(file);
+        try {
+            TransactionId tid = new TransactionId();
+            log.logXactionBegin(tid);
+            long start = log.getEndLsn();
+
+            HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+            page.setBeforeImage();
+            page.insertTuple(Utility.getHeapTuple(7, 2));
+            log.logWrite(tid, page.getBeforeImage(), page);
+            assertEquals(2, log.getTotalRecords());
+            assertTrue(log.getEndLsn() - start < BufferPool.getPageSize() / 16);
+        } finally {
+            log.delete();
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageDeltaTest.class);
+    }
+}
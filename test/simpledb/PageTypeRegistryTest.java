@@ -0,0 +1,78 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeRootPtrPage;
+import simpledb.storage.LogFile;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.storage.PageTypeRegistry;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+public class PageTypeRegistryTest extends SimpleDbTestBase {
+
+    /**
+     * Unit test for PageTypeRegistry: a page and its id are rebuilt from
+     * the type code and their serialized form.
+     */
+    @Test public void rebuildsPages() throws Exception {
+        BTreePageId pid = new BTreePageId(3, 0, BTreePageId.ROOT_PTR);
+        BTreeRootPtrPage page = new BTreeRootPtrPage(pid, BTreeRootPtrPage.createEmptyPageData());
+
+        byte code = PageTypeRegistry.codeOf(page);
+        assertEquals(PageTypeRegistry.BTREE_ROOT_PTR_PAGE, code);
+        PageId id = PageTypeRegistry.newPageId(code, pid.serialize());
+        assertEquals(pid, id);
+        Page copy = PageTypeRegistry.newPage(code, id, page.getPageData());
+        assertTrue(copy instanceof BTreeRootPtrPage);
+        assertArrayEquals(page.getPageData(), copy.getPageData());
+
+        try {
+            PageTypeRegistry.newPage((byte) 99, id, page.getPageData());
+            fail("expected an unknown page type to be rejected");
+        } catch (IOException expected) {
+        }
+    }
+
+    /**
+     * Unit test for LogFile: an UPDATE record with full page images holds
+     * little more than the two images.
+     */
+    @Test public void updateRecordIsCompact() throws Exception {
+        File file = File.createTempFile("pagetypes", ".log");
+        file.deleteOnExit();
+        LogFile log = new LogFile(file);
+        try {
+            TransactionId tid = new TransactionId();
+            log.logXactionBegin(tid);
+            long start = log.getEndLsn();
+
+            BTreePageId pid = new BTreePageId(3, 0, BTreePageId.ROOT_PTR);
+            BTreeRootPtrPage page = new BTreeRootPtrPage(pid, BTreeRootPtrPage.createEmptyPageData());
+            log.logWrite(tid, page, page);
+            long images = 2L * page.getPageData().length;
+            // type, tid and offset, then per image its type, id and length
+            assertTrue(log.getEndLsn() - start <= images + 4 + 8 + 8 + 2 * (1 + 1 + 3 * 4 + 4));
+        } finally {
+            log.delete();
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageTypeRegistryTest.class);
+    }
+}
@@ -0,0 +1,132 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.RecordId;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class RecordLockingTest extends TestUtil.CreateHeapFile {
+
+    private BufferPool bp;
+    private ExecutorService threads;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Database.getCatalog().setRecordLocking(empty.getId(), true);
+        threads = Executors.newCachedThreadPool();
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 10; i++) {
+            bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        }
+        bp.transactionComplete(tid);
+    }
+
+    @After public void tearDown() {
+        threads.shutdownNow();
+    }
+
+    private static List<List<Integer>> rows(int... values) {
+        List<List<Integer>> rows = new ArrayList<>();
+        for (int v : values) {
+            List<Integer> row = new ArrayList<>();
+            row.add(v);
+            row.add(v);
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private Tuple stored(TransactionId tid, int slot) throws Exception {
+        RecordId rid = new RecordId(new HeapPageId(empty.getId(), 0), slot);
+        Tuple t = Utility.getHeapTuple(slot, 2);
+        t.setRecordId(rid);
+        return t;
+    }
+
+    /**
+     * Unit test for record locking: transactions changing different records
+     * of one page do not wait for each other, while a reader of a changed
+     * record does.
+     */
+    @Test public void writersOfOnePageDoNotBlock() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        bp.deleteTuple(t1, stored(t1, 3));
+
+        Future<?> t2Writes = threads.submit(() -> {
+            bp.deleteTuple(t2, stored(t2, 4));
+            bp.insertTuple(t2, empty.getId(), Utility.getHeapTuple(20, 2));
+            return null;
+        });
+        t2Writes.get(5, TimeUnit.SECONDS);
+        assertEquals(1, empty.numPages());
+
+        // the slot t1 emptied stays reserved for it
+        RecordId reserved = new RecordId(new HeapPageId(empty.getId(), 0), 3);
+        Future<?> read = threads.submit(() -> {
+            bp.lockRecord(t2, reserved, Permissions.READ_ONLY);
+            return null;
+        });
+        try {
+            read.get(200, TimeUnit.MILLISECONDS);
+            throw new AssertionError("read of a record deleted by another transaction did not wait");
+        } catch (TimeoutException expected) {
+        }
+        bp.transactionComplete(t1);
+        read.get(5, TimeUnit.SECONDS);
+        bp.transactionComplete(t2);
+
+        SystemTestUtil.matchTuples(empty, rows(0, 1, 2, 5, 6, 7, 8, 9, 20));
+    }
+
+    /**
+     * Unit test for aborts with record locking: only the records of the
+     * aborted transaction are put back, other changes to the page stay.
+     */
+    @Test public void abortUndoesOnlyOwnRecords() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        bp.deleteTuple(t1, stored(t1, 3));
+        bp.insertTuple(t1, empty.getId(), Utility.getHeapTuple(30, 2));
+        bp.deleteTuple(t2, stored(t2, 5));
+
+        bp.transactionComplete(t1, false);
+        assertTrue(bp.holdsLock(t2, new HeapPageId(empty.getId(), 0)));
+        bp.transactionComplete(t2, true);
+
+        SystemTestUtil.matchTuples(empty, rows(0, 1, 2, 3, 4, 6, 7, 8, 9));
+        // and the same is on disk
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(empty, rows(0, 1, 2, 3, 4, 6, 7, 8, 9));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RecordLockingTest.class);
+    }
+}
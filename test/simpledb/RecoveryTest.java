@@ -0,0 +1,198 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.LogFile;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+public class RecoveryTest extends SimpleDbTestBase {
+
+    private File file1;
+    private File file2;
+    private HeapFile hf1;
+    private HeapFile hf2;
+
+    @Before public void createTables() throws Exception {
+        file1 = File.createTempFile("recovery1", ".dat");
+        file1.deleteOnExit();
+        file2 = File.createTempFile("recovery2", ".dat");
+        file2.deleteOnExit();
+        hf1 = Utility.createEmptyHeapFile(file1.getAbsolutePath(), 2);
+        hf2 = Utility.createEmptyHeapFile(file2.getAbsolutePath(), 2);
+    }
+
+    @After public void tearDown() {
+        file1.delete();
+        file2.delete();
+    }
+
+    private void crash() {
+        Database.reset();
+        hf1 = Utility.openHeapFile(2, file1);
+        hf2 = Utility.openHeapFile(2, file2);
+    }
+
+    private List<Integer> values(HeapFile hf) throws Exception {
+        List<Integer> values = new ArrayList<>();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < hf.numPages(); i++) {
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+            page.iterator().forEachRemaining(t -> values.add(((IntField) t.getField(0)).getValue()));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        return values;
+    }
+
+    /**
+     * Unit test for LogFile.recover: committed updates of pages that never
+     * reached disk are redone by several threads, each page by one of them.
+     */
+    @Test public void parallelRedo() throws Exception {
+        LogFile log = Database.getLogFile();
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        int pages = 8;
+        for (HeapFile hf : new HeapFile[]{hf1, hf2}) {
+            for (int i = 0; i < pages; i++) {
+                HeapPage page = new HeapPage(new HeapPageId(hf.getId(), i), HeapPage.createEmptyPageData());
+                page.setBeforeImage();
+                // two updates of each page, so redo must keep their order
+                page.insertTuple(Utility.getHeapTuple(i, 2));
+                log.logWrite(tid, page.getBeforeImage(), page);
+                page.setBeforeImage();
+                page.insertTuple(Utility.getHeapTuple(100 + i, 2));
+                log.logWrite(tid, page.getBeforeImage(), page);
+            }
+        }
+        log.logCommit(tid);
+
+        crash();
+        Database.getLogFile().setRedoThreads(4);
+        Database.getLogFile().recover();
+
+        for (HeapFile hf : new HeapFile[]{hf1, hf2}) {
+            assertEquals(pages, hf.numPages());
+            List<Integer> values = values(hf);
+            assertEquals(2 * pages, values.size());
+            for (int i = 0; i < pages; i++) {
+                assertTrue(values.contains(i));
+                assertTrue(values.contains(100 + i));
+            }
+        }
+    }
+
+    /**
+     * Unit test for LogFile.recover: the undo of a loser is logged, so a
+     * later recovery does not undo it again over a committed update.
+     */
+    @Test public void undoIsNotRepeated() throws Exception {
+        Transaction loser = new Transaction();
+        loser.start();
+        Database.getBufferPool().insertTuple(loser.getId(), hf1.getId(), Utility.getHeapTuple(1, 2));
+        Database.getBufferPool().flushAllPages();
+
+        crash();
+        Database.getLogFile().recover();
+        assertTrue(values(hf1).isEmpty());
+
+        Transaction winner = new Transaction();
+        winner.start();
+        Database.getBufferPool().insertTuple(winner.getId(), hf1.getId(), Utility.getHeapTuple(2, 2));
+        winner.commit();
+
+        crash();
+        Database.getLogFile().recover();
+        assertEquals(List.of(2), values(hf1));
+    }
+
+    /**
+     * Unit test for LogFile.recover: a page logged twice by a transaction is
+     * redone correctly, including bytes that the second update changes back
+     * to their committed values.
+     */
+    @Test public void pageLoggedTwice() throws Exception {
+        Transaction setup = new Transaction();
+        setup.start();
+        for (int i = 0; i < 9; i++) {
+            Database.getBufferPool().insertTuple(setup.getId(), hf1.getId(), Utility.getHeapTuple(i, 2));
+        }
+        setup.commit();
+
+        Transaction t = new Transaction();
+        t.start();
+        HeapPageId pid = new HeapPageId(hf1.getId(), 0);
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(t.getId(), pid, Permissions.READ_WRITE);
+        Database.getBufferPool().deleteTuple(t.getId(), page.iterator().next());
+        Database.getBufferPool().flushPages(t.getId());
+        Database.getBufferPool().insertTuple(t.getId(), hf1.getId(), Utility.getHeapTuple(0, 2));
+        Tuple last = null;
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); ) {
+            last = it.next();
+        }
+        Database.getBufferPool().deleteTuple(t.getId(), last);
+        t.commit();
+
+        crash();
+        Database.getLogFile().recover();
+        assertEquals(List.of(0, 1, 2, 3, 4, 5, 6, 7), values(hf1));
+    }
+
+    /**
+     * Unit test for LogFile.logCheckpoint: a checkpoint writes no pages,
+     * and LSNs keep growing when it truncates the log.
+     */
+    @Test public void fuzzyCheckpoint() throws Exception {
+        LogFile log = Database.getLogFile();
+        for (int i = 0; i < 4; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            Database.getBufferPool().insertTuple(t.getId(), hf1.getId(), Utility.getHeapTuple(i, 2));
+            t.commit();
+        }
+
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), hf2.getId(), Utility.getHeapTuple(7, 2));
+        HeapPageId pid = new HeapPageId(hf2.getId(), 0);
+        long lsn = log.getEndLsn();
+        log.logCheckpoint();
+        assertTrue(log.getEndLsn() > lsn);
+        assertEquals(t.getId(), Database.getBufferPool().getPage(t.getId(), pid, Permissions.READ_ONLY).isDirty());
+        HeapPage empty = new HeapPage(pid, HeapPage.createEmptyPageData());
+        assertEquals(empty.getNumUnusedSlots(), ((HeapPage) hf2.readPage(pid)).getNumUnusedSlots());
+        t.commit();
+
+        crash();
+        Database.getLogFile().recover();
+        assertEquals(4, values(hf1).size());
+        assertEquals(List.of(7), values(hf2));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RecoveryTest.class);
+    }
+}
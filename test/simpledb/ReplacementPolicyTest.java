@@ -0,0 +1,102 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.storage.ClockReplacementPolicy;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LruKReplacementPolicy;
+import simpledb.storage.PageId;
+import simpledb.storage.ReplacementPolicy;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static PageId pid(int pgNo) {
+        return new HeapPageId(1, pgNo);
+    }
+
+    /**
+     * Unit test for CLOCK: referenced pages get a second chance.
+     */
+    @Test public void clockSecondChance() {
+        ReplacementPolicy p = new ClockReplacementPolicy(3);
+        p.pageAdded(pid(0));
+        p.pageAdded(pid(1));
+        p.pageAdded(pid(2));
+        p.pageAccessed(pid(0));
+
+        assertEquals(pid(1), p.chooseVictim(x -> true));
+    }
+
+    /**
+     * Unit test for CLOCK: pages rejected by the evictable test are skipped.
+     */
+    @Test public void clockSkipsDirty() {
+        ReplacementPolicy p = new ClockReplacementPolicy(2);
+        p.pageAdded(pid(0));
+        p.pageAdded(pid(1));
+
+        assertEquals(pid(1), p.chooseVictim(x -> !x.equals(pid(0))));
+        assertNull(p.chooseVictim(x -> false));
+    }
+
+    /**
+     * Unit test for CLOCK: removed pages free their frame for reuse.
+     */
+    @Test public void clockReusesFrames() {
+        ReplacementPolicy p = new ClockReplacementPolicy(1);
+        p.pageAdded(pid(0));
+        p.pageRemoved(pid(0));
+        p.pageAdded(pid(1));
+
+        assertEquals(pid(1), p.chooseVictim(x -> true));
+    }
+
+    /**
+     * Unit test for LRU-K: a scan of pages touched once does not evict pages
+     * that were referenced K times.
+     */
+    @Test public void lruKScanResistant() {
+        ReplacementPolicy p = new LruKReplacementPolicy(4, 2);
+        p.pageAdded(pid(0));
+        p.pageAccessed(pid(0));
+
+        for (int i = 1; i < 4; i++) {
+            p.pageAdded(pid(i));
+        }
+        // all scan pages go before the hot page, oldest first
+        for (int i = 1; i < 4; i++) {
+            PageId victim = p.chooseVictim(x -> true);
+            assertEquals(pid(i), victim);
+            p.pageRemoved(victim);
+        }
+        assertEquals(pid(0), p.chooseVictim(x -> true));
+    }
+
+    /**
+     * Unit test for LRU-K: among pages with full histories, the one with the
+     * oldest K-th access is evicted.
+     */
+    @Test public void lruKBackwardDistance() {
+        ReplacementPolicy p = new LruKReplacementPolicy(2, 2);
+        p.pageAdded(pid(0));
+        p.pageAdded(pid(1));
+        p.pageAccessed(pid(0));
+        p.pageAccessed(pid(1));
+        p.pageAccessed(pid(0));
+
+        assertEquals(pid(1), p.chooseVictim(x -> true));
+        assertEquals(pid(0), p.chooseVictim(x -> !x.equals(pid(1))));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -0,0 +1,139 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.RecordId;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionId;
+
+public class SnapshotReadTest extends TestUtil.CreateHeapFile {
+
+    private BufferPool bp;
+    private ExecutorService threads;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        threads = Executors.newCachedThreadPool();
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 10; i++) {
+            bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        }
+        bp.transactionComplete(tid);
+    }
+
+    @After public void tearDown() {
+        threads.shutdownNow();
+    }
+
+    private Tuple stored(int slot) {
+        Tuple t = Utility.getHeapTuple(slot, 2);
+        t.setRecordId(new RecordId(new HeapPageId(empty.getId(), 0), slot));
+        return t;
+    }
+
+    // scan the table in another thread, failing if the scan has to wait
+    private List<Integer> scan(TransactionId tid) throws Exception {
+        Future<List<Integer>> scan = threads.submit(() -> {
+            List<Integer> values = new ArrayList<>();
+            DbFileIterator it = empty.iterator(tid);
+            it.open();
+            while (it.hasNext()) {
+                values.add(((IntField) it.next().getField(0)).getValue());
+            }
+            it.close();
+            Collections.sort(values);
+            return values;
+        });
+        return scan.get(5, TimeUnit.SECONDS);
+    }
+
+    private static List<Integer> values(int... values) {
+        List<Integer> list = new ArrayList<>();
+        for (int v : values) {
+            list.add(v);
+        }
+        return list;
+    }
+
+    /**
+     * Unit test for snapshot reads: a snapshot scan does not wait for a
+     * writer holding the page, and sees neither its uncommitted changes nor
+     * changes committed after the snapshot was taken.
+     */
+    @Test public void snapshotIgnoresLaterWrites() throws Exception {
+        TransactionId reader = new TransactionId();
+        bp.beginSnapshot(reader);
+
+        TransactionId writer = new TransactionId();
+        bp.deleteTuple(writer, stored(3));
+        bp.insertTuple(writer, empty.getId(), Utility.getHeapTuple(20, 2));
+        assertEquals(values(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), scan(reader));
+
+        bp.transactionComplete(writer, true);
+        assertEquals(values(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), scan(reader));
+
+        // a later snapshot sees the commit, but not a write aborted meanwhile
+        TransactionId aborted = new TransactionId();
+        bp.deleteTuple(aborted, stored(5));
+        TransactionId later = new TransactionId();
+        bp.beginSnapshot(later);
+        bp.transactionComplete(aborted, false);
+        assertEquals(values(0, 1, 2, 4, 5, 6, 7, 8, 9, 20), scan(later));
+        assertEquals(values(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), scan(reader));
+
+        bp.transactionComplete(reader);
+        bp.transactionComplete(later);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (bp.getVersionStore().size() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, bp.getVersionStore().size());
+    }
+
+    /**
+     * Unit test for snapshot reads: a transaction reading from a snapshot
+     * may not write.
+     */
+    @Test public void snapshotIsReadOnly() throws Exception {
+        TransactionId reader = new TransactionId();
+        bp.beginSnapshot(reader);
+        try {
+            bp.insertTuple(reader, empty.getId(), Utility.getHeapTuple(20, 2));
+            fail("expected a write from a snapshot to be refused");
+        } catch (DbException expected) {
+        }
+        bp.transactionComplete(reader);
+        assertFalse(bp.holdsLock(reader, new HeapPageId(empty.getId(), 0)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SnapshotReadTest.class);
+    }
+}
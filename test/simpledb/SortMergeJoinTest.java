@@ -0,0 +1,112 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.DbException;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.Predicate;
+import simpledb.execution.SortMergeJoin;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.LogicalJoinNode;
+import simpledb.storage.TupleIterator;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+  // join keys, sorted, with runs of duplicates on both sides
+  private static final int[] OUTER_KEYS = { 1, 2, 2, 3, 5, 5, 7, 9 };
+  private static final int[] INNER_KEYS = { 0, 2, 2, 2, 5, 6, 7, 7 };
+
+  private static TupleIterator outer(int... keys) {
+    return TestUtil.createKeyedTupleList("a.f", keys);
+  }
+
+  private static TupleIterator inner(int... keys) {
+    return TestUtil.createKeyedTupleList("b.f", keys);
+  }
+
+  // a sort-merge join returns the same tuples as nested loops, in the same
+  // order
+  private static void checkAgainstNestedLoops(Predicate.Op op) throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, op, 0);
+    TestUtil.checkAgainstNestedLoops(new SortMergeJoin(pred, outer(OUTER_KEYS), inner(INNER_KEYS)),
+        pred, outer(OUTER_KEYS), inner(INNER_KEYS), true);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() on equality: every outer tuple of
+   * a run of duplicates is joined to the whole inner run.
+   */
+  @Test public void duplicateRuns() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, outer(OUTER_KEYS), inner(INNER_KEYS));
+    op.open();
+    // 2 x 3 for key 2, 2 x 1 for key 5, 1 x 2 for key 7
+    assertEquals(10, TestUtil.countTuples(op));
+    assertTrue(TestUtil.checkExhausted(op));
+
+    checkAgainstNestedLoops(Predicate.Op.EQUALS);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() on range predicates.
+   */
+  @Test public void ranges() throws Exception {
+    checkAgainstNestedLoops(Predicate.Op.LESS_THAN);
+    checkAgainstNestedLoops(Predicate.Op.LESS_THAN_OR_EQ);
+    checkAgainstNestedLoops(Predicate.Op.GREATER_THAN);
+    checkAgainstNestedLoops(Predicate.Op.GREATER_THAN_OR_EQ);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext(): input out of order is refused
+   * rather than joined wrongly.
+   */
+  @Test public void unsortedInput() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, outer(1, 3, 2), inner(1, 2, 3));
+    op.open();
+    try {
+      TestUtil.countTuples(op);
+      fail("expected DbException");
+    } catch (DbException e) {
+      // expected
+    }
+  }
+
+  /**
+   * Unit test for JoinOptimizer.instantiateJoin: a sort-merge join when
+   * both children are known to be sorted on the join fields.
+   */
+  @Test public void chosenForSortedChildren() throws Exception {
+    LogicalJoinNode lj = new LogicalJoinNode("a", "b", "f0", "f0", Predicate.Op.EQUALS);
+    OpIterator sorted1 = new OrderBy(0, true, outer(3, 1, 2));
+    OpIterator sorted2 = new OrderBy(0, true, inner(2, 3, 1));
+    OpIterator j = JoinOptimizer.instantiateJoin(lj, sorted1, sorted2);
+    assertTrue(j instanceof SortMergeJoin);
+    assertEquals(0, JoinOptimizer.sortedField(j));
+    j.open();
+    assertEquals(3, TestUtil.countTuples(j));
+
+    // sorted on another field, or descending
+    j = JoinOptimizer.instantiateJoin(lj, new OrderBy(1, true, outer(1)), sorted2);
+    assertTrue(j instanceof HashEquiJoin);
+    j = JoinOptimizer.instantiateJoin(lj, sorted1, new OrderBy(0, false, inner(1)));
+    assertTrue(j instanceof HashEquiJoin);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortMergeJoinTest.class);
+  }
+}
@@ -1,6 +1,8 @@
 package simpledb;
 
 import simpledb.common.*;
+import simpledb.execution.Join;
+import simpledb.execution.JoinPredicate;
 import simpledb.execution.OpIterator;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionAbortedException;
@@ -85,6 +87,33 @@ public class TestUtil {
         return result;
     }
 
+    /**
+     * @return tuples of td, which has two int fields, such that the ith
+     *   tuple is {keys[i], i}
+     */
+    public static List<Tuple> createKeyedTuples(TupleDesc td, int... keys) {
+        List<Tuple> tuplist = new ArrayList<>();
+        for (int i = 0; i < keys.length; i++) {
+            Tuple tup = new Tuple(td);
+            tup.setField(0, getField(keys[i]));
+            tup.setField(1, getField(i));
+            tuplist.add(tup);
+        }
+        return tuplist;
+    }
+
+    /**
+     * @return a OpIterator over the tuples {keys[i], i} of two int fields,
+     *   named prefix + "0" and prefix + "1", e.g. "a.f0" for prefix "a.f",
+     *   so that joins can refer to them. This iterator is already open.
+     */
+    public static TupleIterator createKeyedTupleList(String prefix, int... keys) {
+        TupleDesc td = Utility.getTupleDesc(2, prefix);
+        TupleIterator result = new TupleIterator(td, createKeyedTuples(td, keys));
+        result.open();
+        return result;
+    }
+
     /**
      * @return true iff the tuples have the same number of fields and
      *   corresponding fields in the two Tuples are all equal.
@@ -151,6 +180,58 @@ public class TestUtil {
         }
     }
 
+    /**
+     * @return the number of tuples left in the OpIterator, which is
+     *   exhausted afterwards
+     */
+    public static int countTuples(OpIterator it)
+            throws DbException, TransactionAbortedException {
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Check that a join returns the same tuples as a nested-loops join of
+     * the same inputs, in the same order if ordered is set, or else in any
+     * order. The joins are opened here, and when ordered, compared again
+     * after a rewind.
+     *
+     * @param actual the join to check, over one copy of the inputs
+     * @param p      the predicate actual joins on
+     * @param outer  another copy of the outer input of actual
+     * @param inner  another copy of the inner input of actual
+     */
+    public static void checkAgainstNestedLoops(OpIterator actual, JoinPredicate p,
+            OpIterator outer, OpIterator inner, boolean ordered)
+            throws DbException, TransactionAbortedException {
+        Join expected = new Join(p, outer, inner);
+        expected.open();
+        actual.open();
+        if (ordered) {
+            compareDbIterators(expected, actual);
+            expected.rewind();
+            actual.rewind();
+            compareDbIterators(expected, actual);
+        } else {
+            assertEquals(sortedTuples(expected), sortedTuples(actual));
+        }
+    }
+
+    // the remaining tuples of it, as strings in sorted order
+    private static List<String> sortedTuples(OpIterator it)
+            throws DbException, TransactionAbortedException {
+        List<String> tuples = new ArrayList<>();
+        while (it.hasNext()) {
+            tuples.add(it.next().toString());
+        }
+        Collections.sort(tuples);
+        return tuples;
+    }
+
     /**
      * Verifies that the OpIterator has been exhausted of all elements.
      */
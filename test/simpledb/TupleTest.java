@@ -3,6 +3,8 @@ package simpledb;
 import static org.junit.Assert.assertEquals;
 import junit.framework.JUnit4TestAdapter;
 
+import java.nio.ByteBuffer;
+
 import org.junit.Test;
 
 import simpledb.common.Utility;
@@ -59,6 +61,25 @@ public class TupleTest extends SimpleDbTestBase {
 	}
     }
 
+    /**
+     * Unit test for tuples decoded lazily from a serialized image
+     */
+    @Test public void lazyFields() {
+        TupleDesc td = Utility.getTupleDesc(3);
+        ByteBuffer image = ByteBuffer.allocate(4 + td.getSize());
+        image.putInt(4, 7).putInt(8, 8).putInt(12, 9);
+
+        Tuple tup = new Tuple(td, image, 4);
+        tup.setField(2, new IntField(42));
+        assertEquals(new IntField(7), tup.getField(0));
+
+        // once materialized, the tuple no longer reads the image
+        tup.materialize();
+        image.putInt(8, -1);
+        assertEquals(new IntField(8), tup.getField(1));
+        assertEquals(new IntField(42), tup.getField(2));
+    }
+
     /**
      * JUnit suite target
      */